@@ -0,0 +1,112 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.jfr;
+
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emits the traced stages as Java Flight Recorder events. Loaded by
+ * {@link Tracer} if available; JFR only costs an allocation per stage as
+ * long as no recording is running.
+ */
+public final class JfrTracer extends Tracer {
+
+    @Name("henplus.Execute")
+    @Label("Statement Execute")
+    @Description("Execution of a statement until its result is available")
+    static final class ExecuteEvent extends StageEvent {
+    }
+
+    @Name("henplus.FirstRow")
+    @Label("First Row Fetch")
+    @Description("Reading the first row of a result set")
+    static final class FirstRowEvent extends StageEvent {
+    }
+
+    @Name("henplus.Fetch")
+    @Label("Result Fetch")
+    @Description("Reading all rows of a result set")
+    static final class FetchEvent extends StageEvent {
+    }
+
+    @Name("henplus.Render")
+    @Label("Render")
+    @Description("Formatting and printing a result")
+    static final class RenderEvent extends StageEvent {
+    }
+
+    @Name("henplus.DumpTable")
+    @Label("Dump Table")
+    @Description("Writing a table to a dump file")
+    static final class DumpTableEvent extends StageEvent {
+    }
+
+    @Name("henplus.ImportBatch")
+    @Label("Import Row Batch")
+    @Description("Inserting a batch of rows read from a dump or import file")
+    static final class ImportBatchEvent extends StageEvent {
+    }
+
+    @Name("henplus.MetaData")
+    @Label("Metadata Fetch")
+    @Description("Reading table and column metadata of the database")
+    static final class MetaDataEvent extends StageEvent {
+    }
+
+    @Name("henplus.Completion")
+    @Label("Completion Lookup")
+    @Description("Looking up the alternatives for the tab-completion")
+    static final class CompletionEvent extends StageEvent {
+    }
+
+    @Override
+    protected TraceSpan begin(final int stage) {
+        StageEvent event;
+        switch (stage) {
+        case EXECUTE:
+            event = new ExecuteEvent();
+            break;
+        case FIRST_ROW:
+            event = new FirstRowEvent();
+            break;
+        case FETCH:
+            event = new FetchEvent();
+            break;
+        case RENDER:
+            event = new RenderEvent();
+            break;
+        case DUMP_TABLE:
+            event = new DumpTableEvent();
+            break;
+        case IMPORT_BATCH:
+            event = new ImportBatchEvent();
+            break;
+        case METADATA:
+            event = new MetaDataEvent();
+            break;
+        case COMPLETION:
+            event = new CompletionEvent();
+            break;
+        default:
+            return NO_SPAN;
+        }
+        if (!event.isEnabled()) {
+            return NO_SPAN;
+        }
+        event.begin();
+        return event;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
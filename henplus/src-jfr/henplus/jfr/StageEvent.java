@@ -0,0 +1,74 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.jfr;
+
+import henplus.event.TraceSpan;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The common fields of all HenPlus events; fields that do not apply to a
+ * stage are left empty.
+ */
+@Category("HenPlus")
+@StackTrace(false)
+abstract class StageEvent extends Event implements TraceSpan {
+    /** longer statements are cut to keep the recording small */
+    private static final int MAX_SQL_LENGTH = 4096;
+
+    @Label("SQL Hash")
+    int sqlHash;
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Table")
+    String table;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    public void setSQL(final String statement) {
+        if (statement == null) {
+            return;
+        }
+        sqlHash = statement.hashCode();
+        sql = statement.length() > MAX_SQL_LENGTH ? statement.substring(0,
+                MAX_SQL_LENGTH) : statement;
+    }
+
+    public void setTable(final String tableName) {
+        table = tableName;
+    }
+
+    public void setRows(final long rowCount) {
+        rows = rowCount;
+    }
+
+    public void setBytes(final long byteCount) {
+        bytes = byteCount;
+    }
+
+    public void finish() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
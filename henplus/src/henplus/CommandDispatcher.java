@@ -7,6 +7,11 @@
 package henplus;
 
 import henplus.event.ExecutionListener;
+import henplus.event.RunningCommand;
+import henplus.event.StatementListener;
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import henplus.commands.SQLCommand;
 import henplus.commands.SetCommand;
 
 import java.util.ArrayList;
@@ -28,12 +33,17 @@ public class CommandDispatcher implements ReadlineCompleter {
     private final SortedMap<String, Command> _commandMap;
     private final SetCommand _setCommand;
     private final List<ExecutionListener> _executionListeners;
+    private final List<StatementListener> _statementListeners;
+    /** the commands executing; nested ones, e.g. of a script, last */
+    private final List<RunningCommand> _running;
     private int _batchCount;
 
     public CommandDispatcher(final SetCommand sc) {
         _commandMap = new TreeMap<String, Command>();
         _commands = new ArrayList<Command>();
         _executionListeners = new ArrayList<ExecutionListener>();
+        _statementListeners = new ArrayList<StatementListener>();
+        _running = new ArrayList<RunningCommand>();
         _batchCount = 0;
         _setCommand = sc;
         // FIXME: remove cyclic dependency..
@@ -205,6 +215,47 @@ public class CommandDispatcher implements ReadlineCompleter {
         return _executionListeners.remove(listener);
     }
 
+    /**
+     * Add a statement listener that is informed after each SQL statement
+     * with the time it took.
+     */
+    public void addStatementListener(final StatementListener listener) {
+        if (!_statementListeners.contains(listener)) {
+            _statementListeners.add(listener);
+        }
+    }
+
+    /**
+     * remove a statement listener.
+     *
+     * @return true, if this has been successful.
+     */
+    public boolean removeStatementListener(final StatementListener listener) {
+        return _statementListeners.remove(listener);
+    }
+
+    /**
+     * the commands executing right now, the innermost last.
+     */
+    public List<RunningCommand> getRunningCommands() {
+        synchronized (_running) {
+            return new ArrayList<RunningCommand>(_running);
+        }
+    }
+
+    private void informStatementListeners(final SQLSession session,
+            final RunningCommand running, final int result) {
+        if (_statementListeners.isEmpty()) {
+            return;
+        }
+        final long nanos = running.getElapsedNanos();
+        final Iterator<StatementListener> it = _statementListeners.iterator();
+        while (it.hasNext()) {
+            it.next().statementExecuted(session, running.getCommand(), result,
+                    running.getStartTime(), nanos);
+        }
+    }
+
     private void informBeforeListeners(final SQLSession session, final String cmd) {
         final Iterator it = _executionListeners.iterator();
         while (it.hasNext()) {
@@ -226,6 +277,15 @@ public class CommandDispatcher implements ReadlineCompleter {
      * semicolons and calls the Command class.
      */
     public void execute(final SQLSession session, final String givenCommand) {
+        execute(session, givenCommand, null);
+    }
+
+    /**
+     * execute the command, whose name is known already, e.g. from a compiled
+     * script; if the name is null, it is determined from the command.
+     */
+    public void execute(final SQLSession session, final String givenCommand,
+            final String commandName) {
         if (givenCommand == null) {
             return;
         }
@@ -245,10 +305,12 @@ public class CommandDispatcher implements ReadlineCompleter {
         cmdBuf.setLength(i + 1);
         final String cmd = cmdBuf.toString();
         // System.err.println("## '" + cmd + "'");
-        final String cmdStr = getCommandNameFrom(cmd);
+        final String cmdStr = commandName != null ? commandName
+                : getCommandNameFrom(cmd);
         final Command c = getCommandFromCooked(cmdStr);
         // System.err.println("name: "+ cmdStr + "; c=" + c);
         if (c != null) {
+            RunningCommand running = null;
             try {
                 final String params = cmd.substring(cmdStr.length());
                 if (session == null && c.requiresValidSession(cmdStr)) {
@@ -256,10 +318,17 @@ public class CommandDispatcher implements ReadlineCompleter {
                     return;
                 }
 
+                running = new RunningCommand(givenCommand);
+                synchronized (_running) {
+                    _running.add(running);
+                }
                 int result;
                 informBeforeListeners(session, givenCommand);
                 result = c.execute(session, cmdStr, params);
                 informAfterListeners(session, givenCommand, result);
+                if (c instanceof SQLCommand) {
+                    informStatementListeners(session, running, result);
+                }
 
                 switch (result) {
                 case Command.SYNTAX_ERROR: {
@@ -293,6 +362,16 @@ public class CommandDispatcher implements ReadlineCompleter {
                 }
                 HenPlus.msg().println(e.toString());
                 informAfterListeners(session, givenCommand, Command.EXEC_FAILED);
+                if (running != null && c instanceof SQLCommand) {
+                    informStatementListeners(session, running,
+                            Command.EXEC_FAILED);
+                }
+            } finally {
+                if (running != null) {
+                    synchronized (_running) {
+                        _running.remove(_running.lastIndexOf(running));
+                    }
+                }
             }
         }
     }
@@ -373,8 +452,14 @@ public class CommandDispatcher implements ReadlineCompleter {
                 if (cmd == null) {
                     return null;
                 }
-                _possibleValues = cmd
-                .complete(this, completeCommandString, text);
+                final TraceSpan span = Tracer.start(Tracer.COMPLETION);
+                try {
+                    span.setSQL(completeCommandString);
+                    _possibleValues = cmd.complete(this,
+                            completeCommandString, text);
+                } finally {
+                    span.finish();
+                }
             }
             if (_possibleValues != null && _possibleValues.hasNext()) {
                 return _possibleValues.next();
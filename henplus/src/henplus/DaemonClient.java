@@ -0,0 +1,194 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus;
+
+import henplus.commands.DaemonCommand;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * The client of a HenPlus daemon (see henplus.commands.DaemonCommand): sends
+ * the script read from stdin and prints what comes back, together with the
+ * token the daemon wrote to the config directory. Nothing else of HenPlus is
+ * initialized, so this starts fast.
+ */
+final class DaemonClient {
+    private static final int BUFFER_SIZE = 8192;
+
+    private DaemonClient() {
+    }
+
+    /**
+     * returns, if HenPlus is called as client of a daemon.
+     */
+    static boolean isClientCall(final String[] argv) {
+        for (int i = 0; i < argv.length; ++i) {
+            if ("--client".equals(argv[i]) || argv[i].startsWith("--client=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * run the script from stdin on the daemon.
+     *
+     * @return the exit code.
+     */
+    static int run(final String[] argv) {
+        final Options options = new Options();
+        options.addOption(new Option(null, "client", true, null));
+        options.addOption(new Option("J", "url", true, null));
+        options.addOption(new Option("U", "username", true, null));
+        options.addOption(new Option("P", "password", true, null));
+        final CommandLine line;
+        final int port;
+        try {
+            line = new PosixParser().parse(options, argv);
+            port = Integer.parseInt(line.getOptionValue("client"));
+        } catch (final ParseException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (final NumberFormatException e) {
+            System.err.println("invalid daemon port");
+            return 1;
+        }
+        // like connecting: url, user and password may be given as arguments.
+        final String[] args = line.getArgs();
+        final String url = line.getOptionValue("J", args.length > 0 ? args[0]
+                : null);
+        final String user = line.getOptionValue("U", args.length > 1 ? args[1]
+                : null);
+        final String password = line.getOptionValue("P",
+                args.length > 2 ? args[2] : null);
+
+        final String token = readToken(port);
+        if (token == null) {
+            return 1;
+        }
+
+        final Socket socket;
+        try {
+            socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        } catch (final IOException e) {
+            System.err.println("no daemon on port " + port + ": "
+                    + e.getMessage());
+            return 1;
+        }
+        try {
+            final Writer out = new OutputStreamWriter(new BufferedOutputStream(
+                    socket.getOutputStream()), "UTF-8");
+            writeHeader(out, "token", token);
+            writeHeader(out, "url", url);
+            writeHeader(out, "user", user);
+            writeHeader(out, "password", password);
+            out.write('\n');
+            out.flush();
+
+            // send while receiving, so that neither side blocks the other.
+            final Thread sender = new Thread("henplus-client") {
+                @Override
+                public void run() {
+                    try {
+                        copy(new InputStreamReader(System.in), out);
+                        socket.shutdownOutput();
+                    } catch (final IOException e) {
+                        // closed early by the daemon, e.g. on a failed connect.
+                        if (!socket.isClosed()) {
+                            System.err.println("sending failed: "
+                                    + e.getMessage());
+                        }
+                    }
+                }
+            };
+            sender.setDaemon(true);
+            sender.start();
+            copy(new InputStreamReader(socket.getInputStream(), "UTF-8"),
+                    new OutputStreamWriter(System.out));
+            return 0;
+        } catch (final IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                /* ignore */
+            }
+        }
+    }
+
+    /**
+     * the token the daemon on the port wrote to the config directory.
+     *
+     * @return null, if it cannot be read.
+     */
+    private static String readToken(final int port) {
+        final File file = new File(HenPlus.findConfigDir(),
+                DaemonCommand.TOKEN_PREFIX + port + DaemonCommand.TOKEN_SUFFIX);
+        try {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "US-ASCII"));
+            try {
+                final String token = in.readLine();
+                if (token != null) {
+                    return token;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            /* reported below */
+        }
+        System.err.println("cannot read the daemon token from " + file);
+        return null;
+    }
+
+    private static void writeHeader(final Writer out, final String name,
+            final String value) throws IOException {
+        if (value != null) {
+            out.write(name + " " + value + "\n");
+        }
+    }
+
+    /**
+     * copy everything, flushing whenever there is nothing more to read yet.
+     */
+    private static void copy(final Reader in, final Writer out)
+    throws IOException {
+        final char[] buf = new char[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,231 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Chooses the number of rows fetched per round trip so that a fetch stays
+ * within a memory budget. The first estimate for a statement is based on the
+ * row size measured for the previous statement; once the result set is
+ * available, on the display sizes of its columns. While reading, the actual
+ * row size is measured and the fetch size adjusted on every round trip, as
+ * far as the driver honours changing the fetch size of an open result set.
+ */
+public final class FetchSizeController {
+    /** per column overhead of the driver representation in bytes */
+    private static final int COLUMN_OVERHEAD = 16;
+    /** assumed size of LOBs and columns without display size */
+    private static final int LOB_ESTIMATE = 4096;
+    private static final int UNKNOWN_ESTIMATE = 64;
+    /** only re-tune, if the fetch size changes by more than this factor */
+    private static final double TUNE_THRESHOLD = 1.25;
+
+    private int _minFetchSize;
+    private int _maxFetchSize;
+    private long _memoryBudget;
+
+    /** average row size measured on the last statement; -1 if unknown */
+    private double _lastRowBytes;
+
+    public FetchSizeController() {
+        _minFetchSize = 10;
+        _maxFetchSize = 5000;
+        _memoryBudget = 2 * 1024 * 1024;
+        _lastRowBytes = -1;
+    }
+
+    public int getMinFetchSize() {
+        return _minFetchSize;
+    }
+
+    public void setMinFetchSize(final int minFetchSize) {
+        _minFetchSize = minFetchSize;
+    }
+
+    public int getMaxFetchSize() {
+        return _maxFetchSize;
+    }
+
+    public void setMaxFetchSize(final int maxFetchSize) {
+        _maxFetchSize = maxFetchSize;
+    }
+
+    public long getMemoryBudget() {
+        return _memoryBudget;
+    }
+
+    public void setMemoryBudget(final long memoryBudget) {
+        _memoryBudget = memoryBudget;
+    }
+
+    /**
+     * the fetch size for rows of the given size within our bounds.
+     */
+    public int fetchSizeFor(final double rowBytes) {
+        final long size = rowBytes <= 0 ? _maxFetchSize : (long) (_memoryBudget / rowBytes);
+        return (int) Math.max(_minFetchSize, Math.min(_maxFetchSize, size));
+    }
+
+    /**
+     * set the initial fetch size on a statement to be executed. Without any
+     * measurement yet, we assume rows of moderate size.
+     */
+    public void prepare(final Statement stmt) {
+        final double rowBytes = _lastRowBytes > 0 ? _lastRowBytes
+                : 10 * (COLUMN_OVERHEAD + UNKNOWN_ESTIMATE);
+        try {
+            stmt.setFetchSize(fetchSizeFor(rowBytes));
+        } catch (final Exception e) {
+            /* ignore; driver default */
+        }
+    }
+
+    /**
+     * estimate the size of a row from the column display sizes.
+     */
+    public static double estimateRowBytes(final ResultSetMetaData meta)
+    throws SQLException {
+        double result = 0;
+        for (int col = 1; col <= meta.getColumnCount(); ++col) {
+            switch (meta.getColumnType(col)) {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.LONGVARBINARY:
+            case Types.LONGVARCHAR:
+                result += LOB_ESTIMATE;
+                break;
+            default:
+                final int size = meta.getColumnDisplaySize(col);
+                // chars are two bytes
+                result += size > 0 ? 2 * Math.min(size, LOB_ESTIMATE)
+                        : UNKNOWN_ESTIMATE;
+            }
+            result += COLUMN_OVERHEAD;
+        }
+        return result;
+    }
+
+    /**
+     * start tuning the fetch size of the given result set. The returned tuner
+     * is to be informed about every row read.
+     */
+    public Tuner createTuner(final ResultSet rset) {
+        double estimate = -1;
+        try {
+            estimate = estimateRowBytes(rset.getMetaData());
+        } catch (final Exception e) {
+            /* no meta data: rely on measurement */
+        }
+        return new Tuner(rset, estimate);
+    }
+
+    /**
+     * measures the rows read from a result set and adjusts its fetch size.
+     */
+    public final class Tuner {
+        private final ResultSet _rset;
+        private int _fetchSize;
+        private long _rows;
+        private long _bytes;
+        private long _nextCheck;
+        private boolean _adjustable;
+
+        Tuner(final ResultSet rset, final double estimate) {
+            _rset = rset;
+            _adjustable = true;
+            _rows = 0;
+            _bytes = 0;
+            _fetchSize = currentFetchSize();
+            if (estimate > 0) {
+                tune(fetchSizeFor(estimate));
+            }
+            _nextCheck = Math.max(1, _fetchSize);
+        }
+
+        private int currentFetchSize() {
+            try {
+                return _rset.getFetchSize();
+            } catch (final Exception e) {
+                return 0;
+            }
+        }
+
+        private void tune(final int fetchSize) {
+            if (!_adjustable || _fetchSize > 0
+                    && fetchSize < _fetchSize * TUNE_THRESHOLD
+                    && fetchSize * TUNE_THRESHOLD > _fetchSize) {
+                return;
+            }
+            try {
+                _rset.setFetchSize(fetchSize);
+                _fetchSize = fetchSize;
+            } catch (final Exception e) {
+                // driver does not support it on open result sets.
+                _adjustable = false;
+            }
+        }
+
+        /**
+         * a row has been read.
+         *
+         * @param bytes
+         *            the approximate size of the row.
+         */
+        public void rowRead(final long bytes) {
+            ++_rows;
+            _bytes += bytes;
+            if (_rows >= _nextCheck) {
+                tune(fetchSizeFor(getAverageRowBytes()));
+                // next round trip.
+                _nextCheck = _rows + Math.max(1, _fetchSize);
+            }
+        }
+
+        /**
+         * a row has been read; the size is determined from its string
+         * representation.
+         */
+        public void rowRead(final String[] row) {
+            long bytes = 0;
+            for (int i = 0; i < row.length; ++i) {
+                bytes += COLUMN_OVERHEAD;
+                if (row[i] != null) {
+                    bytes += 2 * row[i].length();
+                }
+            }
+            rowRead(bytes);
+        }
+
+        public double getAverageRowBytes() {
+            return _rows == 0 ? -1 : (double) _bytes / _rows;
+        }
+
+        public int getFetchSize() {
+            return _fetchSize;
+        }
+
+        /**
+         * reading is done; remember the measured row size for the next
+         * statement.
+         */
+        public void finish() {
+            if (_rows > 0) {
+                _lastRowBytes = getAverageRowBytes();
+            }
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
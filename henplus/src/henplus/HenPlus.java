@@ -8,7 +8,10 @@ package henplus;
 
 import henplus.commands.AboutCommand;
 import henplus.commands.AliasCommand;
+import henplus.commands.BenchCommand;
+import henplus.commands.CaptureCommand;
 import henplus.commands.ConnectCommand;
+import henplus.commands.DaemonCommand;
 import henplus.commands.DescribeCommand;
 import henplus.commands.DriverCommand;
 import henplus.commands.DumpCommand;
@@ -16,20 +19,30 @@ import henplus.commands.EchoCommand;
 import henplus.commands.ExitCommand;
 import henplus.commands.HelpCommand;
 import henplus.commands.ImportCommand;
+import henplus.commands.JobCommand;
 import henplus.commands.KeyBindCommand;
 import henplus.commands.ListUserObjectsCommand;
 import henplus.commands.LoadCommand;
+import henplus.commands.MetricsCommand;
 import henplus.commands.PluginCommand;
+import henplus.commands.ReplayCommand;
+import henplus.commands.ResultCommand;
 import henplus.commands.SQLCommand;
 import henplus.commands.SetCommand;
 import henplus.commands.ShellCommand;
+import henplus.commands.SlowQueryLog;
 import henplus.commands.SpoolCommand;
+import henplus.commands.StatementBatcher;
+import henplus.commands.StatsCommand;
 import henplus.commands.StatusCommand;
 import henplus.commands.SystemInfoCommand;
 import henplus.commands.TreeCommand;
 import henplus.commands.properties.PropertyCommand;
 import henplus.commands.properties.SessionPropertyCommand;
 import henplus.io.ConfigurationContainer;
+import henplus.management.JmxInstrumentation;
+import henplus.management.Metrics;
+import henplus.view.util.ProgressWriter;
 
 import java.io.BufferedReader;
 import java.io.EOFException;
@@ -45,7 +58,9 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.CharBuffer;
 import java.util.Map;
+import java.util.Stack;
 
 import org.gnu.readline.Readline;
 import org.gnu.readline.ReadlineLibrary;
@@ -64,6 +79,12 @@ public final class HenPlus implements Interruptable {
 
     private final boolean _fromTerminal;
     private final SQLStatementSeparator _commandSeparator;
+    /*
+     * the SQL command of the statement continued in the next line, if any;
+     * its completeness is checked without copying the statement.
+     */
+    private SQLCommand _continuedCommand;
+    private final Stack<SQLCommand> _continuedStack;
     private final StringBuilder _historyLine;
 
     private final boolean _quiet;
@@ -74,12 +95,14 @@ public final class HenPlus implements Interruptable {
     private CommandDispatcher _dispatcher;
     private PropertyRegistry _henplusProperties;
     private ListUserObjectsCommand _objectLister;
+    private SlowQueryLog _slowQueryLog;
     private String _previousHistoryLine;
     private boolean _terminated;
     private String _prompt;
     private String _emptyPrompt;
     private File _configDir;
     private boolean _alreadyShutDown;
+    private DaemonCommand _daemon;
     private BufferedReader _fileReader;
     private OutputDevice _output;
     private OutputDevice _msg;
@@ -92,6 +115,7 @@ public final class HenPlus implements Interruptable {
         final boolean quiet = false;
 
         _commandSeparator = new SQLStatementSeparator();
+        _continuedStack = new Stack<SQLCommand>();
         _historyLine = new StringBuilder();
         // read options .. like -q
 
@@ -157,7 +181,8 @@ public final class HenPlus implements Interruptable {
         _dispatcher.register(new EchoCommand());
         final PluginCommand pluginCommand = new PluginCommand(this);
         _dispatcher.register(pluginCommand);
-        _dispatcher.register(new DriverCommand(this));
+        final DriverCommand driverCommand = new DriverCommand(this);
+        _dispatcher.register(driverCommand);
         final AliasCommand aliasCommand = new AliasCommand(this);
         _dispatcher.register(aliasCommand);
         if (_fromTerminal) {
@@ -166,22 +191,102 @@ public final class HenPlus implements Interruptable {
 
         final LoadCommand loadCommand = new LoadCommand();
         _dispatcher.register(loadCommand);
+        _henplusProperties.registerProperty("load-script-cache", loadCommand
+                .getScriptCacheProperty());
 
-        _dispatcher.register(new ConnectCommand(this, _sessionManager));
+        _dispatcher.register(new ConnectCommand(this, _sessionManager,
+                driverCommand));
+        _daemon = new DaemonCommand(this, _sessionManager, driverCommand);
+        _dispatcher.register(_daemon);
         _dispatcher.register(new StatusCommand());
 
         _dispatcher.register(_objectLister);
-        _dispatcher.register(new DescribeCommand(_objectLister));
-
-        _dispatcher.register(new TreeCommand(_objectLister));
+        /*
+         * commands, that are not needed in most sessions, are only created
+         * when they are used.
+         */
+        _dispatcher.register(new LazyCommand(new String[] { "describe",
+        "idescribe" }) {
+            @Override
+            protected Command create() {
+                return new DescribeCommand(_objectLister);
+            }
+        });
 
-        _dispatcher.register(new SQLCommand(_objectLister, _henplusProperties));
+        _dispatcher.register(new LazyCommand(new String[] { "tree-view" }) {
+            @Override
+            protected Command create() {
+                return new TreeCommand(_objectLister);
+            }
+        });
 
-        _dispatcher.register(new ImportCommand(_objectLister));
+        final SQLCommand sqlCommand = new SQLCommand(_objectLister,
+                _henplusProperties);
+        _dispatcher.register(sqlCommand);
+        _dispatcher.register(new LazyCommand(new String[] { "result" }) {
+            @Override
+            protected Command create() {
+                return new ResultCommand(sqlCommand);
+            }
+        });
+        final JobCommand jobCommand = new JobCommand(sqlCommand);
+        sqlCommand.setJobCommand(jobCommand);
+        final StatementBatcher batcher = new StatementBatcher(_dispatcher,
+                loadCommand);
+        _henplusProperties.registerProperty("sql-batch-size", batcher);
+        sqlCommand.setStatementBatcher(batcher);
+        _dispatcher.register(jobCommand);
+        _dispatcher.register(new LazyCommand(new String[] { "bench" }) {
+            @Override
+            protected Command create() {
+                return new BenchCommand(_dispatcher);
+            }
+        });
+        _dispatcher.register(new LazyCommand(new String[] { "capture" }) {
+            @Override
+            protected Command create() {
+                return new CaptureCommand(_dispatcher, sqlCommand);
+            }
+        });
+        _dispatcher.register(new LazyCommand(new String[] { "replay" }) {
+            @Override
+            protected Command create() {
+                return new ReplayCommand();
+            }
+        });
+        _dispatcher.register(new StatsCommand(_dispatcher, sqlCommand,
+                _henplusProperties));
+        _slowQueryLog = new SlowQueryLog(_dispatcher, sqlCommand);
+        _henplusProperties.registerProperty("sql-slow-log", _slowQueryLog);
+        _henplusProperties.registerProperty("jmx-beans",
+                new JmxInstrumentation(_dispatcher, loadCommand));
+        final Metrics metrics = new Metrics(sqlCommand);
+        _dispatcher.addStatementListener(metrics);
+        ProgressWriter.addProgressListener(metrics);
+        _dispatcher.register(new MetricsCommand(metrics));
+
+        _dispatcher.register(new LazyCommand(new String[] { "import",
+                "import-check", "import-print" }) {
+            @Override
+            protected Command create() {
+                return new ImportCommand(_objectLister);
+            }
+        });
         // _dispatcher.register(new ExportCommand());
-        _dispatcher.register(new DumpCommand(_objectLister, loadCommand));
+        _dispatcher.register(new LazyCommand(new String[] { "dump-out",
+                "dump-in", "verify-dump", "dump-conditional", "dump-select" }) {
+            @Override
+            protected Command create() {
+                return new DumpCommand(_objectLister, loadCommand);
+            }
+        });
 
-        _dispatcher.register(new ShellCommand());
+        _dispatcher.register(new LazyCommand(new String[] { "system", "!" }) {
+            @Override
+            protected Command create() {
+                return new ShellCommand();
+            }
+        });
         _dispatcher.register(new SpoolCommand(this));
         _dispatcher.register(_settingStore);
 
@@ -275,6 +380,8 @@ public final class HenPlus implements Interruptable {
      */
     public void pushBuffer() {
         _commandSeparator.push();
+        _continuedStack.push(_continuedCommand);
+        _continuedCommand = null;
     }
 
     /**
@@ -282,6 +389,7 @@ public final class HenPlus implements Interruptable {
      */
     public void popBuffer() {
         _commandSeparator.pop();
+        _continuedCommand = _continuedStack.pop();
     }
 
     public String readlineFromFile() throws IOException {
@@ -309,33 +417,62 @@ public final class HenPlus implements Interruptable {
      * LINE_EXECUTED.
      */
     public byte executeLine(final String line) {
-        byte result = LINE_EMPTY;
-        /*
-         * special oracle comment 'rem'ark; should be in the comment parser.
-         * ONLY if it is on the beginning of the line, no whitespace.
-         */
-        final int startWhite = 0;
-        /*
-         * while (startWhite < line.length() &&
-         * Character.isWhitespace(line.charAt(startWhite))) { ++startWhite; }
-         */
-        if (line.length() >= 3 + startWhite
-                && line.substring(startWhite, startWhite + 3).toUpperCase()
-                        .equals("REM")
-                        && (line.length() == 3 || Character
-                                .isWhitespace(line.charAt(3)))) {
+        if (isRemark(line)) {
+            return LINE_EMPTY;
+        }
+        _commandSeparator.append(line);
+        _commandSeparator.append("\n");
+        return executeStatements();
+    }
+
+    /**
+     * add a new line given as part of a buffer, including its terminating
+     * '\n'; this saves creating a String for each line of a script. Returns
+     * one of LINE_EMPTY, LINE_INCOMPLETE or LINE_EXECUTED.
+     */
+    public byte executeLine(final char[] buf, final int off, final int len) {
+        if (isRemark(CharBuffer.wrap(buf, off, len))) {
             return LINE_EMPTY;
         }
+        _commandSeparator.append(buf, off, len);
+        return executeStatements();
+    }
+
+    /**
+     * special oracle comment 'rem'ark; should be in the comment parser. ONLY
+     * if it is on the beginning of the line, no whitespace.
+     */
+    public static boolean isRemark(final CharSequence line) {
+        return line.length() >= 3
+        && Character.toUpperCase(line.charAt(0)) == 'R'
+            && Character.toUpperCase(line.charAt(1)) == 'E'
+                && Character.toUpperCase(line.charAt(2)) == 'M'
+                    && (line.length() == 3 || Character.isWhitespace(line
+                            .charAt(3)));
+    }
 
-        final StringBuilder lineBuf = new StringBuilder(line);
-        lineBuf.append('\n');
-        _commandSeparator.append(lineBuf.toString());
-        result = LINE_INCOMPLETE;
+    private byte executeStatements() {
+        byte result = LINE_INCOMPLETE;
         while (_commandSeparator.hasNext()) {
-            String completeCommand = _commandSeparator.next();
+            if (_continuedCommand != null
+                    && !_continuedCommand.isComplete(_commandSeparator.peek())) {
+                // a long statement continues; don't copy it for each line.
+                _commandSeparator.cont();
+                result = LINE_INCOMPLETE;
+                continue;
+            }
+            _continuedCommand = null;
+            final String statement = _commandSeparator.next();
+            String completeCommand = statement;
             // System.err.println(">'" + completeCommand + "'<");
-            completeCommand = varsubst(completeCommand, _settingStore
-                    .getVariableMap());
+            final Command raw = _dispatcher.getCommandFrom(completeCommand);
+            if (!(raw instanceof SQLCommand
+                    && ((SQLCommand) raw).isBindVariables() && !completeCommand
+                    .startsWith("$"))) {
+                // in bind mode, the SQLCommand binds the variables itself.
+                completeCommand = varsubst(completeCommand, _settingStore
+                        .getVariableMap());
+            }
             final Command c = _dispatcher.getCommandFrom(completeCommand);
             if (c == null) {
                 _commandSeparator.consumed();
@@ -351,6 +488,14 @@ public final class HenPlus implements Interruptable {
                 }
             } else if (!c.isComplete(completeCommand)) {
                 _commandSeparator.cont();
+                /*
+                 * the command of a statement is not going to change, unless
+                 * it is given by a variable.
+                 */
+                if (c == raw && c instanceof SQLCommand
+                        && !firstWordHasVariable(statement)) {
+                    _continuedCommand = (SQLCommand) c;
+                }
                 result = LINE_INCOMPLETE;
             } else {
                 // System.err.println("SUBST: " + completeCommand);
@@ -363,6 +508,34 @@ public final class HenPlus implements Interruptable {
         return result;
     }
 
+    /**
+     * returns, if comments are removed from the statements separated; scripts
+     * separated elsewhere should do the same.
+     */
+    public boolean isRemoveComments() {
+        return _commandSeparator.isRemoveComments();
+    }
+
+    /**
+     * returns, if the commands are read from a terminal, with completion.
+     */
+    public boolean isFromTerminal() {
+        return _fromTerminal;
+    }
+
+    private static boolean firstWordHasVariable(final String statement) {
+        for (int i = 0; i < statement.length(); ++i) {
+            final char c = statement.charAt(i);
+            if (c == '$') {
+                return true;
+            }
+            if (Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
     public String getPartialLine() {
         return _historyLine.toString() + Readline.getLineBuffer();
     }
@@ -411,6 +584,7 @@ public final class HenPlus implements Interruptable {
                 }
                 _historyLine.setLength(0);
                 _commandSeparator.discard();
+                _continuedCommand = null;
                 displayPrompt = _prompt;
                 continue;
             }
@@ -459,6 +633,9 @@ public final class HenPlus implements Interruptable {
             if (_dispatcher != null) {
                 _dispatcher.shutdown();
             }
+            if (_slowQueryLog != null) {
+                _slowQueryLog.shutdown();
+            }
             _historyConfig.write(new ConfigurationContainer.WriteAction() {
                 public void writeConfiguration(final OutputStream out)
                 throws Exception {
@@ -478,10 +655,39 @@ public final class HenPlus implements Interruptable {
         System.gc();
     }
 
+    /**
+     * execute the lines read up to the end of the input or an 'exit'; the
+     * statements pending in the interactive input are kept. Used to run the
+     * scripts sent to a daemon.
+     */
+    public void executeScript(final BufferedReader in) throws IOException {
+        final boolean terminated = _terminated;
+        _terminated = false;
+        pushBuffer();
+        try {
+            String line;
+            while (!_terminated && (line = in.readLine()) != null) {
+                executeLine(line);
+                _output.flush();
+                _msg.flush();
+            }
+        } finally {
+            popBuffer();
+            _terminated = terminated;
+        }
+    }
+
     public void terminate() {
         _terminated = true;
     }
 
+    /**
+     * the variables set with 'set-var'.
+     */
+    public Map getVariableMap() {
+        return _settingStore.getVariableMap();
+    }
+
     public CommandDispatcher getDispatcher() {
         return _dispatcher;
     }
@@ -653,9 +859,16 @@ public final class HenPlus implements Interruptable {
     }
 
     public static void main(final String argv[]) throws Exception {
+        if (DaemonClient.isClientCall(argv)) {
+            System.exit(DaemonClient.run(argv));
+        }
         instance = new HenPlus(argv);
         instance.initializeCommands(argv);
-        instance.run();
+        if (instance._daemon.isRequested()) {
+            instance._daemon.serve();
+        } else {
+            instance.run();
+        }
         instance.shutdown();
         /*
          * hsqldb does not always stop its log-thread. So do an explicit exit()
@@ -676,6 +889,37 @@ public final class HenPlus implements Interruptable {
         return getConfigDir().getAbsolutePath();
     }
 
+    /**
+     * the config directory in the local directory or a superdirectory.
+     *
+     * @return null, if there is none.
+     */
+    private static File findLocalConfigDir() {
+        File dir = new File(".").getAbsoluteFile();
+        while (dir != null) {
+            final File configDir = new File(dir, HENPLUSDIR);
+            if (configDir.exists() && configDir.isDirectory()) {
+                return configDir;
+            }
+            dir = dir.getParentFile();
+        }
+        return null;
+    }
+
+    private static File getHomeConfigDir() {
+        final String homeDir = System.getProperty("user.home", ".");
+        return new File(homeDir + File.separator + HENPLUSDIR);
+    }
+
+    /**
+     * the config directory that is used, without creating it; for those that
+     * do not initialize HenPlus.
+     */
+    static File findConfigDir() {
+        final File dir = findLocalConfigDir();
+        return dir != null ? dir : getHomeConfigDir();
+    }
+
     private File getConfigDir() {
         if (_configDir != null) {
             return _configDir;
@@ -683,23 +927,13 @@ public final class HenPlus implements Interruptable {
         /*
          * test local directory and superdirectories.
          */
-        File dir = new File(".").getAbsoluteFile();
-        while (dir != null) {
-            _configDir = new File(dir, HENPLUSDIR);
-            if (_configDir.exists() && _configDir.isDirectory()) {
-                break;
-            } else {
-                _configDir = null;
-            }
-            dir = dir.getParentFile();
-        }
+        _configDir = findLocalConfigDir();
 
         /*
          * fallback: home directory.
          */
         if (_configDir == null) {
-            final String homeDir = System.getProperty("user.home", ".");
-            _configDir = new File(homeDir + File.separator + HENPLUSDIR);
+            _configDir = getHomeConfigDir();
             if (!_configDir.exists()) {
                 if (!_quiet) {
                     System.err.println("creating henplus config dir");
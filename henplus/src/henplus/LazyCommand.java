@@ -0,0 +1,133 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus;
+
+import java.util.Iterator;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * A Command that is only created when it is used the first time; until then,
+ * only the names it handles are known. This keeps the command classes from
+ * being loaded at startup. Commands that register commandline options cannot
+ * be created lazily, since the options are parsed before the first command
+ * is read.
+ */
+public abstract class LazyCommand implements Command {
+    private final String[] _commandList;
+    private Command _command;
+    private boolean _failed;
+
+    /**
+     * @param commandList
+     *            the command-strings the created command handles.
+     */
+    protected LazyCommand(final String[] commandList) {
+        _commandList = commandList;
+    }
+
+    /**
+     * create the command; called once, when it is needed the first time.
+     */
+    protected abstract Command create() throws Exception;
+
+    /**
+     * the command, created on the first call.
+     *
+     * @return null, if it cannot be created.
+     */
+    public synchronized Command getCommand() {
+        if (_command == null && !_failed) {
+            try {
+                _command = create();
+            } catch (final Throwable t) {
+                _failed = true;
+                HenPlus.msg().println(
+                        "cannot create command '" + _commandList[0] + "': "
+                        + t);
+            }
+        }
+        return _command;
+    }
+
+    /**
+     * returns, if the command has been created.
+     */
+    public synchronized boolean isCreated() {
+        return _command != null;
+    }
+
+    public String[] getCommandList() {
+        return _commandList;
+    }
+
+    public boolean participateInCommandCompletion() {
+        final Command c = isCreated() ? getCommand() : null;
+        return c == null || c.participateInCommandCompletion();
+    }
+
+    public int execute(final SQLSession session, final String command,
+            final String parameters) {
+        final Command c = getCommand();
+        return c != null ? c.execute(session, command, parameters)
+                : EXEC_FAILED;
+    }
+
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        final Command c = getCommand();
+        return c != null ? c.complete(disp, partialCommand, lastWord) : null;
+    }
+
+    public boolean isComplete(final String command) {
+        final Command c = getCommand();
+        return c == null || c.isComplete(command);
+    }
+
+    public boolean requiresValidSession(final String cmd) {
+        final Command c = getCommand();
+        return c != null && c.requiresValidSession(cmd);
+    }
+
+    public void shutdown() {
+        if (isCreated()) {
+            getCommand().shutdown();
+        }
+    }
+
+    public String getShortDescription() {
+        final Command c = getCommand();
+        return c != null ? c.getShortDescription() : null;
+    }
+
+    public String getSynopsis(final String cmd) {
+        final Command c = getCommand();
+        return c != null ? c.getSynopsis(cmd) : null;
+    }
+
+    public String getLongDescription(final String cmd) {
+        final Command c = getCommand();
+        return c != null ? c.getLongDescription(cmd) : null;
+    }
+
+    // lazy commands have no commandline options.
+
+    public void setOptions(final Options options) {
+    }
+
+    public void registerOptions(final Options allOptions) {
+    }
+
+    public void handleCommandline(final CommandLine line) {
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
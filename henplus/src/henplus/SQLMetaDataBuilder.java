@@ -6,25 +6,42 @@
  */
 package henplus;
 
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
 import henplus.sqlmodel.Column;
 import henplus.sqlmodel.ColumnFkInfo;
 import henplus.sqlmodel.PrimaryKey;
 import henplus.sqlmodel.Table;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class SQLMetaDataBuilder {
     final private static String[] LIST_TABLES = { "TABLE" };
     private static final boolean VERBOSE = false;
+    /**
+     * from this number of tables on, the columns and foreign keys of all
+     * tables are read at once instead of table by table.
+     */
+    private static final int BULK_MIN_TABLES = 16;
+    /** connections reading the primary keys in bulk mode */
+    private static final int KEY_READERS = 4;
+
+    // table description
+    private static final int TABLE_SCHEM = 2;
 
     // column description
     public static final int TABLE_NAME = 3; // String
@@ -49,10 +66,11 @@ public final class SQLMetaDataBuilder {
     // foreign key description
     private static final int FK_PKTABLE_NAME = 3;
     private static final int FK_PKCOLUMN_NAME = 4;
+    private static final int FK_FKTABLE_NAME = 7;
     private static final int FK_FKCOLUMN_NAME = 8;
     private static final int FK_FK_NAME = 12;
 
-    private boolean _interrupted;
+    private volatile boolean _interrupted;
 
     /*
      * (non-Javadoc)
@@ -66,6 +84,7 @@ public final class SQLMetaDataBuilder {
     public SQLMetaData getMetaData(final SQLSession session) {
         ResultSet rset = null;
         final List<String> tableList = new ArrayList<String>();
+        final TraceSpan span = Tracer.start(Tracer.METADATA);
         try {
             final DatabaseMetaData meta = session.getConnection().getMetaData();
             rset = meta.getTables(null, null, null, LIST_TABLES);
@@ -75,6 +94,8 @@ public final class SQLMetaDataBuilder {
         } catch (final Exception e) {
             // ignore.
         } finally {
+            span.setRows(tableList.size());
+            span.finish();
             if (rset != null) {
                 try {
                     rset.close();
@@ -94,7 +115,6 @@ public final class SQLMetaDataBuilder {
             final Iterator<String> tableNamesIter) {
         final SQLMetaData result = new SQLMetaData();
 
-        ResultSet rset = null;
         try {
             _interrupted = false;
             final String catalog = session.getConnection().getCatalog();
@@ -105,11 +125,16 @@ public final class SQLMetaDataBuilder {
 
             final DatabaseMetaData meta = session.getConnection().getMetaData();
 
-            while (tableNamesIter.hasNext() && !_interrupted) {
-                final String tableName = tableNamesIter.next();
-                rset = meta.getColumns(catalog, null, tableName, null);
-                final Table table = buildTable(catalog, meta, tableName, rset);
-                result.addTable(table);
+            final List<String> tableNames = new ArrayList<String>();
+            while (tableNamesIter.hasNext()) {
+                tableNames.add(tableNamesIter.next());
+            }
+            if (tableNames.size() >= BULK_MIN_TABLES) {
+                readTables(session, catalog, meta, tableNames, result);
+                return result;
+            }
+            for (int i = 0; i < tableNames.size() && !_interrupted; ++i) {
+                result.addTable(readTable(catalog, meta, tableNames.get(i)));
             }
         } catch (final Exception e) {
             if (VERBOSE) {
@@ -118,13 +143,6 @@ public final class SQLMetaDataBuilder {
             HenPlus.msg().println(
                     "Database problem reading meta data: "
                     + e.getMessage().trim());
-        } finally {
-            if (rset != null) {
-                try {
-                    rset.close();
-                } catch (final Exception e) {
-                }
-            }
         }
 
         return result;
@@ -132,12 +150,10 @@ public final class SQLMetaDataBuilder {
 
     public Table getTable(final SQLSession session, final String tableName) {
         Table table = null;
-        ResultSet rset = null;
         try {
             final String catalog = session.getConnection().getCatalog();
             final DatabaseMetaData meta = session.getConnection().getMetaData();
-            rset = meta.getColumns(catalog, null, tableName, null);
-            table = buildTable(catalog, meta, tableName, rset);
+            table = readTable(catalog, meta, tableName);
         } catch (final Exception e) {
             if (VERBOSE) {
                 e.printStackTrace();
@@ -145,7 +161,23 @@ public final class SQLMetaDataBuilder {
             HenPlus.msg().println(
                     "Database problem reading meta data: "
                     + e.getMessage().trim());
+        }
+        return table;
+    }
+
+    /**
+     * reads the columns and keys of a table; traced as metadata fetch.
+     */
+    private Table readTable(final String catalog, final DatabaseMetaData meta,
+            final String tableName) throws SQLException {
+        final TraceSpan span = Tracer.start(Tracer.METADATA);
+        ResultSet rset = null;
+        try {
+            span.setTable(tableName);
+            rset = meta.getColumns(catalog, null, tableName, null);
+            return buildTable(catalog, meta, tableName, rset);
         } finally {
+            span.finish();
             if (rset != null) {
                 try {
                     rset.close();
@@ -153,7 +185,6 @@ public final class SQLMetaDataBuilder {
                 }
             }
         }
-        return table;
     }
 
     private Table buildTable(final String catalog, final DatabaseMetaData meta,
@@ -163,23 +194,15 @@ public final class SQLMetaDataBuilder {
         if (rset != null) {
             table = new Table(tableName);
             final PrimaryKey pk = getPrimaryKey(meta, tableName);
-            final Map fks = getForeignKeys(meta, tableName);
+            final Map<String, ColumnFkInfo> fks = getForeignKeys(meta,
+                    tableName);
             // what about the following duplicate?
             // rset = meta.getColumns(catalog, null, tableName, null);
             while (!_interrupted && rset.next()) {
-                final String colname = rset.getString(COLUMN_NAME);
-                final Column column = new Column(colname);
-                column.setType(rset.getString(TYPE_NAME));
-                column.setSize(rset.getInt(COLUMN_SIZE));
-                final boolean nullable = rset.getInt(NULLABLE) == DatabaseMetaData.columnNullable ? true
-                        : false;
-                column.setNullable(nullable);
-                final String defaultVal = rset.getString(COLUMN_DEF);
-                column.setDefault(defaultVal != null ? defaultVal.trim()
-                        : null);
-                column.setPosition(rset.getInt(ORDINAL_POSITION));
+                final Column column = readColumn(rset);
+                final String colname = column.getName();
                 column.setPkInfo(pk.getColumnPkInfo(colname));
-                column.setFkInfo((ColumnFkInfo) fks.get(colname));
+                column.setFkInfo(fks.get(colname));
 
                 table.addColumn(column);
             }
@@ -188,6 +211,266 @@ public final class SQLMetaDataBuilder {
         return table;
     }
 
+    /**
+     * the column described by the current row of getColumns(); without its
+     * key info.
+     */
+    private static Column readColumn(final ResultSet rset)
+    throws SQLException {
+        final Column column = new Column(rset.getString(COLUMN_NAME));
+        column.setType(rset.getString(TYPE_NAME));
+        column.setSize(rset.getInt(COLUMN_SIZE));
+        final boolean nullable = rset.getInt(NULLABLE) == DatabaseMetaData.columnNullable ? true
+                : false;
+        column.setNullable(nullable);
+        final String defaultVal = rset.getString(COLUMN_DEF);
+        column.setDefault(defaultVal != null ? defaultVal.trim()
+                : null);
+        column.setPosition(rset.getInt(ORDINAL_POSITION));
+        return column;
+    }
+
+    /**
+     * reads many tables with as few round trips as possible: the columns
+     * with one query for each schema the tables are in, the foreign keys as
+     * well if the driver allows to leave out the table. The primary keys
+     * have to be asked table by table; this is done on some pooled
+     * connections in parallel.
+     */
+    private void readTables(final SQLSession session, final String catalog,
+            final DatabaseMetaData meta, final List<String> tableNames,
+            final SQLMetaData result) throws SQLException {
+        final Set<String> wanted = new HashSet<String>(tableNames);
+        final Set<String> schemas = getSchemas(catalog, meta, wanted);
+        final Map<String, List<Column>> columns = readColumns(catalog, meta,
+                schemas, wanted);
+        final Map<String, Map<String, ColumnFkInfo>> allFks = readForeignKeys(
+                catalog, meta, schemas, wanted);
+        final Map<String, PrimaryKey> pks = new ConcurrentHashMap<String, PrimaryKey>();
+        final Map<String, Map<String, ColumnFkInfo>> fks = allFks != null
+                ? allFks : new ConcurrentHashMap<String, Map<String, ColumnFkInfo>>();
+        readKeys(session, meta, tableNames, pks, allFks == null ? fks : null);
+        for (int i = 0; i < tableNames.size() && !_interrupted; ++i) {
+            final String tableName = tableNames.get(i);
+            final List<Column> tableColumns = columns.get(tableName);
+            if (tableColumns == null) {
+                // not listed as is, e.g. given in another case.
+                result.addTable(readTable(catalog, meta, tableName));
+                continue;
+            }
+            final Table table = new Table(tableName);
+            final PrimaryKey pk = pks.get(tableName);
+            Map<String, ColumnFkInfo> tableFks = fks.get(tableName);
+            if (tableFks == null) {
+                tableFks = new HashMap<String, ColumnFkInfo>();
+            }
+            for (final Column column : tableColumns) {
+                final String colname = column.getName();
+                column.setPkInfo(pk != null ? pk.getColumnPkInfo(colname)
+                        : null);
+                column.setFkInfo(tableFks.get(colname));
+                table.addColumn(column);
+            }
+            result.addTable(table);
+        }
+    }
+
+    /**
+     * the schemas the tables are in; contains null if the database has no
+     * schemas.
+     */
+    private Set<String> getSchemas(final String catalog,
+            final DatabaseMetaData meta, final Set<String> tableNames)
+    throws SQLException {
+        final Set<String> schemas = new HashSet<String>();
+        final ResultSet rset = meta.getTables(catalog, null, null, null);
+        try {
+            while (rset.next()) {
+                if (tableNames.contains(rset.getString(TABLE_NAME))) {
+                    schemas.add(rset.getString(TABLE_SCHEM));
+                }
+            }
+        } finally {
+            rset.close();
+        }
+        return schemas;
+    }
+
+    /**
+     * the columns of the tables by table name, in the order returned.
+     */
+    private Map<String, List<Column>> readColumns(final String catalog,
+            final DatabaseMetaData meta, final Set<String> schemas,
+            final Set<String> tableNames) throws SQLException {
+        final Map<String, List<Column>> result = new HashMap<String, List<Column>>();
+        for (final String schema : schemas) {
+            final TraceSpan span = Tracer.start(Tracer.METADATA);
+            long rows = 0;
+            final ResultSet rset = meta.getColumns(catalog, schema, null, null);
+            try {
+                while (!_interrupted && rset.next()) {
+                    final String tableName = rset.getString(TABLE_NAME);
+                    if (!tableNames.contains(tableName)) {
+                        continue;
+                    }
+                    List<Column> tableColumns = result.get(tableName);
+                    if (tableColumns == null) {
+                        tableColumns = new ArrayList<Column>();
+                        result.put(tableName, tableColumns);
+                    }
+                    tableColumns.add(readColumn(rset));
+                    ++rows;
+                }
+            } finally {
+                span.setRows(rows);
+                span.finish();
+                rset.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * the foreign keys of the tables by table and column name.
+     *
+     * @return null, if the driver cannot read them without the table; as
+     *         there is no telling, as well if there are none at all.
+     */
+    private Map<String, Map<String, ColumnFkInfo>> readForeignKeys(
+            final String catalog, final DatabaseMetaData meta,
+            final Set<String> schemas, final Set<String> tableNames) {
+        final Map<String, Map<String, ColumnFkInfo>> result = new HashMap<String, Map<String, ColumnFkInfo>>();
+        boolean found = false;
+        for (final String schema : schemas) {
+            final TraceSpan span = Tracer.start(Tracer.METADATA);
+            ResultSet rset = null;
+            long rows = 0;
+            try {
+                rset = meta.getImportedKeys(catalog, schema, null);
+                if (rset == null) {
+                    return null;
+                }
+                while (!_interrupted && rset.next()) {
+                    found = true;
+                    final String tableName = rset.getString(FK_FKTABLE_NAME);
+                    if (!tableNames.contains(tableName)) {
+                        continue;
+                    }
+                    Map<String, ColumnFkInfo> fks = result.get(tableName);
+                    if (fks == null) {
+                        fks = new HashMap<String, ColumnFkInfo>();
+                        result.put(tableName, fks);
+                    }
+                    fks.put(rset.getString(FK_FKCOLUMN_NAME), new ColumnFkInfo(
+                            rset.getString(FK_FK_NAME), rset
+                            .getString(FK_PKTABLE_NAME), rset
+                            .getString(FK_PKCOLUMN_NAME)));
+                    ++rows;
+                }
+            } catch (final SQLException e) {
+                return null;
+            } catch (final RuntimeException e) {
+                // some drivers fail without the table in other ways.
+                return null;
+            } finally {
+                span.setRows(rows);
+                span.finish();
+                if (rset != null) {
+                    try {
+                        rset.close();
+                    } catch (final Exception e) {
+                    }
+                }
+            }
+        }
+        return found ? result : null;
+    }
+
+    /**
+     * reads the primary keys of the tables and, if fks is not null, their
+     * foreign keys; with the session's connection and some connections
+     * borrowed from it in parallel.
+     */
+    private void readKeys(final SQLSession session,
+            final DatabaseMetaData meta, final List<String> tableNames,
+            final Map<String, PrimaryKey> pks,
+            final Map<String, Map<String, ColumnFkInfo>> fks)
+    throws SQLException {
+        final AtomicInteger next = new AtomicInteger();
+        final SQLException[] failure = new SQLException[1];
+        final List<Thread> readers = new ArrayList<Thread>();
+        // a reader for each BULK_MIN_TABLES tables, up to KEY_READERS.
+        for (int i = 1; i < KEY_READERS
+        && i * BULK_MIN_TABLES < tableNames.size(); ++i) {
+            final Thread reader = new Thread("henplus-metadata-" + i) {
+                @Override
+                public void run() {
+                    Connection conn;
+                    try {
+                        conn = session.borrowConnection();
+                    } catch (final SQLException e) {
+                        // the others read its share.
+                        return;
+                    }
+                    try {
+                        readKeys(conn.getMetaData(), tableNames, next, pks,
+                                fks);
+                    } catch (final SQLException e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                        _interrupted = true;
+                    } finally {
+                        session.releaseConnection(conn);
+                    }
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+        try {
+            readKeys(meta, tableNames, next, pks, fks);
+        } finally {
+            for (final Thread reader : readers) {
+                try {
+                    reader.join();
+                } catch (final InterruptedException e) {
+                    _interrupted = true;
+                }
+            }
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    private void readKeys(final DatabaseMetaData meta,
+            final List<String> tableNames, final AtomicInteger next,
+            final Map<String, PrimaryKey> pks,
+            final Map<String, Map<String, ColumnFkInfo>> fks)
+    throws SQLException {
+        int i;
+        while (!_interrupted && (i = next.getAndIncrement()) < tableNames.size()) {
+            final String tableName = tableNames.get(i);
+            final TraceSpan span = Tracer.start(Tracer.METADATA);
+            try {
+                span.setTable(tableName);
+                final PrimaryKey pk = getPrimaryKey(meta, tableName);
+                if (pk != null) {
+                    pks.put(tableName, pk);
+                }
+                if (fks != null) {
+                    fks.put(tableName, getForeignKeys(meta, tableName));
+                }
+            } finally {
+                span.finish();
+            }
+        }
+    }
+
     private PrimaryKey getPrimaryKey(final DatabaseMetaData meta, final String tabName)
     throws SQLException {
         PrimaryKey result = null;
@@ -206,9 +489,10 @@ public final class SQLMetaDataBuilder {
         return result;
     }
 
-    private Map getForeignKeys(final DatabaseMetaData meta, final String tabName)
+    private Map<String, ColumnFkInfo> getForeignKeys(
+            final DatabaseMetaData meta, final String tabName)
     throws SQLException {
-        final Map fks = new HashMap();
+        final Map<String, ColumnFkInfo> fks = new HashMap<String, ColumnFkInfo>();
 
         ResultSet rset = null;
         // some jdbc version 2 drivers (connector/j) have problems with foreign
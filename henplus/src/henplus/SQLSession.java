@@ -8,6 +8,7 @@ package henplus;
 
 import henplus.property.BooleanPropertyHolder;
 import henplus.property.EnumeratedPropertyHolder;
+import henplus.property.PropertyHolder;
 import henplus.sqlmodel.Table;
 
 import java.io.BufferedReader;
@@ -17,11 +18,16 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Properties;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 
@@ -29,8 +35,11 @@ import java.util.SortedSet;
  * a SQL session.
  */
 public class SQLSession implements Interruptable {
-    private long _connectTime;
-    private long _statementCount;
+    /** idle connections kept for reuse */
+    private static final int MAX_POOLED_CONNECTIONS = 4;
+
+    private volatile long _connectTime;
+    private volatile long _statementCount;
     private final String _url;
     private String _username;
     private String _password;
@@ -39,6 +48,10 @@ public class SQLSession implements Interruptable {
     private SQLMetaData _metaData;
 
     private final PropertyRegistry _propertyRegistry;
+    private final FetchSizeController _fetchSizeController;
+    private final List<Connection> _pool;
+    private boolean _closed; // guarded by _pool
+    private final StatementCache _statementCache;
     private volatile boolean _interrupted;
 
     /**
@@ -54,6 +67,9 @@ public class SQLSession implements Interruptable {
         _username = user;
         _password = password;
         _propertyRegistry = new PropertyRegistry();
+        _fetchSizeController = new FetchSizeController();
+        _pool = new ArrayList<Connection>();
+        _statementCache = new StatementCache();
 
         Driver driver = null;
         // HenPlus.msg().println("connect to '" + url + "'");
@@ -111,6 +127,14 @@ public class SQLSession implements Interruptable {
         _propertyRegistry.registerProperty("isolation-level",
                 new IsolationLevelProperty(availableIsolations,
                         currentIsolation));
+        _propertyRegistry.registerProperty("fetch-size-min",
+                new FetchSizeLimitProperty(false));
+        _propertyRegistry.registerProperty("fetch-size-max",
+                new FetchSizeLimitProperty(true));
+        _propertyRegistry.registerProperty("fetch-memory-budget",
+                new FetchMemoryBudgetProperty());
+        _propertyRegistry.registerProperty("statement-cache-size",
+                new StatementCacheSizeProperty());
     }
 
     private void printTransactionIsolation(final DatabaseMetaData meta, final int iLevel,
@@ -132,6 +156,13 @@ public class SQLSession implements Interruptable {
         return _propertyRegistry;
     }
 
+    /**
+     * the controller choosing the fetch size for statements of this session.
+     */
+    public FetchSizeController getFetchSizeController() {
+        return _fetchSizeController;
+    }
+
     public String getDatabaseInfo() {
         return _databaseInfo;
     }
@@ -171,6 +202,7 @@ public class SQLSession implements Interruptable {
         /*
          * close old connection ..
          */
+        clearStatementCache();
         if (_conn != null) {
             try {
                 _conn.close();
@@ -179,18 +211,7 @@ public class SQLSession implements Interruptable {
             _conn = null;
         }
 
-        final Properties props = new Properties();
-        /*
-         * FIXME make generic plugin for specific database drivers that handle
-         * the specific stuff. For now this is a quick hack.
-         */
-        if (_url.startsWith("jdbc:oracle:")) {
-            /*
-             * this is needed to make comment in oracle show up in the remarks
-             * http://forums.oracle.com/forums/thread.jsp?forum=99&thread=225790
-             */
-            props.setProperty("remarksReporting", "true");
-        }
+        final Properties props = getConnectProperties();
 
         /*
          * try to connect directly with the url. Several JDBC-Drivers allow to
@@ -225,6 +246,132 @@ public class SQLSession implements Interruptable {
         _connectTime = System.currentTimeMillis();
     }
 
+    private Properties getConnectProperties() {
+        final Properties props = new Properties();
+        /*
+         * FIXME make generic plugin for specific database drivers that handle
+         * the specific stuff. For now this is a quick hack.
+         */
+        if (_url.startsWith("jdbc:oracle:")) {
+            /*
+             * this is needed to make comment in oracle show up in the remarks
+             * http://forums.oracle.com/forums/thread.jsp?forum=99&thread=225790
+             */
+            props.setProperty("remarksReporting", "true");
+        }
+        return props;
+    }
+
+    /**
+     * returns a prepared statement for the given SQL. Statements are cached
+     * per session in least recently used order, so that repeatedly executed
+     * statements are only parsed once by the server. The statement must not
+     * be closed by the caller.
+     */
+    public PreparedStatement prepareCached(final String sql)
+    throws SQLException {
+        PreparedStatement result = _statementCache.get(sql);
+        if (result == null) {
+            result = _conn.prepareStatement(sql);
+            ++_statementCount;
+            if (_statementCache.getMaxSize() > 0) {
+                _statementCache.put(sql, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * tells, if the given statement is owned by the statement cache.
+     */
+    public boolean isCached(final Statement stmt) {
+        return _statementCache.containsValue(stmt);
+    }
+
+    /**
+     * close all cached prepared statements.
+     */
+    public void clearStatementCache() {
+        for (final PreparedStatement stmt : _statementCache.values()) {
+            closeQuietly(stmt);
+        }
+        _statementCache.clear();
+    }
+
+    private static void closeQuietly(final Statement stmt) {
+        try {
+            stmt.close();
+        } catch (final Exception e) {
+            /* ignore */
+        }
+    }
+
+    /**
+     * borrow an additional connection to the same database with the same
+     * credentials, e.g. to run statements in the background. Pooled
+     * connections run in auto-commit mode, since there is nobody to close
+     * their transactions. Return it with {@link #releaseConnection(Connection)}.
+     */
+    public Connection borrowConnection() throws SQLException {
+        synchronized (_pool) {
+            if (_closed) {
+                throw new SQLException("session is closed");
+            }
+            while (!_pool.isEmpty()) {
+                final Connection conn = _pool.remove(_pool.size() - 1);
+                try {
+                    if (!conn.isClosed()) {
+                        return conn;
+                    }
+                } catch (final SQLException e) {
+                    /* stale; try next */
+                }
+            }
+        }
+        Connection conn;
+        if (_username == null || _password == null) {
+            conn = DriverManager.getConnection(_url, getConnectProperties());
+        } else {
+            conn = DriverManager.getConnection(_url, _username, _password);
+        }
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    /**
+     * return a connection borrowed from this session; it is kept for reuse
+     * unless the session has been closed meanwhile.
+     */
+    public void releaseConnection(final Connection conn) {
+        try {
+            if (conn.isClosed()) {
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (final SQLException e) {
+            closeQuietly(conn);
+            return;
+        }
+        synchronized (_pool) {
+            if (!_closed && _pool.size() < MAX_POOLED_CONNECTIONS) {
+                _pool.add(conn);
+                return;
+            }
+        }
+        closeQuietly(conn);
+    }
+
+    private static void closeQuietly(final Connection conn) {
+        try {
+            conn.close();
+        } catch (final Exception e) {
+            /* ignore */
+        }
+    }
+
     private void promptUserPassword() throws IOException {
         HenPlus.msg().println("============ authorization required ===");
         final BufferedReader input = new BufferedReader(new InputStreamReader(
@@ -317,6 +464,14 @@ public class SQLSession implements Interruptable {
     }
 
     public void close() {
+        clearStatementCache();
+        synchronized (_pool) {
+            _closed = true;
+            for (final Connection conn : _pool) {
+                closeQuietly(conn);
+            }
+            _pool.clear();
+        }
         try {
             getConnection().close();
             _conn = null;
@@ -333,6 +488,17 @@ public class SQLSession implements Interruptable {
     }
 
     public Statement createStatement() {
+        return createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * create a statement with the given result set type and concurrency. Falls
+     * back to a default statement, if the requested type is not supported by
+     * the driver.
+     */
+    public Statement createStatement(final int resultSetType,
+            final int resultSetConcurrency) {
         Statement result = null;
         int retries = 2;
         try {
@@ -346,7 +512,13 @@ public class SQLSession implements Interruptable {
 
         while (retries > 0) {
             try {
-                result = _conn.createStatement();
+                if (resultSetType == ResultSet.TYPE_FORWARD_ONLY
+                        && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY) {
+                    result = _conn.createStatement();
+                } else {
+                    result = _conn.createStatement(resultSetType,
+                            resultSetConcurrency);
+                }
                 ++_statementCount;
                 break;
             } catch (final Throwable t) {
@@ -423,6 +595,10 @@ public class SQLSession implements Interruptable {
             if (getConnection().getAutoCommit() != switchOn) {
                 throw new Exception("JDBC-Driver ignores request");
             }
+            if (switchOn) {
+                HenPlus.getInstance().getObjectLister().transactionEnded(
+                        SQLSession.this);
+            }
         }
 
         @Override
@@ -436,6 +612,172 @@ public class SQLSession implements Interruptable {
         }
     }
 
+    private class FetchSizeLimitProperty extends PropertyHolder {
+        private final boolean _isMax;
+
+        FetchSizeLimitProperty(final boolean isMax) {
+            super(String.valueOf(isMax ? _fetchSizeController.getMaxFetchSize()
+                    : _fetchSizeController.getMinFetchSize()));
+            _isMax = isMax;
+        }
+
+        @Override
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            int value;
+            try {
+                value = Integer.parseInt(newValue);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("cannot parse '" + newValue
+                        + "' as integer");
+            }
+            if (value < 1) {
+                throw new IllegalArgumentException("value cannot be less than 1");
+            }
+            if (_isMax) {
+                if (value < _fetchSizeController.getMinFetchSize()) {
+                    throw new IllegalArgumentException(
+                            "value cannot be less than fetch-size-min");
+                }
+                _fetchSizeController.setMaxFetchSize(value);
+            } else {
+                if (value > _fetchSizeController.getMaxFetchSize()) {
+                    throw new IllegalArgumentException(
+                            "value cannot be more than fetch-size-max");
+                }
+                _fetchSizeController.setMinFetchSize(value);
+            }
+            return newValue;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return _isMax ? "5000" : "10";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return (_isMax ? "maximum" : "minimum")
+            + " rows fetched per round trip";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tThe number of rows fetched from the database per round\n"
+                + "\ttrip is chosen to fit 'fetch-memory-budget', based on\n"
+                + "\tthe column sizes and the row sizes actually measured.\n"
+                + "\tIt never goes below 'fetch-size-min' and never above\n"
+                + "\t'fetch-size-max'.";
+            return dsc;
+        }
+    }
+
+    private class FetchMemoryBudgetProperty extends PropertyHolder {
+
+        FetchMemoryBudgetProperty() {
+            super(String.valueOf(_fetchSizeController.getMemoryBudget() / 1024));
+        }
+
+        @Override
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            long value;
+            try {
+                value = Long.parseLong(newValue);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("cannot parse '" + newValue
+                        + "' as integer");
+            }
+            if (value < 1) {
+                throw new IllegalArgumentException("value cannot be less than 1");
+            }
+            _fetchSizeController.setMemoryBudget(value * 1024);
+            return newValue;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "2048";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "KBytes to use per fetch round trip";
+        }
+    }
+
+    /**
+     * LRU map of prepared statements; evicted statements are closed.
+     */
+    private static final class StatementCache extends
+    LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+        private int _maxSize;
+
+        StatementCache() {
+            super(16, 0.75f, true);
+            _maxSize = 64;
+        }
+
+        int getMaxSize() {
+            return _maxSize;
+        }
+
+        void setMaxSize(final int maxSize) {
+            _maxSize = maxSize;
+            while (size() > _maxSize) {
+                final Iterator<PreparedStatement> it = values().iterator();
+                closeQuietly(it.next());
+                it.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > _maxSize) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private class StatementCacheSizeProperty extends PropertyHolder {
+
+        StatementCacheSizeProperty() {
+            super(String.valueOf(_statementCache.getMaxSize()));
+        }
+
+        @Override
+        protected String propertyChanged(String newValue) throws Exception {
+            newValue = newValue.trim();
+            int value;
+            try {
+                value = Integer.parseInt(newValue);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("cannot parse '" + newValue
+                        + "' as integer");
+            }
+            if (value < 0) {
+                throw new IllegalArgumentException("value cannot be negative");
+            }
+            _statementCache.setMaxSize(value);
+            return newValue;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "64";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "number of prepared statements cached";
+        }
+    }
+
     private class IsolationLevelProperty extends EnumeratedPropertyHolder {
         private final Map _availableValues;
         private final String _initialValue;
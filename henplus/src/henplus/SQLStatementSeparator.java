@@ -58,10 +58,25 @@ public class SQLStatementSeparator {
     private static final byte FIRST_SEMICOLON_ON_LINE_SEEN = 13;
     private static final byte POTENTIAL_END_FOUND = 14;
 
+    /** initial size of the input window */
+    private static final int INITIAL_INPUT_SIZE = 256;
+    /** buffers larger than this are given back after a huge statement */
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
     private static class ParseState {
         private byte _state;
-        private final StringBuilder _inputBuffer;
-        private final StringBuilder _commandBuffer;
+        /*
+         * the input not parsed yet is _input[_inputStart.._inputEnd). Parsed
+         * input is not removed but skipped; the window is only compacted if
+         * it has to grow, so each character is copied a constant number of
+         * times, however the input is split.
+         */
+        private char[] _input;
+        private int _inputStart;
+        private int _inputEnd;
+        private StringBuilder _commandBuffer;
+        /** the command returned by next(); null, if not created yet */
+        private String _command;
         /*
          * instead of adding new states, we store the fact, that the last
          * 'potential_end_found' was a newline here.
@@ -71,7 +86,7 @@ public class SQLStatementSeparator {
         public ParseState() {
             _eolineSeen = true; // we start with a new line.
             _state = NEW_STATEMENT;
-            _inputBuffer = new StringBuilder();
+            _input = new char[INITIAL_INPUT_SIZE];
             _commandBuffer = new StringBuilder();
         }
 
@@ -91,13 +106,68 @@ public class SQLStatementSeparator {
             _eolineSeen = n;
         }
 
-        public StringBuilder getInputBuffer() {
-            return _inputBuffer;
+        public void append(final String s) {
+            final int len = s.length();
+            makeRoom(len);
+            s.getChars(0, len, _input, _inputEnd);
+            _inputEnd += len;
+        }
+
+        public void append(final char[] buf, final int off, final int len) {
+            makeRoom(len);
+            System.arraycopy(buf, off, _input, _inputEnd, len);
+            _inputEnd += len;
+        }
+
+        private void makeRoom(final int len) {
+            final int pending = _inputEnd - _inputStart;
+            if (_inputEnd + len <= _input.length) {
+                return;
+            }
+            char[] target = _input;
+            if (pending + len > _input.length) {
+                target = new char[Math.max(2 * _input.length, pending + len)];
+            }
+            System.arraycopy(_input, _inputStart, target, 0, pending);
+            _input = target;
+            _inputStart = 0;
+            _inputEnd = pending;
+        }
+
+        public boolean hasInput() {
+            return _inputStart < _inputEnd;
+        }
+
+        public void discardInput() {
+            _inputStart = 0;
+            _inputEnd = 0;
+            if (_input.length > MAX_RETAINED_SIZE) {
+                _input = new char[INITIAL_INPUT_SIZE];
+            }
         }
 
         public StringBuilder getCommandBuffer() {
             return _commandBuffer;
         }
+
+        /**
+         * clear the command buffer for the next statement.
+         */
+        public void newCommand() {
+            if (_commandBuffer.capacity() > MAX_RETAINED_SIZE) {
+                _commandBuffer = new StringBuilder();
+            } else {
+                _commandBuffer.setLength(0);
+            }
+            _command = null;
+        }
+
+        public String getCommand() {
+            if (_command == null) {
+                _command = _commandBuffer.toString();
+            }
+            return _command;
+        }
     }
 
     private boolean _removeComments;
@@ -128,15 +198,23 @@ public class SQLStatementSeparator {
      * add a new line including the '\n' to the input buffer.
      */
     public void append(final String s) {
-        _currentState.getInputBuffer().append(s);
+        _currentState.append(s);
+    }
+
+    /**
+     * add the given characters to the input buffer, e.g. a line including
+     * its '\n'.
+     */
+    public void append(final char[] buf, final int off, final int len) {
+        _currentState.append(buf, off, len);
     }
 
     /**
      * discard any input.
      */
     public void discard() {
-        _currentState.getInputBuffer().setLength(0);
-        _currentState.getCommandBuffer().setLength(0);
+        _currentState.discardInput();
+        _currentState.newCommand();
         _currentState.setState(NEW_STATEMENT);
     }
 
@@ -165,7 +243,7 @@ public class SQLStatementSeparator {
             throw new IllegalStateException(
             "call cont() or consumed() before hasNext()");
         }
-        if (_currentState.getInputBuffer().length() == 0) {
+        if (!_currentState.hasInput()) {
             return false;
         }
         parsePartialInput();
@@ -179,7 +257,20 @@ public class SQLStatementSeparator {
         if (_currentState.getState() != POTENTIAL_END_FOUND) {
             throw new IllegalStateException("next() called without hasNext()");
         }
-        return _currentState.getCommandBuffer().toString();
+        return _currentState.getCommand();
+    }
+
+    /**
+     * returns the next command without copying it; requires to call hasNext()
+     * before. The returned sequence changes with the next call to hasNext(),
+     * so this is for cheap checks, e.g. whether a long statement continued
+     * line by line is complete, before next() is called for it.
+     */
+    public CharSequence peek() throws IllegalStateException {
+        if (_currentState.getState() != POTENTIAL_END_FOUND) {
+            throw new IllegalStateException("peek() called without hasNext()");
+        }
+        return _currentState.getCommandBuffer();
     }
 
     /**
@@ -196,12 +287,15 @@ public class SQLStatementSeparator {
         _removeComments = b;
     }
 
+    public boolean isRemoveComments() {
+        return _removeComments;
+    }
+
     /**
      * parse partial input and set state to POTENTIAL_END_FOUND if we either
      * reached end-of-line or a semicolon.
      */
     private void parsePartialInput() {
-        int pos = 0;
         char current;
         byte oldstate = -1;
 
@@ -209,31 +303,31 @@ public class SQLStatementSeparator {
         byte state = _currentState.getState();
         boolean lastEoline = _currentState.hasNewlineSeen();
 
-        final StringBuilder input = _currentState.getInputBuffer();
-        final StringBuilder parsed = _currentState.getCommandBuffer();
+        final char[] input = _currentState._input;
+        final int end = _currentState._inputEnd;
+        int pos = _currentState._inputStart;
 
         if (state == NEW_STATEMENT) {
-            parsed.setLength(0);
+            _currentState.newCommand();
             /* skip leading whitespaces of next statement .. */
-            while (pos < input.length()
-                    && Character.isWhitespace(input.charAt(pos))) {
-                _currentState.setNewlineSeen(input.charAt(pos) == '\n');
+            while (pos < end && Character.isWhitespace(input[pos])) {
+                _currentState.setNewlineSeen(input[pos] == '\n');
                 ++pos;
             }
-            input.delete(0, pos);
-            pos = 0;
         }
+        _currentState._command = null;
+        final StringBuilder parsed = _currentState.getCommandBuffer();
 
-        if (input.length() == 0) {
+        if (pos == end) {
             state = POTENTIAL_END_FOUND;
         }
 
         // System.err.println("Startstate: " + state + "; LEOL: " + lastEoline);
 
-        while (state != POTENTIAL_END_FOUND && pos < input.length()) {
+        while (state != POTENTIAL_END_FOUND && pos < end) {
             boolean vetoAppend = false;
             boolean reIterate;
-            current = input.charAt(pos);
+            current = input[pos];
             if (current == '\r') {
                 current = '\n'; // canonicalize.
             }
@@ -407,9 +501,13 @@ public class SQLStatementSeparator {
              */
             lastEoline &= Character.isWhitespace(current);
         }
-        // we reached: POTENTIAL_END_FOUND. Store the rest, that
-        // has not been parsed in the input-buffer.
-        input.delete(0, pos);
+        // we reached: POTENTIAL_END_FOUND. The rest, that has not been
+        // parsed, stays in the input window.
+        if (pos == end) {
+            _currentState.discardInput();
+        } else {
+            _currentState._inputStart = pos;
+        }
         _currentState.setState(state);
     }
 
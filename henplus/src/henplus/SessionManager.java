@@ -33,28 +33,28 @@ public final class SessionManager {
         return instance;
     }
 
-    public void addSession(final String sessionName, final SQLSession session) {
+    public synchronized void addSession(final String sessionName, final SQLSession session) {
         _sessions.put(sessionName, session);
     }
 
-    public SQLSession removeSessionWithName(final String sessionName) {
+    public synchronized SQLSession removeSessionWithName(final String sessionName) {
         return _sessions.remove(sessionName);
     }
 
-    public SQLSession getSessionByName(final String name) {
+    public synchronized SQLSession getSessionByName(final String name) {
         return _sessions.get(name);
     }
 
-    public String getFirstSessionName() {
+    public synchronized String getFirstSessionName() {
         return _sessions.firstKey();
     }
 
-    public boolean closeCurrentSession() {
+    public synchronized boolean closeCurrentSession() {
         _currentSession.close();
         return removeSession(_currentSession);
     }
 
-    private boolean removeSession(final SQLSession session) {
+    private synchronized boolean removeSession(final SQLSession session) {
         boolean result = false;
         Map.Entry entry = null;
         final Iterator it = _sessions.entrySet().iterator();
@@ -69,7 +69,7 @@ public final class SessionManager {
         return result;
     }
 
-    public void closeAll() {
+    public synchronized void closeAll() {
         final Iterator sessIter = _sessions.values().iterator();
         while (sessIter.hasNext()) {
             final SQLSession session = (SQLSession) sessIter.next();
@@ -77,7 +77,7 @@ public final class SessionManager {
         }
     }
 
-    public int renameSession(final String oldSessionName, final String newSessionName) {
+    public synchronized int renameSession(final String oldSessionName, final String newSessionName) {
         int result = Command.EXEC_FAILED;
 
         if (sessionNameExists(newSessionName)) {
@@ -94,7 +94,7 @@ public final class SessionManager {
         return result;
     }
 
-    public SortedSet getSessionNames() {
+    public synchronized SortedSet getSessionNames() {
         final SortedSet result = new TreeSet();
         final Iterator iter = _sessions.keySet().iterator();
         while (iter.hasNext()) {
@@ -103,23 +103,23 @@ public final class SessionManager {
         return result;
     }
 
-    public int getSessionCount() {
+    public synchronized int getSessionCount() {
         return _sessions.size();
     }
 
-    public boolean hasSessions() {
+    public synchronized boolean hasSessions() {
         return !_sessions.isEmpty();
     }
 
-    public boolean sessionNameExists(final String sessionName) {
+    public synchronized boolean sessionNameExists(final String sessionName) {
         return _sessions.containsKey(sessionName);
     }
 
-    public void setCurrentSession(final SQLSession session) {
+    public synchronized void setCurrentSession(final SQLSession session) {
         this._currentSession = session;
     }
 
-    public SQLSession getCurrentSession() {
+    public synchronized SQLSession getCurrentSession() {
         return _currentSession;
     }
 
@@ -0,0 +1,267 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.OutputDevice;
+import henplus.SQLSession;
+import henplus.io.RowSpillBuffer;
+import henplus.view.Column;
+import henplus.view.ColumnMetaData;
+import henplus.view.TableRenderer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+
+/**
+ * A statement executed on a connection of its own in the background. The
+ * result is kept in a bounded {@link RowSpillBuffer} until it is fetched.
+ */
+final class BackgroundJob implements Runnable {
+    static final int WAITING = 0;
+    static final int RUNNING = 1;
+    static final int DONE = 2;
+    static final int FAILED = 3;
+    static final int CANCELLED = 4;
+    private static final String[] STATE_NAMES = { "waiting", "running",
+        "done", "failed", "cancelled" };
+
+    /** rows of the result kept in memory before spilling to disk */
+    private static final int MEMORY_ROWS = 1000;
+
+    private final int _id;
+    private final SQLSession _session;
+    private final String _sql;
+    private final int _rowLimit;
+    private final RowSpillBuffer _rows;
+
+    private volatile int _state;
+    private volatile Statement _stmt;
+    private volatile boolean _cancelled;
+    private long _startTime;
+    private long _endTime;
+    private String[] _labels;
+    private boolean _limitReached;
+    private int _updateCount;
+    private String _error;
+
+    BackgroundJob(final int id, final SQLSession session, final String sql,
+            final int rowLimit) {
+        _id = id;
+        _session = session;
+        _sql = sql;
+        _rowLimit = rowLimit;
+        _rows = new RowSpillBuffer(Math.min(rowLimit, MEMORY_ROWS));
+        _state = WAITING;
+        _updateCount = -1;
+    }
+
+    public void run() {
+        synchronized (this) {
+            if (_cancelled) {
+                finish(CANCELLED);
+                return;
+            }
+            _state = RUNNING;
+            _startTime = System.currentTimeMillis();
+        }
+        Connection conn = null;
+        int endState = DONE;
+        try {
+            conn = _session.borrowConnection();
+            _stmt = conn.createStatement();
+            _session.getFetchSizeController().prepare(_stmt);
+            if (_cancelled) {
+                endState = CANCELLED;
+                return;
+            }
+            if (_stmt.execute(_sql)) {
+                readResult(_stmt.getResultSet());
+            } else {
+                _updateCount = _stmt.getUpdateCount();
+            }
+            endState = _cancelled ? CANCELLED : DONE;
+        } catch (final Exception e) {
+            endState = _cancelled ? CANCELLED : FAILED;
+            _error = e.getMessage() != null ? e.getMessage().trim() : e
+                    .toString();
+        } finally {
+            final Statement stmt = _stmt;
+            _stmt = null;
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (final Exception e) {
+                    /* ignore */
+                }
+            }
+            if (conn != null) {
+                _session.releaseConnection(conn);
+            }
+            finish(endState);
+        }
+    }
+
+    private void readResult(final ResultSet rset) throws Exception {
+        try {
+            final ResultSetMetaData meta = rset.getMetaData();
+            _labels = new String[meta.getColumnCount()];
+            for (int i = 0; i < _labels.length; ++i) {
+                _labels[i] = meta.getColumnLabel(i + 1);
+            }
+            while (!_cancelled && rset.next()) {
+                if (_rows.size() >= _rowLimit) {
+                    _limitReached = true;
+                    _stmt.cancel();
+                    break;
+                }
+                final String[] row = new String[_labels.length];
+                for (int i = 0; i < row.length; ++i) {
+                    row[i] = ResultSetRenderer.readColumn(rset, meta, i + 1);
+                }
+                _rows.add(row);
+            }
+        } finally {
+            try {
+                rset.close();
+            } catch (final Exception e) {
+                /* e.g. after cancel on limit */
+            }
+        }
+    }
+
+    private synchronized void finish(final int state) {
+        _state = state;
+        _endTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * cancel the job; if it is running, the statement is cancelled.
+     */
+    void cancel() {
+        _cancelled = true;
+        final Statement stmt = _stmt;
+        if (stmt != null) {
+            try {
+                stmt.cancel();
+            } catch (final Exception e) {
+                /* we tried; the result is discarded anyway */
+            }
+        }
+    }
+
+    /**
+     * wait for the job to finish, at most the given time in milliseconds.
+     *
+     * @return true, if the job is finished.
+     */
+    synchronized boolean waitFor(final long millis) throws InterruptedException {
+        if (!isFinished()) {
+            wait(millis);
+        }
+        return isFinished();
+    }
+
+    boolean isFinished() {
+        return _state >= DONE;
+    }
+
+    int getId() {
+        return _id;
+    }
+
+    SQLSession getSession() {
+        return _session;
+    }
+
+    String getSQL() {
+        return _sql;
+    }
+
+    int getState() {
+        return _state;
+    }
+
+    String getStateName() {
+        return STATE_NAMES[_state];
+    }
+
+    String getError() {
+        return _error;
+    }
+
+    int getRowCount() {
+        return _rows.size();
+    }
+
+    /**
+     * the time the job is running or has been running; -1 if not started.
+     */
+    synchronized long getRunningTime() {
+        if (_state == WAITING || _startTime == 0) {
+            return -1;
+        }
+        return (isFinished() ? _endTime : System.currentTimeMillis())
+        - _startTime;
+    }
+
+    /**
+     * print the outcome of the finished job.
+     */
+    void printResult(final OutputDevice out, final OutputDevice msg,
+            final String delimiter, final boolean header, final boolean footer)
+    throws IOException {
+        switch (_state) {
+        case FAILED:
+            msg.println("FAILURE: " + _error);
+            return;
+        case CANCELLED:
+            msg.println("cancelled");
+            return;
+        }
+        if (_labels == null) {
+            msg.println(_updateCount >= 0 ? "affected " + _updateCount
+                    + " rows" : "ok.");
+            return;
+        }
+        final ColumnMetaData[] meta = new ColumnMetaData[_labels.length];
+        for (int i = 0; i < meta.length; ++i) {
+            meta[i] = new ColumnMetaData(_labels[i]);
+        }
+        final TableRenderer table = new TableRenderer(meta, out, delimiter,
+                header, footer);
+        for (int r = 0; r < _rows.size(); ++r) {
+            final String[] row = _rows.get(r);
+            final Column[] columns = new Column[row.length];
+            for (int i = 0; i < row.length; ++i) {
+                columns[i] = new Column(row[i]);
+            }
+            table.addRow(columns);
+        }
+        table.closeTable();
+        if (_limitReached) {
+            msg.println("limit of " + _rowLimit + " rows reached ..");
+        }
+        msg.println(_rows.size() + " row" + (_rows.size() == 1 ? "" : "s")
+                + " in result");
+    }
+
+    /**
+     * release the buffered result.
+     */
+    void close() {
+        _rows.close();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
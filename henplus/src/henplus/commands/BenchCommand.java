@@ -0,0 +1,455 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.Command;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.Interruptable;
+import henplus.SQLSession;
+import henplus.SQLStatementSeparator;
+import henplus.SigIntHandler;
+import henplus.util.LatencyHistogram;
+import henplus.util.StatementUtil;
+import henplus.util.ThreadUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A small load generator in the spirit of pgbench: runs a statement or a
+ * script concurrently on several connections and reports throughput and
+ * latency percentiles.
+ */
+public final class BenchCommand extends AbstractCommand implements
+Interruptable {
+    private static final int DEFAULT_CLIENTS = 1;
+    private static final int DEFAULT_ITERATIONS = 100;
+    private static final String[] OPTIONS = { "-c", "-n", "-t" };
+
+    private final CommandDispatcher _dispatcher;
+    private volatile boolean _stopped;
+    private List<BenchClient> _clients;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "bench" };
+    }
+
+    public BenchCommand(final CommandDispatcher dispatcher) {
+        _dispatcher = dispatcher;
+    }
+
+    // Interruptable interface.
+    public void interrupt() {
+        _stopped = true;
+        final List<BenchClient> clients = _clients;
+        if (clients != null) {
+            for (final BenchClient client : clients) {
+                client.cancel();
+            }
+        }
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        int clients = DEFAULT_CLIENTS;
+        long iterations = -1;
+        long seconds = -1;
+        String rest = param.trim();
+        try {
+            while (rest.startsWith("-")) {
+                int end = 0;
+                while (end < rest.length()
+                        && !Character.isWhitespace(rest.charAt(end))) {
+                    ++end;
+                }
+                final String option = rest.substring(0, end);
+                rest = rest.substring(end).trim();
+                end = 0;
+                while (end < rest.length()
+                        && !Character.isWhitespace(rest.charAt(end))) {
+                    ++end;
+                }
+                final long value = Long.parseLong(rest.substring(0, end));
+                rest = rest.substring(end).trim();
+                if (value <= 0) {
+                    HenPlus.msg().println(option + " must be positive");
+                    return SYNTAX_ERROR;
+                }
+                if ("-c".equals(option)) {
+                    clients = (int) Math.min(value, Integer.MAX_VALUE);
+                } else if ("-n".equals(option) && seconds < 0) {
+                    iterations = value;
+                } else if ("-t".equals(option) && iterations < 0) {
+                    seconds = value;
+                } else {
+                    return SYNTAX_ERROR;
+                }
+            }
+        } catch (final NumberFormatException e) {
+            return SYNTAX_ERROR;
+        }
+        if (rest.length() == 0) {
+            return SYNTAX_ERROR;
+        }
+        if (iterations < 0 && seconds < 0) {
+            iterations = DEFAULT_ITERATIONS;
+        }
+
+        final List<String> statements;
+        if (rest.startsWith("@")) {
+            try {
+                statements = readScript(new File(rest.substring(1).trim()));
+            } catch (final IOException e) {
+                HenPlus.msg().println("cannot read script: " + e.getMessage());
+                return EXEC_FAILED;
+            }
+            if (statements == null) {
+                return EXEC_FAILED;
+            }
+        } else {
+            statements = new ArrayList<String>();
+            statements.add(StatementUtil.stripTerminator(rest));
+        }
+        if (statements.isEmpty()) {
+            HenPlus.msg().println("nothing to run.");
+            return EXEC_FAILED;
+        }
+        return run(session, statements, clients, iterations, seconds);
+    }
+
+    private int run(final SQLSession session, final List<String> statements,
+            final int clientCount, final long iterations, final long seconds) {
+        _stopped = false;
+        final List<BenchClient> clients = new ArrayList<BenchClient>(
+                clientCount);
+        SigIntHandler.getInstance().pushInterruptable(this);
+        try {
+            // connect first; connection setup is not part of the measurement.
+            try {
+                for (int i = 0; i < clientCount && !_stopped; ++i) {
+                    clients.add(new BenchClient(session, session
+                            .borrowConnection(), statements, iterations));
+                }
+            } catch (final Exception e) {
+                HenPlus.msg().println(
+                        "cannot open connection " + (clients.size() + 1)
+                        + ": " + e.getMessage());
+                return EXEC_FAILED;
+            }
+            if (_stopped) {
+                return EXEC_FAILED;
+            }
+            _clients = clients;
+            final long startTime = System.nanoTime();
+            final long deadline = seconds > 0 ? startTime + seconds
+                    * 1000000000L : Long.MAX_VALUE;
+            final List<Thread> threads = new ArrayList<Thread>(clientCount);
+            for (final BenchClient client : clients) {
+                client.setDeadline(deadline);
+                final Thread thread = ThreadUtil.newThread("henplus-bench",
+                        client);
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    _stopped = true;
+                }
+            }
+            final long elapsed = System.nanoTime() - startTime;
+            report(clients, elapsed);
+        } finally {
+            _clients = null;
+            SigIntHandler.getInstance().popInterruptable();
+            for (final BenchClient client : clients) {
+                client.close();
+            }
+        }
+        return SUCCESS;
+    }
+
+    private void report(final List<BenchClient> clients, final long elapsedNanos) {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors = 0;
+        long rows = 0;
+        String firstError = null;
+        for (final BenchClient client : clients) {
+            latency.add(client.getLatency());
+            errors += client.getErrors();
+            rows += client.getRows();
+            if (firstError == null) {
+                firstError = client.getFirstError();
+            }
+        }
+        final long elapsedMillis = elapsedNanos / 1000000;
+        final long transactions = latency.getCount();
+        HenPlus.msg().print(
+                clients.size() + " client" + (clients.size() == 1 ? "" : "s")
+                + ", " + transactions + " transactions, " + errors
+                + " errors, " + rows + " rows in ");
+        TimeRenderer.printTime(elapsedMillis, HenPlus.msg());
+        if (_stopped) {
+            HenPlus.msg().print(" (interrupted)");
+        }
+        HenPlus.msg().println();
+        if (elapsedNanos > 0) {
+            final double tps = transactions * 1e9 / elapsedNanos;
+            HenPlus.msg().println(
+                    "throughput: " + Math.round(tps * 10) / 10.0
+                    + " transactions per second");
+        }
+        if (transactions > 0) {
+            HenPlus.msg().println(
+                    "latency: min "
+                    + TimeRenderer.renderMicros(latency.getMin())
+                    + ", avg " + TimeRenderer.renderMicros(latency.getMean())
+                    + ", p50 "
+                    + TimeRenderer.renderMicros(latency
+                            .getValueAtPercentile(50))
+                    + ", p95 "
+                    + TimeRenderer.renderMicros(latency
+                            .getValueAtPercentile(95))
+                    + ", p99 "
+                    + TimeRenderer.renderMicros(latency
+                            .getValueAtPercentile(99))
+                    + ", max " + TimeRenderer.renderMicros(latency.getMax()));
+        }
+        if (firstError != null) {
+            HenPlus.msg().println("first error: " + firstError);
+        }
+    }
+
+    /**
+     * read the SQL statements of the script; only SQL is supported, since
+     * the statements run directly on JDBC connections.
+     *
+     * @return the statements or null, if the script contains other commands.
+     */
+    private List<String> readScript(final File file) throws IOException {
+        final List<String> result = new ArrayList<String>();
+        final SQLStatementSeparator separator = new SQLStatementSeparator();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), System.getProperty("file.encoding")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                separator.append(line + "\n");
+                while (separator.hasNext()) {
+                    final String command = separator.next();
+                    final Command c = _dispatcher.getCommandFrom(command);
+                    if (c == null) {
+                        separator.consumed();
+                    } else if (!c.isComplete(command)) {
+                        separator.cont();
+                    } else if (!(c instanceof SQLCommand)) {
+                        HenPlus.msg().println(
+                                "only SQL statements can be run in a "
+                                + "benchmark: "
+                                + _dispatcher.getCommandNameFrom(command));
+                        return null;
+                    } else {
+                        result.add(StatementUtil.stripTerminator(command));
+                        separator.consumed();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * runs the statements in a loop on its own connection.
+     */
+    private final class BenchClient implements Runnable {
+        private final SQLSession _session;
+        private final Connection _conn;
+        private final List<String> _statements;
+        private final long _iterations;
+        private final LatencyHistogram _latency;
+        private volatile Statement _stmt;
+        private long _deadline;
+        private long _errors;
+        private long _rows;
+        private String _firstError;
+
+        BenchClient(final SQLSession session, final Connection conn,
+                final List<String> statements, final long iterations) {
+            _session = session;
+            _conn = conn;
+            _statements = statements;
+            _iterations = iterations;
+            _latency = new LatencyHistogram();
+        }
+
+        void setDeadline(final long deadline) {
+            _deadline = deadline;
+        }
+
+        public void run() {
+            try {
+                _stmt = _conn.createStatement();
+                _session.getFetchSizeController().prepare(_stmt);
+            } catch (final Exception e) {
+                error(e);
+                return;
+            }
+            for (long i = 0; !_stopped
+            && (_iterations < 0 || i < _iterations); ++i) {
+                final long start = System.nanoTime();
+                if (start >= _deadline) {
+                    break;
+                }
+                if (runTransaction()) {
+                    _latency.record((System.nanoTime() - start) / 1000);
+                }
+            }
+        }
+
+        /**
+         * @return false, if any statement failed.
+         */
+        private boolean runTransaction() {
+            for (final String sql : _statements) {
+                try {
+                    _rows += StatementUtil.executeAndRead(_stmt, sql);
+                } catch (final Exception e) {
+                    if (!_stopped) {
+                        error(e);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void error(final Exception e) {
+            ++_errors;
+            if (_firstError == null) {
+                _firstError = e.getMessage() != null ? e.getMessage().trim()
+                        : e.toString();
+            }
+        }
+
+        void cancel() {
+            final Statement stmt = _stmt;
+            if (stmt != null) {
+                try {
+                    stmt.cancel();
+                } catch (final Exception e) {
+                    /* we tried */
+                }
+            }
+        }
+
+        void close() {
+            final Statement stmt = _stmt;
+            _stmt = null;
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (final Exception e) {
+                    /* ignore */
+                }
+            }
+            _session.releaseConnection(_conn);
+        }
+
+        LatencyHistogram getLatency() {
+            return _latency;
+        }
+
+        long getErrors() {
+            return _errors;
+        }
+
+        long getRows() {
+            return _rows;
+        }
+
+        String getFirstError() {
+            return _firstError;
+        }
+    }
+
+    /**
+     * complete the options; SQL is completed by the SQL command.
+     */
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        if (!lastWord.startsWith("-")) {
+            return null;
+        }
+        final List<String> options = new ArrayList<String>();
+        for (int i = 0; i < OPTIONS.length; ++i) {
+            if (OPTIONS[i].startsWith(lastWord)) {
+                options.add(OPTIONS[i]);
+            }
+        }
+        return options.iterator();
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "run a statement or script concurrently and measure it";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " [-c <clients>] [-n <iterations> | -t <seconds>]"
+        + " <sql-statement> | @<script>";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tRun the given SQL statement or the SQL statements of the\n"
+            + "\tscript concurrently on several connections to the\n"
+            + "\tdatabase of the current session, e.g.\n"
+            + "\t  bench -c 8 -t 30 select * from customer where id = 42\n"
+            + "\t  bench -c 4 -n 1000 @order_transaction.sql\n"
+            + "\tEach of the <clients> connections (default "
+            + DEFAULT_CLIENTS + ") runs\n"
+            + "\tthe statement or the whole script <iterations> times\n"
+            + "\t(default " + DEFAULT_ITERATIONS
+            + ") or for the given number of seconds.\n"
+            + "\tThe connections run in auto-commit mode; results are\n"
+            + "\tread completely and discarded. Reported are the number\n"
+            + "\tof transactions (statement or script runs) per second,\n"
+            + "\tthe errors and the latency percentiles of successful\n"
+            + "\ttransactions. Clients run on virtual threads, if the\n"
+            + "\tJava runtime supports them. Can be interrupted with\n"
+            + "\tCTRL-C; the transactions so far are reported then.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,275 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.event.StatementListener;
+import henplus.util.StatementUtil;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Records the SQL statements executed into a workload log, that can be
+ * re-issued with the 'replay' command. Each statement is appended as one line
+ * <pre>
+ * start-millis TAB duration-micros TAB rows TAB session TAB statement
+ * </pre>
+ * with tabs, newlines and backslashes in the statement escaped.
+ */
+public final class CaptureCommand extends AbstractCommand implements
+StatementListener {
+    static final String HEADER = "# henplus workload 1";
+
+    private final CommandDispatcher _dispatcher;
+    private final SQLCommand _sqlCommand;
+    private final Map<SQLSession, Integer> _sessionIds;
+    private File _file;
+    private Writer _out;
+    private long _records;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "capture" };
+    }
+
+    public CaptureCommand(final CommandDispatcher dispatcher,
+            final SQLCommand sqlCommand) {
+        _dispatcher = dispatcher;
+        _sqlCommand = sqlCommand;
+        _sessionIds = new IdentityHashMap<SQLSession, Integer>();
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        final String arg = param.trim();
+        if (arg.length() == 0) {
+            if (_out == null) {
+                HenPlus.msg().println("capture is off.");
+            } else {
+                HenPlus.msg().println(
+                        "capturing to " + _file + " (" + _records
+                        + " statements)");
+            }
+            return SUCCESS;
+        }
+        if ("off".equals(arg)) {
+            if (_out == null) {
+                HenPlus.msg().println("capture is off.");
+                return EXEC_FAILED;
+            }
+            HenPlus.msg().println(
+                    _records + " statements captured to " + _file);
+            stop();
+            return SUCCESS;
+        }
+        stop();
+        final File file = new File(arg);
+        try {
+            final boolean isNew = !file.exists() || file.length() == 0;
+            _out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), "UTF-8"));
+            if (isNew) {
+                _out.write(HEADER);
+                _out.write('\n');
+                _out.flush();
+            }
+        } catch (final IOException e) {
+            HenPlus.msg().println("cannot open " + file + ": " + e.getMessage());
+            stop();
+            return EXEC_FAILED;
+        }
+        _file = file;
+        _records = 0;
+        _dispatcher.addStatementListener(this);
+        HenPlus.msg().println("capturing SQL statements to " + file);
+        return SUCCESS;
+    }
+
+    private void stop() {
+        _dispatcher.removeStatementListener(this);
+        closeLog();
+    }
+
+    /**
+     * close the log; the listener stays registered (and idle), since this
+     * may be called while the dispatcher iterates over its listeners.
+     */
+    private void closeLog() {
+        _sessionIds.clear();
+        if (_out != null) {
+            try {
+                _out.close();
+            } catch (final IOException e) {
+                /* ignore */
+            }
+        }
+        _out = null;
+        _file = null;
+    }
+
+    // -- Statement listener
+
+    public void statementExecuted(final SQLSession session,
+            final String command, final int result, final long startTime,
+            final long nanos) {
+        if (_out == null) {
+            return;
+        }
+        final long micros = nanos / 1000;
+        try {
+            _out.write(String.valueOf(startTime));
+            _out.write('\t');
+            _out.write(String.valueOf(micros));
+            _out.write('\t');
+            _out.write(String.valueOf(result == SUCCESS ? _sqlCommand
+                    .getLastRowCount() : -1));
+            _out.write('\t');
+            _out.write(String.valueOf(sessionId(session)));
+            _out.write('\t');
+            _out.write(escape(StatementUtil.stripTerminator(command)));
+            _out.write('\n');
+            // append-only; make each record visible immediately.
+            _out.flush();
+            ++_records;
+        } catch (final IOException e) {
+            HenPlus.msg().println(
+                    "writing capture failed: " + e.getMessage()
+                    + "; capture stopped.");
+            closeLog();
+        }
+    }
+
+    private int sessionId(final SQLSession session) {
+        Integer id = _sessionIds.get(session);
+        if (id == null) {
+            id = Integer.valueOf(_sessionIds.size() + 1);
+            _sessionIds.put(session, id);
+        }
+        return id.intValue();
+    }
+
+    static String escape(final String sql) {
+        final StringBuilder result = new StringBuilder(sql.length() + 8);
+        for (int i = 0; i < sql.length(); ++i) {
+            final char c = sql.charAt(i);
+            switch (c) {
+            case '\\':
+                result.append("\\\\");
+                break;
+            case '\t':
+                result.append("\\t");
+                break;
+            case '\n':
+                result.append("\\n");
+                break;
+            case '\r':
+                result.append("\\r");
+                break;
+            default:
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    static String unescape(final String sql) {
+        if (sql.indexOf('\\') < 0) {
+            return sql;
+        }
+        final StringBuilder result = new StringBuilder(sql.length());
+        for (int i = 0; i < sql.length(); ++i) {
+            final char c = sql.charAt(i);
+            if (c != '\\' || i + 1 == sql.length()) {
+                result.append(c);
+                continue;
+            }
+            final char e = sql.charAt(++i);
+            switch (e) {
+            case 't':
+                result.append('\t');
+                break;
+            case 'n':
+                result.append('\n');
+                break;
+            case 'r':
+                result.append('\r');
+                break;
+            default:
+                result.append(e);
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        if (lastWord.startsWith("o")) {
+            return new NameCompleter(new String[] { "off" })
+            .getAlternatives(lastWord);
+        }
+        return new FileCompletionIterator(partialCommand, lastWord);
+    }
+
+    @Override
+    public void shutdown() {
+        stop();
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "capture the executed SQL statements for replay";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " [<logfile> | off]";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tAppend every SQL statement executed from now on to the\n"
+            + "\tgiven workload log, together with its start time,\n"
+            + "\tduration, the number of rows read or affected and the\n"
+            + "\tsession it was executed in. The log can be re-issued\n"
+            + "\twith the original timing using 'replay'. Statements are\n"
+            + "\trecorded as executed, after variable substitution;\n"
+            + "\tbatched and background statements are recorded when\n"
+            + "\tthey are issued, with unknown row count.\n"
+            + "\t'capture off' stops capturing, 'capture' without\n"
+            + "\targument tells, where the statements are captured to.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
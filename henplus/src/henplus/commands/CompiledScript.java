@@ -0,0 +1,248 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.Command;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLStatementSeparator;
+import henplus.commands.properties.PropertyCommand;
+import henplus.io.ByteCounter;
+import henplus.io.ScriptReader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statements of a script, separated and with their commands resolved,
+ * as the interactive separation in HenPlus would do it. Statements containing
+ * variables are marked, so that only these are to be substituted when the
+ * script is run. Iterated like the {@link ScriptReader} it is compiled from;
+ * the byte count is the position in the script file the current statement
+ * ended at.
+ */
+final class CompiledScript implements ByteCounter {
+    private static final int FORMAT_VERSION = 1;
+
+    private final List<Part> _parts;
+    private final long _fileSize;
+    private int _current;
+
+    /**
+     * a statement of the script.
+     */
+    private static final class Part {
+        final String statement;
+        final String commandName;
+        final int line;
+        final long offset;
+        final boolean variables;
+
+        Part(final String statement, final String commandName,
+                final int line, final long offset, final boolean variables) {
+            this.statement = statement;
+            this.commandName = commandName;
+            this.line = line;
+            this.offset = offset;
+            this.variables = variables;
+        }
+    }
+
+    private CompiledScript(final List<Part> parts, final long fileSize) {
+        _parts = parts;
+        _fileSize = fileSize;
+        _current = -1;
+    }
+
+    /**
+     * separate the script read into statements.
+     *
+     * @return null, if the separation of the script depends on what happens
+     *         while it runs: commands are named by variables, or aliases,
+     *         plugins or properties are changed.
+     */
+    static CompiledScript compile(final ScriptReader reader,
+            final CommandDispatcher dispatcher, final boolean removeComments)
+    throws IOException {
+        final SQLStatementSeparator separator = new SQLStatementSeparator();
+        separator.removeComments(removeComments);
+        final List<Part> parts = new ArrayList<Part>();
+        SQLCommand continued = null;
+        int line = 0;
+        while (reader.nextLine()) {
+            ++line;
+            final char[] buf = reader.getBuffer();
+            final int off = reader.getLineStart();
+            final int len = reader.getLineLength();
+            if (HenPlus.isRemark(CharBuffer.wrap(buf, off, len))) {
+                continue;
+            }
+            separator.append(buf, off, len);
+            while (separator.hasNext()) {
+                if (continued != null
+                        && !continued.isComplete(separator.peek())) {
+                    separator.cont();
+                    continue;
+                }
+                continued = null;
+                final String statement = separator.next();
+                final String commandName = dispatcher
+                .getCommandNameFrom(statement);
+                final Command c = dispatcher.getCommandFrom(statement);
+                if (c == null) {
+                    separator.consumed();
+                    continue;
+                }
+                if (firstWordHasVariable(statement)
+                        || c instanceof AliasCommand
+                        || c instanceof PluginCommand
+                        || c instanceof PropertyCommand) {
+                    return null;
+                }
+                if (!c.isComplete(statement)) {
+                    separator.cont();
+                    if (c instanceof SQLCommand) {
+                        continued = (SQLCommand) c;
+                    }
+                } else {
+                    separator.consumed();
+                    parts.add(new Part(statement, commandName, line, reader
+                            .getByteCount(), statement.indexOf('$') >= 0));
+                }
+            }
+        }
+        return new CompiledScript(parts, reader.getFileSize());
+    }
+
+    private static boolean firstWordHasVariable(final String statement) {
+        for (int i = 0; i < statement.length(); ++i) {
+            final char c = statement.charAt(i);
+            if (c == '$') {
+                return true;
+            }
+            if (Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    void write(final DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(_fileSize);
+        out.writeInt(_parts.size());
+        for (final Part part : _parts) {
+            writeString(out, part.statement);
+            writeString(out, part.commandName);
+            out.writeInt(part.line);
+            out.writeLong(part.offset);
+            out.writeBoolean(part.variables);
+        }
+    }
+
+    /**
+     * read a script written with {@link #write(DataOutputStream)}.
+     *
+     * @return null, if it has been written in another format.
+     */
+    static CompiledScript read(final DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        final long fileSize = in.readLong();
+        final int count = in.readInt();
+        final List<Part> parts = new ArrayList<Part>(count);
+        for (int i = 0; i < count; ++i) {
+            parts.add(new Part(readString(in), readString(in), in.readInt(),
+                    in.readLong(), in.readBoolean()));
+        }
+        return new CompiledScript(parts, fileSize);
+    }
+
+    /**
+     * unlike writeUTF(), not limited to 64K.
+     */
+    private static void writeString(final DataOutputStream out,
+            final String s) throws IOException {
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in)
+    throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > ScriptCache.MAX_SCRIPT_SIZE * 4) {
+            throw new IOException("corrupt script");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * advance to the next statement.
+     *
+     * @return false, if there are no more statements.
+     */
+    boolean nextStatement() {
+        if (_current + 1 >= _parts.size()) {
+            return false;
+        }
+        ++_current;
+        return true;
+    }
+
+    /**
+     * the current statement as separated; variables are not substituted.
+     */
+    String getStatement() {
+        return _parts.get(_current).statement;
+    }
+
+    /**
+     * the name of the command the statement is for.
+     */
+    String getCommandName() {
+        return _parts.get(_current).commandName;
+    }
+
+    /**
+     * returns, if the current statement contains variables to substitute.
+     */
+    boolean hasVariables() {
+        return _parts.get(_current).variables;
+    }
+
+    /**
+     * the number of the line the current statement ends in.
+     */
+    int getLine() {
+        return _parts.get(_current).line;
+    }
+
+    public long getByteCount() {
+        return _current < 0 ? 0 : _parts.get(_current).offset;
+    }
+
+    long getFileSize() {
+        return _fileSize;
+    }
+
+    int getStatementCount() {
+        return _parts.size();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -63,6 +63,9 @@ public class ConnectCommand extends AbstractCommand {
      */
     private String _currentSessionName = null;
 
+    /** drivers are loaded when they are needed to connect */
+    private final DriverCommand _drivers;
+
     /**
      * returns the command-strings this command can handle.
      */
@@ -71,8 +74,10 @@ public class ConnectCommand extends AbstractCommand {
                 "switch", "sessions" };
     }
 
-    public ConnectCommand(final HenPlus henplus, final SessionManager sessionManager) {
+    public ConnectCommand(final HenPlus henplus,
+            final SessionManager sessionManager, final DriverCommand drivers) {
         _henplus = henplus;
+        _drivers = drivers;
         _sessionManager = sessionManager;
         _knownUrls = new TreeMap();
         _config = henplus.createConfigurationContainer(CONNECTION_CONFIG);
@@ -149,12 +154,14 @@ public class ConnectCommand extends AbstractCommand {
     private void connect(final String url, final String username, final String password)
     throws ClassNotFoundException, SQLException, IOException {
         SQLSession session;
+        _drivers.loadDriverFor(url);
         session = new SQLSession(url, username, password);
         _currentSessionName = createSessionName(session, null);
         _sessionManager.addSession(_currentSessionName, session);
         _knownUrls.put(url, url);
         _henplus.setPrompt(_currentSessionName + "> ");
         _sessionManager.setCurrentSession(session);
+        _henplus.getObjectLister().startIndexing(session);
     }
 
     @Override
@@ -335,6 +342,7 @@ public class ConnectCommand extends AbstractCommand {
                 }
             }
             try {
+                _drivers.loadDriverFor(url);
                 session = new SQLSession(url, null, null);
                 _knownUrls.put(url, url);
                 if (alias != null) {
@@ -343,6 +351,7 @@ public class ConnectCommand extends AbstractCommand {
                 _currentSessionName = createSessionName(session, alias);
                 _sessionManager.addSession(_currentSessionName, session);
                 _sessionManager.setCurrentSession(session);
+                _henplus.getObjectLister().startIndexing(session);
             } catch (final Exception e) {
                 HenPlus.msg().println(e.toString());
                 return EXEC_FAILED;
@@ -410,6 +419,8 @@ public class ConnectCommand extends AbstractCommand {
             if (argc != 0) {
                 return SYNTAX_ERROR;
             }
+            _henplus.getObjectLister().forgetSession(
+                    _sessionManager.getCurrentSession());
             _sessionManager.closeCurrentSession();
             HenPlus.msg().println("session closed.");
 
@@ -0,0 +1,509 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.OutputDevice;
+import henplus.PrintStreamOutputDevice;
+import henplus.SQLSession;
+import henplus.SessionManager;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Keeps HenPlus running as a daemon on a localhost port, so that scripts
+ * sent with 'henplus --client' neither pay for the JVM startup nor for the
+ * connect. The sessions are kept open, one for each URL and user, until they
+ * are unused for the idle timeout.
+ * <p>
+ * The protocol is plain UTF-8 text: header lines 'token', 'url', 'user' and
+ * 'password', each followed by a space and its value, then an empty line and
+ * the script up to the end of the input. The output and the messages are
+ * sent back while the script runs. Clients are served one after another.
+ * <p>
+ * Everybody on the host can connect to the port, so the daemon only serves
+ * clients that send the token it writes to a file in the config directory,
+ * readable only by its owner.
+ */
+public final class DaemonCommand extends AbstractCommand {
+    private static final int DEFAULT_IDLE_TIMEOUT = 600;
+    /** how often idle sessions are looked for while no client comes */
+    private static final int CHECK_INTERVAL = 10 * 1000;
+    /** time a client has to send its header */
+    private static final int HEADER_TIMEOUT = 5000;
+    private static final int TOKEN_BYTES = 32;
+
+    /** the token file is named with these around the port */
+    public static final String TOKEN_PREFIX = "daemon-";
+    public static final String TOKEN_SUFFIX = ".token";
+
+    private final HenPlus _henplus;
+    private final SessionManager _sessionManager;
+    private final DriverCommand _drivers;
+    /** the sessions kept open, by URL and user */
+    private final Map<String, WarmSession> _sessions;
+
+    private int _port = -1;
+    private long _idleTimeout = DEFAULT_IDLE_TIMEOUT * 1000L;
+    private ServerSocket _server;
+    private File _tokenFile;
+    private String _token;
+    private long _clients;
+    private boolean _stopped;
+
+    private static final class WarmSession {
+        final SQLSession session;
+        final String password;
+        long lastUsed;
+
+        WarmSession(final SQLSession session, final String password) {
+            this.session = session;
+            this.password = password;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "daemon" };
+    }
+
+    public DaemonCommand(final HenPlus henplus,
+            final SessionManager sessionManager, final DriverCommand drivers) {
+        _henplus = henplus;
+        _sessionManager = sessionManager;
+        _drivers = drivers;
+        _sessions = new LinkedHashMap<String, WarmSession>();
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * returns, if HenPlus has been started with --daemon.
+     */
+    public boolean isRequested() {
+        return _port >= 0;
+    }
+
+    /**
+     * serve the clients until the daemon is stopped; called instead of
+     * reading the commands from stdin.
+     */
+    public void serve() {
+        try {
+            _server = new ServerSocket(_port, 50, InetAddress
+                    .getByName("127.0.0.1"));
+            _server.setSoTimeout(CHECK_INTERVAL);
+            writeToken();
+        } catch (final IOException e) {
+            HenPlus.msg().println(
+                    "cannot listen on port " + _port + ": " + e.getMessage());
+            stop();
+            return;
+        }
+        HenPlus.msg().println(
+                "daemon serving on 127.0.0.1:" + _server.getLocalPort()
+                + "; token in " + _tokenFile);
+        while (!_stopped) {
+            Socket client = null;
+            try {
+                client = _server.accept();
+                serveClient(client);
+            } catch (final SocketTimeoutException e) {
+                /* nobody came */
+            } catch (final IOException e) {
+                if (!_stopped) {
+                    HenPlus.msg().println("client failed: " + e.getMessage());
+                }
+            } finally {
+                if (client != null) {
+                    try {
+                        client.close();
+                    } catch (final IOException e) {
+                        /* ignore */
+                    }
+                }
+            }
+            closeIdleSessions();
+        }
+        stop();
+    }
+
+    /**
+     * write a new random token to a file only the owner can read; clients
+     * must send it.
+     */
+    private void writeToken() throws IOException {
+        final byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        final StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < bytes.length; ++i) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        final File file = new File(_henplus.getConfigurationDirectoryInfo(),
+                TOKEN_PREFIX + _server.getLocalPort() + TOKEN_SUFFIX);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot replace " + file);
+        }
+        if (!file.createNewFile()) {
+            throw new IOException("cannot create " + file);
+        }
+        _tokenFile = file;
+        // restrict the access before the token is in it.
+        try {
+            final Process chmod = Runtime.getRuntime().exec(
+                    new String[] { "chmod", "600", file.toString() });
+            if (chmod.waitFor() != 0) {
+                throw new IOException("cannot restrict access to " + file);
+            }
+        } catch (final InterruptedException e) {
+            throw new IOException("interrupted");
+        }
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+        "US-ASCII");
+        try {
+            out.write(hex.toString());
+        } finally {
+            out.close();
+        }
+        _token = hex.toString();
+    }
+
+    private void serveClient(final Socket client) throws IOException {
+        client.setSoTimeout(HEADER_TIMEOUT);
+        final BufferedReader in = new BufferedReader(new InputStreamReader(
+                client.getInputStream(), "UTF-8"));
+        String token = null;
+        String url = null;
+        String user = null;
+        String password = null;
+        String header;
+        while ((header = in.readLine()) != null && header.length() > 0) {
+            final int space = header.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            final String name = header.substring(0, space);
+            final String value = header.substring(space + 1);
+            if ("token".equals(name)) {
+                token = value;
+            } else if ("url".equals(name)) {
+                url = value;
+            } else if ("user".equals(name)) {
+                user = value;
+            } else if ("password".equals(name)) {
+                password = value;
+            }
+        }
+        final PrintStream out = new PrintStream(new BufferedOutputStream(
+                client.getOutputStream()), false, "UTF-8");
+        if (token == null
+                || !MessageDigest.isEqual(token.getBytes("US-ASCII"), _token
+                        .getBytes("US-ASCII"))) {
+            out.println("not authorized: the token in " + _tokenFile
+                    + " is required");
+            out.flush();
+            return;
+        }
+        // the script may take its time.
+        client.setSoTimeout(0);
+
+        final OutputDevice device = new PrintStreamOutputDevice(out);
+        final OutputDevice oldOut = _henplus.getOutputDevice();
+        final OutputDevice oldMsg = _henplus.getMessageDevice();
+        final SQLSession oldSession = _sessionManager.getCurrentSession();
+        _henplus.setOutput(device, device);
+        ++_clients;
+        try {
+            WarmSession warm = null;
+            if (url != null) {
+                warm = getSession(url, user, password);
+                if (warm == null) {
+                    return;
+                }
+            }
+            _sessionManager.setCurrentSession(warm != null ? warm.session
+                    : null);
+            _henplus.executeScript(in);
+            if (warm != null) {
+                release(url, user, warm);
+            }
+        } finally {
+            _sessionManager.setCurrentSession(oldSession);
+            _henplus.setOutput(oldOut, oldMsg);
+            out.flush();
+        }
+    }
+
+    private static String getKey(final String url, final String user) {
+        // header lines cannot contain a newline.
+        return url + "\n" + (user != null ? user : "");
+    }
+
+    /**
+     * the open session for the URL and user, or a new one.
+     *
+     * @return null, if no session can be opened or the password does not
+     *         match.
+     */
+    private WarmSession getSession(final String url, final String user,
+            final String password) {
+        final String key = getKey(url, user);
+        WarmSession warm = _sessions.get(key);
+        if (warm != null) {
+            final boolean matches = warm.password == null ? password == null
+                    : warm.password.equals(password);
+            if (!matches) {
+                HenPlus.msg().println(
+                        "password does not match the open session for '"
+                        + url + "'");
+                return null;
+            }
+            warm.lastUsed = System.currentTimeMillis();
+            return warm;
+        }
+        try {
+            _drivers.loadDriverFor(url);
+            warm = new WarmSession(new SQLSession(url, user, password),
+                    password);
+        } catch (final Exception e) {
+            HenPlus.msg().println(e.toString());
+            return null;
+        }
+        _sessions.put(key, warm);
+        return warm;
+    }
+
+    /**
+     * keep the session for the next client, without the work the script did
+     * not commit; sessions closed by the script or broken are dropped.
+     */
+    private void release(final String url, final String user,
+            final WarmSession warm) {
+        final Connection conn = warm.session.getConnection();
+        boolean broken = conn == null;
+        if (!broken) {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+            } catch (final SQLException e) {
+                HenPlus.msg().println(
+                        "dropping session for '" + url + "': "
+                        + e.getMessage());
+                close(warm);
+                broken = true;
+            }
+        }
+        if (broken) {
+            _sessions.remove(getKey(url, user));
+        } else {
+            warm.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private void close(final WarmSession warm) {
+        _henplus.getObjectLister().forgetSession(warm.session);
+        warm.session.close();
+    }
+
+    private void closeIdleSessions() {
+        final long now = System.currentTimeMillis();
+        final Iterator<WarmSession> it = _sessions.values().iterator();
+        while (it.hasNext()) {
+            final WarmSession warm = it.next();
+            if (now - warm.lastUsed >= _idleTimeout) {
+                close(warm);
+                it.remove();
+            }
+        }
+    }
+
+    private void stop() {
+        _stopped = true;
+        if (_server != null) {
+            try {
+                _server.close();
+            } catch (final IOException e) {
+                /* ignore */
+            }
+        }
+        for (final WarmSession warm : _sessions.values()) {
+            close(warm);
+        }
+        _sessions.clear();
+        if (_tokenFile != null) {
+            _tokenFile.delete();
+            _tokenFile = null;
+        }
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        final StringTokenizer st = new StringTokenizer(param);
+        final String what = st.hasMoreTokens() ? st.nextToken() : "status";
+        if (st.hasMoreTokens()) {
+            return SYNTAX_ERROR;
+        }
+        if ("status".equals(what)) {
+            if (_server == null) {
+                HenPlus.msg().println(
+                        "not running as daemon; start with --daemon <port>");
+                return SUCCESS;
+            }
+            HenPlus.msg().println(
+                    "daemon serving on 127.0.0.1:" + _server.getLocalPort()
+                    + "; " + _clients + " clients served");
+            final long now = System.currentTimeMillis();
+            for (final WarmSession warm : _sessions.values()) {
+                HenPlus.msg().println(
+                        "  " + warm.session.getUsername() + " "
+                        + warm.session.getURL() + " (idle "
+                        + TimeRenderer.renderTime(now - warm.lastUsed)
+                        + ")");
+            }
+            return SUCCESS;
+        } else if ("stop".equals(what)) {
+            if (_server == null) {
+                HenPlus.msg().println("not running as daemon");
+                return EXEC_FAILED;
+            }
+            // the client running this is the last one.
+            _stopped = true;
+            HenPlus.msg().println("daemon stops.");
+            return SUCCESS;
+        }
+        return SYNTAX_ERROR;
+    }
+
+    @Override
+    public void registerOptions(final Options r) {
+        final Option daemon = new Option(null, "daemon", true,
+        "serve scripts sent with --client on this localhost port");
+        daemon.setArgName("port");
+        r.addOption(daemon);
+        final Option idle = new Option(null, "daemon-idle", true,
+                "close daemon sessions unused this long; default "
+                + DEFAULT_IDLE_TIMEOUT + "s");
+        idle.setArgName("seconds");
+        r.addOption(idle);
+        final Option client = new Option(null, "client", true,
+        "send the script from stdin to the daemon on this port");
+        client.setArgName("port");
+        r.addOption(client);
+    }
+
+    @Override
+    public void handleCommandline(final CommandLine line) {
+        if (line.hasOption("daemon")) {
+            final String port = line.getOptionValue("daemon");
+            try {
+                _port = Integer.parseInt(port);
+            } catch (final NumberFormatException e) {
+                HenPlus.msg().println("invalid daemon port '" + port + "'");
+            }
+        }
+        if (line.hasOption("daemon-idle")) {
+            final String idle = line.getOptionValue("daemon-idle");
+            try {
+                _idleTimeout = Integer.parseInt(idle) * 1000L;
+            } catch (final NumberFormatException e) {
+                HenPlus.msg().println("invalid idle timeout '" + idle + "'");
+            }
+        }
+    }
+
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        if (argumentCount(partialCommand) > ("".equals(lastWord) ? 1 : 2)) {
+            return null;
+        }
+        return new NameCompleter(new String[] { "status", "stop" })
+        .getAlternatives(lastWord);
+    }
+
+    @Override
+    public void shutdown() {
+        stop();
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "show the status of the daemon or stop it";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " [status | stop]";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tHenPlus started with --daemon <port> does not read\n"
+            + "\tcommands from stdin but serves scripts sent by\n"
+            + "\t\thenplus --client <port> -J <url> [-U user -P password]\n"
+            + "\t\t\t< script.sql\n"
+            + "\ton that port of 127.0.0.1; the output is sent back. The\n"
+            + "\tsessions are kept open for the next script with the same\n"
+            + "\turl and user, until they are unused for "
+            + DEFAULT_IDLE_TIMEOUT + " seconds\n"
+            + "\tor as given with --daemon-idle. Work a script does not\n"
+            + "\tcommit is rolled back; variables and session properties\n"
+            + "\tstay set. Scripts are run one after another.\n"
+            + "\tOnly clients that send the token the daemon writes to\n"
+            + "\t" + TOKEN_PREFIX + "<port>" + TOKEN_SUFFIX
+            + " in the config directory are served;\n"
+            + "\tthe client reads it from there, so it must find the\n"
+            + "\tsame config directory.\n"
+            + "\t'daemon status' shows the open sessions, 'daemon stop'\n"
+            + "\tsent by a client stops the daemon after its script.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -17,6 +17,8 @@ import henplus.view.TableRenderer;
 import henplus.view.util.SortedMatchIterator;
 
 import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -68,11 +70,14 @@ public final class DriverCommand extends AbstractCommand {
 
         private String _version; // known after loading.
         private boolean _loaded;
+        private boolean _tried;
 
+        /**
+         * the driver class is loaded when it is needed first.
+         */
         public DriverDescription(final String cn, final String surl) {
             _className = cn;
             _sampleURL = surl;
-            load();
         }
 
         public String getClassName() {
@@ -84,14 +89,23 @@ public final class DriverCommand extends AbstractCommand {
         }
 
         public String getVersion() {
+            load();
             return _version;
         }
 
         public boolean isLoaded() {
+            load();
             return _loaded;
         }
 
+        /**
+         * load the driver class, unless this has been tried already.
+         */
         public boolean load() {
+            if (_tried) {
+                return _loaded;
+            }
+            _tried = true;
             try {
                 if (VERBOSE) {
                     HenPlus.msg().print("loading .. '" + _className + "'");
@@ -155,6 +169,43 @@ public final class DriverCommand extends AbstractCommand {
         }
     }
 
+    /**
+     * load the drivers for the URL before connecting: the drivers whose
+     * sample URL has the same subprotocol; all drivers, if none of them
+     * accepts it.
+     */
+    public void loadDriverFor(final String url) {
+        final String protocol = getSubprotocol(url);
+        if (protocol != null) {
+            for (final DriverDescription desc : _drivers.values()) {
+                if (protocol.equals(getSubprotocol(desc.getSampleURL()))) {
+                    desc.load();
+                }
+            }
+            try {
+                DriverManager.getDriver(url);
+                return;
+            } catch (final SQLException e) {
+                /* no driver loaded accepts it */
+            }
+        }
+        for (final DriverDescription desc : _drivers.values()) {
+            desc.load();
+        }
+    }
+
+    /**
+     * the subprotocol of a JDBC URL, e.g. 'oracle' for
+     * 'jdbc:oracle:thin:..'; null, if it is no JDBC URL.
+     */
+    private static String getSubprotocol(final String url) {
+        if (url == null || !url.startsWith("jdbc:")) {
+            return null;
+        }
+        final int end = url.indexOf(':', "jdbc:".length());
+        return end > 0 ? url.substring("jdbc:".length(), end) : null;
+    }
+
     @Override
     public boolean requiresValidSession(final String cmd) {
         return false;
@@ -8,6 +8,7 @@ package henplus.commands;
 
 import henplus.AbstractCommand;
 import henplus.CommandDispatcher;
+import henplus.FetchSizeController;
 import henplus.HenPlus;
 import henplus.Interruptable;
 import henplus.SQLMetaData;
@@ -15,6 +16,11 @@ import henplus.SQLMetaDataBuilder;
 import henplus.SQLSession;
 import henplus.SigIntHandler;
 import henplus.Version;
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import henplus.io.ByteCounter;
+import henplus.io.CountingInputStream;
+import henplus.io.CountingOutputStream;
 import henplus.sqlmodel.Table;
 import henplus.util.DependencyResolver;
 import henplus.util.DependencyResolver.ResolverResult;
@@ -150,6 +156,9 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     private final ListUserObjectsCommand _tableCompleter;
     private final LoadCommand _fileOpener;
     private volatile boolean _running;
+    /** counts the bytes of the file currently read or written */
+    private ByteCounter _byteCounter;
+    private ProgressWriter _progress;
 
     public DumpCommand(final ListUserObjectsCommand tc, final LoadCommand lc) {
         _tableCompleter = tc;
@@ -505,6 +514,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             } catch (final IOException e) {
                 HenPlus.msg().println("closing file failed.");
             }
+            finishProgress();
             endInterruptableSection();
         }
     }
@@ -512,7 +522,10 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     private PrintStream openOutputStream(final String fileName, final String encoding)
     throws IOException {
         final File f = _fileOpener.openFile(fileName);
-        OutputStream outStream = new FileOutputStream(f);
+        final CountingOutputStream counter = new CountingOutputStream(
+                new FileOutputStream(f));
+        _byteCounter = counter;
+        OutputStream outStream = counter;
         if (fileName.endsWith(".gz")) {
             outStream = new GZIPOutputStream(outStream, 4096);
         }
@@ -522,7 +535,10 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
     private LineNumberReader openInputReader(final String fileName,
             final String fileEncoding) throws IOException {
         final File f = _fileOpener.openFile(fileName);
-        InputStream inStream = new FileInputStream(f);
+        final CountingInputStream counter = new CountingInputStream(
+                new FileInputStream(f));
+        _byteCounter = counter;
+        InputStream inStream = counter;
         if (fileName.endsWith(".gz")) {
             inStream = new GZIPInputStream(inStream);
         }
@@ -530,6 +546,48 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
         return new LineNumberReader(fileIn);
     }
 
+    /**
+     * start reporting the progress of the given operation; it can be
+     * observed via JMX until it is finished.
+     */
+    private ProgressWriter startProgress(final String operation,
+            final long expectedRows) {
+        finishProgress();
+        _progress = new ProgressWriter(operation, expectedRows, HenPlus.msg());
+        _progress.setByteCounter(_byteCounter);
+        return _progress;
+    }
+
+    /**
+     * traces the insertion of the rows up to the next commit point; only
+     * if the rows are actually inserted.
+     */
+    private static TraceSpan startBatch(final String tableName,
+            final boolean hot) {
+        if (!hot) {
+            return null;
+        }
+        final TraceSpan batch = Tracer.start(Tracer.IMPORT_BATCH);
+        batch.setTable(tableName);
+        return batch;
+    }
+
+    private static void finishBatch(final TraceSpan batch, final long rows,
+            final long bytes) {
+        if (batch != null) {
+            batch.setRows(rows);
+            batch.setBytes(bytes);
+            batch.finish();
+        }
+    }
+
+    private void finishProgress() {
+        if (_progress != null) {
+            _progress.finish();
+            _progress = null;
+        }
+    }
+
     // to make the field-name and field-type nicely aligned
     private void printWidth(final PrintStream out, final String s, final int width, final boolean comma) {
         if (comma) {
@@ -641,14 +699,20 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
         Statement stmt = null;
         try {
             long rows = 0;
-            final ProgressWriter progressWriter = new ProgressWriter(expectedRows,
-                    HenPlus.msg());
+            final ProgressWriter progressWriter = startProgress("dump-out "
+                    + dumpSource.getTableName(), expectedRows);
+            final TraceSpan span = Tracer.start(Tracer.DUMP_TABLE);
+            span.setTable(dumpSource.getTableName());
             rset = dumpSource.getResultSet();
             stmt = dumpSource.getStatement();
+            final FetchSizeController.Tuner tuner = session
+            .getFetchSizeController().createTuner(rset);
             boolean isFirst = true;
             while (_running && rset.next()) {
                 ++rows;
                 progressWriter.update(rows);
+                // strings dominate the row size; other types are small.
+                long rowBytes = 16 * metaProps.length;
                 if (!isFirst) {
                     dumpOut.print("\n\t");
                 }
@@ -709,6 +773,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                             dumpOut.print(NULL_STR);
                         } else {
                             quoteString(dumpOut, val);
+                            rowBytes += 2 * val.length();
                         }
                         break;
                     }
@@ -723,10 +788,15 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                         dumpOut.print(")");
                     }
                 }
+                tuner.rowRead(rowBytes);
             }
+            tuner.finish();
             progressWriter.finish();
             dumpOut.println(")");
             dumpOut.println("  (rows " + rows + "))\n");
+            span.setRows(rows);
+            span.setBytes(progressWriter.getBytes());
+            span.finish();
 
             HenPlus.msg().print("(" + rows + " rows)\n");
             final long execTime = System.currentTimeMillis() - startTime;
@@ -756,6 +826,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             // HenPlus.msg().println(selectStmt.toString());
             throw e; // handle later.
         } finally {
+            finishProgress();
             if (rset != null) {
                 try {
                     rset.close();
@@ -948,11 +1019,15 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                             "projection          : " + whereClause);
                 }
 
-                final ProgressWriter progressWriter = new ProgressWriter(
-                        estimatedRows, HenPlus.msg());
+                final ProgressWriter progressWriter = startProgress(
+                        (hot ? "dump-in " : "verify-dump ") + tableName,
+                        estimatedRows);
                 importedRows = 0;
                 problemRows = 0;
                 _running = true;
+                TraceSpan batch = startBatch(tableName, hot);
+                long batchStartRows = 0;
+                long batchStartBytes = progressWriter.getBytes();
                 while (_running) {
                     skipWhite(reader);
                     inCh = (char) reader.read();
@@ -1077,8 +1152,15 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                     if (hot && commitPoint >= 0
                             && importedRows % commitPoint == 0) {
                         conn.commit();
+                        finishBatch(batch, importedRows - batchStartRows,
+                                progressWriter.getBytes() - batchStartBytes);
+                        batch = startBatch(tableName, hot);
+                        batchStartRows = importedRows;
+                        batchStartBytes = progressWriter.getBytes();
                     }
                 }
+                finishBatch(batch, importedRows - batchStartRows,
+                        progressWriter.getBytes() - batchStartBytes);
                 progressWriter.finish();
             }
 
@@ -1354,7 +1436,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
             } else if (argc > 1) {
                 st.nextElement(); // discard filename.
                 final String table = (String) st.nextElement();
-                final Collection<String> columns = _tableCompleter.columnsFor(table);
+                final Collection<String> columns = _tableCompleter.getKnownColumns(table);
                 final NameCompleter compl = new NameCompleter(columns);
                 return compl.getAlternatives(lastWord);
             }
@@ -1577,11 +1659,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                 return _resultSet;
             }
             _workingStatement = _session.createStatement();
-            try {
-                _workingStatement.setFetchSize(1000);
-            } catch (final Exception e) {
-                // ignore
-            }
+            _session.getFetchSizeController().prepare(_workingStatement);
             _resultSet = _workingStatement.executeQuery(_sqlStat);
             return _resultSet;
         }
@@ -1676,11 +1754,7 @@ public class DumpCommand extends AbstractCommand implements Interruptable {
                 selectStmt.append(" WHERE ").append(_whereClause);
             }
             _workingStatement = _session.createStatement();
-            try {
-                _workingStatement.setFetchSize(1000);
-            } catch (final Exception e) {
-                // ignore
-            }
+            _session.getFetchSizeController().prepare(_workingStatement);
             return _workingStatement.executeQuery(selectStmt.toString());
         }
 
@@ -18,7 +18,11 @@ import henplus.CommandDispatcher;
 import henplus.SigIntHandler;
 import henplus.HenPlus;
 import henplus.AbstractCommand;
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import henplus.io.CountingInputStream;
 import henplus.view.util.NameCompleter;
+import henplus.view.util.ProgressWriter;
 import java.nio.charset.Charset;
 
 import java.io.File;
@@ -107,6 +111,8 @@ public class ImportCommand extends AbstractCommand {
         }
         final ImportConfiguration config = parser.getConfig();
 
+        final ProgressWriter progress = new ProgressWriter(cmd + " "
+                + config.getFilename(), -1, HenPlus.msg());
         try {
             final long startTime = System.currentTimeMillis();
             final long startRow = config.getStartRow();
@@ -116,18 +122,24 @@ public class ImportCommand extends AbstractCommand {
                 endRow = startRow > 0 ? startRow + rowCount : rowCount;
             }
             RowCountingRecipient innerRecipient = null;
+            SqlImportProcessor importProcessor = null;
             if ("import-print".equals(cmd)) {
                 innerRecipient = new PrintRecipient(config.getColumns());
             } else if ("import-check".equals(cmd)) {
                 innerRecipient = new CountRecipient();
             } else if ("import".equals(cmd)) {
-                innerRecipient = new SqlImportProcessor(session, config);
+                importProcessor = new SqlImportProcessor(session, config,
+                        progress);
+                innerRecipient = importProcessor;
             }
 
             final FilterRecipient filterRecipient = new FilterRecipient(startRow,
-                    endRow, innerRecipient);
+                    endRow, innerRecipient, progress);
             SigIntHandler.getInstance().pushInterruptable(filterRecipient);
-            importFile(config, filterRecipient);
+            importFile(config, filterRecipient, progress);
+            if (importProcessor != null) {
+                importProcessor.finishBatch();
+            }
             final long readRows = filterRecipient.getRowCount();
             final long processedRows = innerRecipient.getRowCount();
 
@@ -144,16 +156,22 @@ public class ImportCommand extends AbstractCommand {
         } catch (final Exception e) {
             e.printStackTrace();
             return EXEC_FAILED;
+        } finally {
+            progress.finish();
         }
         return SUCCESS;
     }
 
-    private void importFile(final ImportConfiguration config, final ValueRecipient recipient)
+    private void importFile(final ImportConfiguration config,
+            final ValueRecipient recipient, final ProgressWriter progress)
     throws Exception {
         final File file = new File(config.getFilename());
         final String encoding = config.getEncoding() != null ? config
                 .getEncoding() : "ISO-8859-1";
-        InputStream fileIn = new FileInputStream(file);
+        final CountingInputStream counter = new CountingInputStream(
+                new FileInputStream(file));
+        progress.setByteCounter(counter);
+        InputStream fileIn = counter;
         if (config.getFilename().endsWith(".gz")) {
             fileIn = new GZIPInputStream(fileIn);
         }
@@ -190,14 +208,17 @@ public class ImportCommand extends AbstractCommand {
         private final long _startRow;
         private final long _endRow;
         private final ValueRecipient _target;
+        private final ProgressWriter _progress;
         private long _rows;
         private volatile boolean _finished;
 
-        public FilterRecipient(final long startRow, final long endRow, final ValueRecipient target) {
+        public FilterRecipient(final long startRow, final long endRow,
+                final ValueRecipient target, final ProgressWriter progress) {
             _rows = 0;
             _startRow = startRow;
             _endRow = endRow;
             _target = target;
+            _progress = progress;
         }
 
         private boolean expressionMatches() {
@@ -250,6 +271,7 @@ public class ImportCommand extends AbstractCommand {
                 deligeeFinish = _target.finishRow();
             }
             _rows++;
+            _progress.update(_rows);
             return deligeeFinish || _finished
             || _endRow >= 0 && _rows >= _endRow;
         }
@@ -371,12 +393,22 @@ public class ImportCommand extends AbstractCommand {
 
     private static final class SqlImportProcessor implements
     RowCountingRecipient {
+        /** rows inserted in one traced batch */
+        private static final int BATCH_ROWS = 1000;
+
         private long _rows;
         private final PreparedStatement _stmt;
+        private final String _table;
+        private final ProgressWriter _progress;
+        private TraceSpan _batch;
+        private long _batchStartBytes;
 
-        public SqlImportProcessor(final SQLSession session, final ImportConfiguration config)
+        public SqlImportProcessor(final SQLSession session, final ImportConfiguration config,
+                final ProgressWriter progress)
         throws Exception {
             _rows = 0;
+            _table = config.getTable();
+            _progress = progress;
             final StringBuilder cmd = new StringBuilder("insert into ");
             cmd.append(config.getTable()).append(" (");
             boolean isFirst = true;
@@ -423,10 +455,28 @@ public class ImportCommand extends AbstractCommand {
         }
 
         public boolean finishRow() throws Exception {
+            if (_batch == null) {
+                _batch = Tracer.start(Tracer.IMPORT_BATCH);
+                _batch.setTable(_table);
+                _batchStartBytes = _progress.getBytes();
+            }
             _rows++;
             _stmt.execute();
+            if (_rows % BATCH_ROWS == 0) {
+                finishBatch();
+            }
             return false;
         }
+
+        void finishBatch() {
+            if (_batch != null) {
+                final long rows = _rows % BATCH_ROWS;
+                _batch.setRows(rows == 0 ? BATCH_ROWS : rows);
+                _batch.setBytes(_progress.getBytes() - _batchStartBytes);
+                _batch.finish();
+                _batch = null;
+            }
+        }
     }
 
     /**
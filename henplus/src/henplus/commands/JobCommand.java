@@ -0,0 +1,292 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.Interruptable;
+import henplus.SQLSession;
+import henplus.SigIntHandler;
+import henplus.view.Column;
+import henplus.view.ColumnMetaData;
+import henplus.view.TableRenderer;
+import henplus.view.util.SortedMatchIterator;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Manages statements running in the background: statements ending with '&'
+ * are handed to {@link #submit(SQLSession, String, int)} and run on a
+ * connection of their own, while the shell can be used for other work.
+ */
+public final class JobCommand extends AbstractCommand implements Interruptable {
+    private static final ColumnMetaData[] JOB_META;
+
+    static {
+        JOB_META = new ColumnMetaData[5];
+        JOB_META[0] = new ColumnMetaData("id", ColumnMetaData.ALIGN_RIGHT);
+        JOB_META[1] = new ColumnMetaData("state");
+        JOB_META[2] = new ColumnMetaData("time", ColumnMetaData.ALIGN_RIGHT);
+        JOB_META[3] = new ColumnMetaData("rows", ColumnMetaData.ALIGN_RIGHT);
+        JOB_META[4] = new ColumnMetaData("statement");
+    }
+
+    private final SQLCommand _sqlCommand;
+    private final SortedMap<Integer, BackgroundJob> _jobs;
+    private ExecutorService _executor;
+    private int _nextId;
+    private volatile boolean _interrupted;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "jobs", "job-wait", "job-cancel", "job-fetch" };
+    }
+
+    public JobCommand(final SQLCommand sqlCommand) {
+        _sqlCommand = sqlCommand;
+        _jobs = new TreeMap<Integer, BackgroundJob>();
+        _nextId = 1;
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * run the given statement in the background.
+     *
+     * @return the id of the new job.
+     */
+    public synchronized int submit(final SQLSession session, final String sql,
+            final int rowLimit) {
+        if (_executor == null) {
+            // threads only exist, if background jobs are used at all.
+            _executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "henplus-job");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        final BackgroundJob job = new BackgroundJob(_nextId++, session, sql,
+                rowLimit);
+        _jobs.put(Integer.valueOf(job.getId()), job);
+        _executor.execute(job);
+        return job.getId();
+    }
+
+    // Interruptable interface.
+    public void interrupt() {
+        _interrupted = true;
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd, final String param) {
+        final String arg = param.trim();
+        if ("jobs".equals(cmd)) {
+            if (arg.length() > 0) {
+                return SYNTAX_ERROR;
+            }
+            listJobs();
+            return SUCCESS;
+        }
+        final BackgroundJob job = findJob(arg);
+        if (job == null) {
+            return arg.length() == 0 ? SYNTAX_ERROR : EXEC_FAILED;
+        }
+        if ("job-cancel".equals(cmd)) {
+            job.cancel();
+            HenPlus.msg().println("[" + job.getId() + "] cancel requested");
+            return SUCCESS;
+        }
+        if (!waitFor(job)) {
+            HenPlus.msg().println(
+                    "[" + job.getId() + "] still " + job.getStateName());
+            return SUCCESS;
+        }
+        if ("job-wait".equals(cmd)) {
+            HenPlus.msg().print("[" + job.getId() + "] " + job.getStateName());
+            printRunningTime(job);
+            return SUCCESS;
+        }
+        // job-fetch: show the result and forget the job.
+        try {
+            job.printResult(HenPlus.out(), HenPlus.msg(), _sqlCommand
+                    .getColumnDelimiter(), _sqlCommand.isShowHeader(),
+                    _sqlCommand.isShowFooter());
+        } catch (final Exception e) {
+            HenPlus.msg().println("reading result failed: " + e.getMessage());
+            return EXEC_FAILED;
+        } finally {
+            removeJob(job);
+        }
+        return SUCCESS;
+    }
+
+    private synchronized BackgroundJob findJob(final String arg) {
+        if (arg.length() == 0) {
+            return null;
+        }
+        BackgroundJob job = null;
+        try {
+            job = _jobs.get(Integer.valueOf(arg));
+        } catch (final NumberFormatException e) {
+            /* handled below */
+        }
+        if (job == null) {
+            HenPlus.msg().println("no job '" + arg + "'");
+        }
+        return job;
+    }
+
+    private synchronized void removeJob(final BackgroundJob job) {
+        _jobs.remove(Integer.valueOf(job.getId()));
+        job.close();
+    }
+
+    /**
+     * wait for the job until it is finished or the user interrupts.
+     */
+    private boolean waitFor(final BackgroundJob job) {
+        _interrupted = false;
+        SigIntHandler.getInstance().pushInterruptable(this);
+        try {
+            while (!_interrupted) {
+                if (job.waitFor(200)) {
+                    return true;
+                }
+            }
+        } catch (final InterruptedException e) {
+            /* return below */
+        } finally {
+            SigIntHandler.getInstance().popInterruptable();
+        }
+        return job.isFinished();
+    }
+
+    private void printRunningTime(final BackgroundJob job) {
+        final long time = job.getRunningTime();
+        if (time >= 0) {
+            HenPlus.msg().print(" (");
+            TimeRenderer.printTime(time, HenPlus.msg());
+            HenPlus.msg().print(")");
+        }
+        HenPlus.msg().println();
+        if (job.getState() == BackgroundJob.FAILED) {
+            HenPlus.msg().println("FAILURE: " + job.getError());
+        }
+    }
+
+    private synchronized void listJobs() {
+        if (_jobs.isEmpty()) {
+            HenPlus.msg().println("no jobs.");
+            return;
+        }
+        for (int i = 0; i < JOB_META.length; ++i) {
+            JOB_META[i].resetWidth();
+        }
+        final TableRenderer table = new TableRenderer(JOB_META, HenPlus.out());
+        for (final Map.Entry<Integer, BackgroundJob> entry : _jobs.entrySet()) {
+            final BackgroundJob job = entry.getValue();
+            final Column[] row = new Column[5];
+            row[0] = new Column(job.getId());
+            row[1] = new Column(job.getStateName());
+            final long time = job.getRunningTime();
+            row[2] = new Column(time >= 0 ? TimeRenderer.renderTime(time) : "");
+            row[3] = new Column(job.getRowCount());
+            final String sql = job.getSQL().replace('\n', ' ');
+            row[4] = new Column(sql.length() > 60 ? sql.substring(0, 57)
+                    + "..." : sql);
+            table.addRow(row);
+        }
+        table.closeTable();
+    }
+
+    /**
+     * complete the ids of the current jobs.
+     */
+    @Override
+    public synchronized Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        if (partialCommand.startsWith("jobs")) {
+            return null;
+        }
+        final SortedMap<String, BackgroundJob> ids = new TreeMap<String, BackgroundJob>();
+        for (final Integer id : _jobs.keySet()) {
+            ids.put(id.toString(), _jobs.get(id));
+        }
+        return new SortedMatchIterator(lastWord, ids);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        for (final BackgroundJob job : _jobs.values()) {
+            job.cancel();
+            job.close();
+        }
+        _jobs.clear();
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "manage statements running in the background";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        if ("jobs".equals(cmd)) {
+            return cmd;
+        }
+        return cmd + " <job-id>";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc = null;
+        if ("jobs".equals(cmd)) {
+            dsc = "\tList the statements started in the background. A SQL\n"
+                + "\tstatement is started in the background, if it ends\n"
+                + "\twith '&', e.g.\n"
+                + "\t  select * from huge_table &;\n"
+                + "\tBackground statements run on a connection of their\n"
+                + "\town in auto-commit mode. Up to 'sql-result-limit' rows\n"
+                + "\tof the result are kept until fetched with 'job-fetch'.\n"
+                + "\tThe job commands are prefixed, so that 'fetch', 'wait'\n"
+                + "\tand 'cancel' remain SQL.";
+        } else if ("job-wait".equals(cmd)) {
+            dsc = "\tWait for the background job to finish. Can be\n"
+                + "\tinterrupted with CTRL-C; the job keeps running then.";
+        } else if ("job-cancel".equals(cmd)) {
+            dsc = "\tCancel the statement running in the background.";
+        } else if ("job-fetch".equals(cmd)) {
+            dsc = "\tWait for the background job to finish and show its\n"
+                + "\tresult. Afterwards, the job is removed.";
+        }
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
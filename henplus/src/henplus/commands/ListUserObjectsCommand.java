@@ -17,36 +17,36 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * FIXME: use SQLMetaData stuff instead.
  */
 public class ListUserObjectsCommand extends AbstractCommand implements
 Interruptable {
-    private static final String[] LIST_TABLES_VIEWS = { "TABLE", "VIEW" };
     private static final String[] LIST_TABLES = { "TABLE" };
     private static final String[] LIST_VIEWS = { "VIEW" };
     private static final int[] TABLE_DISP_COLS = { 2, 3, 4, 5 };
     private static final int[] PROC_DISP_COLS = { 2, 3, 8 };
 
+    /** how often to look, if the column names are there */
+    private static final int COLUMN_WAIT_INTERVAL = 100;
+
     /**
-     * all tables in one session.
+     * the table and column names of each session.
      */
-    private final Map<SQLSession, NameCompleter> _sessionTables;
-    private final Map<SQLSession, NameCompleter> _sessionColumns;
+    private final Map<SQLSession, SchemaCache> _sessionCaches;
     private final HenPlus _henplus;
 
-    private boolean _interrupted;
+    private volatile boolean _interrupted;
 
     public ListUserObjectsCommand(final HenPlus hp) {
-        _sessionTables = new HashMap<SQLSession,NameCompleter>();
-        _sessionColumns = new HashMap<SQLSession,NameCompleter>();
+        _sessionCaches = new HashMap<SQLSession, SchemaCache>();
         _henplus = hp;
         _interrupted = false;
     }
@@ -114,83 +114,146 @@ Interruptable {
         return SUCCESS;
     }
 
+    /**
+     * the names of the session; created empty, they are filled in the
+     * background.
+     */
+    private synchronized SchemaCache getCache(final SQLSession session) {
+        SchemaCache cache = _sessionCaches.get(session);
+        if (cache == null) {
+            cache = new SchemaCache(_henplus, session);
+            _sessionCaches.put(session, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * start reading the table and column names of a new session in the
+     * background, so that they are there when they are completed first.
+     * Without a terminal, nothing is completed.
+     */
+    public void startIndexing(final SQLSession session) {
+        if (_henplus.isFromTerminal()) {
+            getCache(session).refresh();
+        }
+    }
+
+    /**
+     * the table names for the completion: those known right now. If there
+     * are none or the session changed the schema, they are read in the
+     * background for the next time; the completion never waits for the
+     * database.
+     */
     private NameCompleter getTableCompleter(final SQLSession session) {
-        final NameCompleter compl = _sessionTables.get(session);
-        return compl == null ? rehash(session) : compl;
+        final SchemaCache cache = getCache(session);
+        if (!cache.isUsable()) {
+            cache.refresh();
+        }
+        return cache.getTableCompleter();
+    }
+
+    /**
+     * the table names for commands working on them; always read in this
+     * session.
+     */
+    private NameCompleter getFreshTableCompleter(final SQLSession session) {
+        final SchemaCache cache = getCache(session);
+        if (!cache.isFresh()) {
+            readTables(cache);
+        }
+        return cache.getTableCompleter();
     }
 
+    /**
+     * the column names known right now; like the table names, the missing
+     * ones are read in the background.
+     */
     private NameCompleter getAllColumnsCompleter(final SQLSession session) {
-        NameCompleter compl = _sessionColumns.get(session);
-        if (compl != null) {
-            return compl;
+        final SchemaCache cache = getCache(session);
+        if (!cache.isUsable() || !cache.isColumnsComplete()) {
+            cache.refresh();
         }
-        /*
-         * This may be a lengthy process..
-         */
-        _interrupted = false;
-        SigIntHandler.getInstance().pushInterruptable(this);
-        final NameCompleter tables = getTableCompleter(session);
-        if (tables == null) {
-            return null;
+        return cache.getColumnCompleter();
+    }
+
+    /**
+     * the session changed the schema: read the table names again when they
+     * are needed next.
+     */
+    public void unhash(final SQLSession session) {
+        final SchemaCache cache;
+        synchronized (this) {
+            cache = _sessionCaches.get(session);
         }
-        final Iterator table = tables.getAllNamesIterator();
-        compl = new NameCompleter();
-        while (!_interrupted && table.hasNext()) {
-            final String tabName = (String) table.next();
-            final Collection<String> columns = columnsFor(tabName);
-            final Iterator<String> cit = columns.iterator();
-            while (cit.hasNext()) {
-                final String col = cit.next();
-                compl.addName(col);
-            }
+        if (cache != null) {
+            cache.invalidate();
         }
-        if (_interrupted) {
-            compl = null;
-        } else {
-            _sessionColumns.put(session, compl);
+    }
+
+    /**
+     * the session committed or rolled back: read the names again, if it
+     * changed the schema before.
+     */
+    public void transactionEnded(final SQLSession session) {
+        final SchemaCache cache;
+        synchronized (this) {
+            cache = _sessionCaches.get(session);
+        }
+        if (cache != null) {
+            cache.transactionEnded();
         }
-        SigIntHandler.getInstance().popInterruptable();
-        return compl;
     }
 
-    public void unhash(final SQLSession session) {
-        _sessionTables.remove(session);
+    /**
+     * the session is closed: forget its names.
+     */
+    public synchronized void forgetSession(final SQLSession session) {
+        _sessionCaches.remove(session);
     }
 
     /**
-     * rehash table names.
+     * rehash table names right away; then wait until the columns are read in
+     * the background, which can be interrupted.
      */
-    private NameCompleter rehash(final SQLSession session) {
-        final NameCompleter result = new NameCompleter();
-        final Connection conn = session.getConnection(); // use createStmt
-        ResultSet rset = null;
+    private void rehash(final SQLSession session) {
+        final SchemaCache cache = getCache(session);
+        readTables(cache);
+        _interrupted = false;
+        SigIntHandler.getInstance().pushInterruptable(this);
         try {
-            final DatabaseMetaData meta = conn.getMetaData();
-            rset = meta.getTables(null, null, null, LIST_TABLES_VIEWS);
-            while (rset.next()) {
-                result.addName(rset.getString(3));
+            while (!_interrupted && !cache.awaitRefresh(COLUMN_WAIT_INTERVAL)) {
+                /* wait */
             }
+        } finally {
+            SigIntHandler.getInstance().popInterruptable();
+        }
+    }
+
+    /**
+     * read the table names with the connection of the session; the columns
+     * are read in the background.
+     */
+    private void readTables(final SchemaCache cache) {
+        try {
+            cache.readTables();
         } catch (final Exception e) {
             // ignore.
-        } finally {
-            if (rset != null) {
-                try {
-                    rset.close();
-                } catch (final Exception e) {
-                }
-            }
         }
-        _sessionTables.put(session, result);
-        _sessionColumns.remove(session);
-        return result;
+        cache.refresh();
     }
 
     /**
-     * fixme: add this to the cached values determined by rehash.
+     * the columns of the table; from the names kept if they are known.
      */
     public Collection<String> columnsFor(String tabName) {
         final SQLSession session = _henplus.getCurrentSession();
-        final Set<String> result = new HashSet<String>();
+        final SchemaCache cache = getCache(session);
+        final Collection<String> known = cache.getColumns(tabName);
+        if (known != null) {
+            return known;
+        }
+        final String cacheName = tabName;
+        final SortedSet<String> result = new TreeSet<String>();
         final Connection conn = session.getConnection(); // use createStmt
         ResultSet rset = null;
 
@@ -206,6 +269,7 @@ Interruptable {
             while (rset.next()) {
                 result.add(rset.getString(4));
             }
+            cache.putColumns(cacheName, result);
         } catch (final Exception e) {
             // ignore.
         } finally {
@@ -219,6 +283,24 @@ Interruptable {
         return result;
     }
 
+    /**
+     * the columns of the table, if they are known right now; for the
+     * completion, which does not wait for the database.
+     *
+     * @return an empty collection, if they are not known (yet).
+     */
+    public Collection<String> getKnownColumns(final String tabName) {
+        final SchemaCache cache = getCache(_henplus.getCurrentSession());
+        final Collection<String> known = cache.getColumns(tabName);
+        if (known != null) {
+            return known;
+        }
+        if (!cache.isUsable() || !cache.isColumnsComplete()) {
+            cache.refresh();
+        }
+        return Collections.emptySet();
+    }
+
     /**
      * see, if we find exactly one alternative, that is spelled correctly. If we
      * have more than one alternative but one, that has the same length of the
@@ -268,11 +350,11 @@ Interruptable {
     }
 
     public Iterator<String> getTableNamesIteratorForSession(final SQLSession session) {
-        return getTableCompleter(session).getAllNamesIterator();
+        return getFreshTableCompleter(session).getAllNamesIterator();
     }
 
     public SortedSet<String> getTableNamesForSession(final SQLSession session) {
-        return getTableCompleter(session).getAllNames();
+        return getFreshTableCompleter(session).getAllNames();
     }
 
     /**
@@ -292,7 +374,12 @@ Interruptable {
     public String getLongDescription(final String cmd) {
         String dsc;
         if (cmd.equals("rehash")) {
-            dsc = "\trebuild the internal hash for tablename completion.";
+            dsc = "\trebuild the internal hash for tablename completion.\n"
+                + "\tThe table and column names are kept in the configuration\n"
+                + "\tdirectory for each url and user, so that they can be\n"
+                + "\tcompleted right after connecting; they are refreshed in\n"
+                + "\tthe background then and after statements that change\n"
+                + "\tthe schema. 'rehash' reads them again right away.";
         } else {
             dsc = "\tLists all " + cmd + " available in this schema.";
         }
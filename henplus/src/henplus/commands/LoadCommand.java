@@ -10,25 +10,44 @@ import henplus.HenPlus;
 import henplus.Interruptable;
 import henplus.SQLSession;
 import henplus.AbstractCommand;
+import henplus.Command;
 import henplus.CommandDispatcher;
+import henplus.SQLStatementSeparator;
+import henplus.SessionManager;
 import henplus.SigIntHandler;
+import henplus.io.ByteCounter;
+import henplus.io.ScriptReader;
+import henplus.property.BooleanPropertyHolder;
+import henplus.property.PropertyHolder;
+import henplus.util.StatementUtil;
+import henplus.util.ThreadUtil;
+import henplus.view.util.ProgressWriter;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Stack;
 import java.util.HashSet;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * The Load command loads scripts; it implemnts the commands 'load', 'start',
  * '@' and '@@'.
  */
 public class LoadCommand extends AbstractCommand implements Interruptable {
+    /** smaller files are loaded quickly; they show no progress */
+    private static final long MIN_PROGRESS_SIZE = 1024 * 1024;
+    /** leave room for the ETA on the line of the progress */
+    private static final int PROGRESS_WIDTH = 20;
+
     /**
      * to determine recursively loaded files, we remember all open files.
      */
@@ -42,6 +61,23 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
 
     private volatile boolean _running;
 
+    /** the workers of a parallel load, to cancel their statements */
+    private volatile List<ScriptWorker> _workers;
+
+    /** the file currently read and the number of its last line read */
+    private volatile File _currentFile;
+    private volatile int _currentLine;
+
+    /**
+     * the progress of the outermost file loaded and the statements executed
+     * since it has been started, including those of nested files.
+     */
+    private ProgressWriter _progress;
+    private long _statementCount;
+
+    private boolean _useScriptCache;
+    private ScriptCache _scriptCache;
+
     /**
      * returns the command-strings this command can handle.
      */
@@ -86,6 +122,20 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
         return f;
     }
 
+    /**
+     * the file currently loaded; null, if no file is loaded.
+     */
+    public File getCurrentFile() {
+        return _currentFile;
+    }
+
+    /**
+     * the number of the line of the current file that is being executed.
+     */
+    public int getCurrentLine() {
+        return _currentLine;
+    }
+
     /**
      * execute the command given.
      */
@@ -95,12 +145,34 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
         if (argc < 1) {
             return SYNTAX_ERROR;
         }
+        if ("-j".equals(new StringTokenizer(param).nextToken())) {
+            st.nextToken();
+            if (!st.hasMoreTokens()) {
+                return SYNTAX_ERROR;
+            }
+            int jobs;
+            try {
+                jobs = Integer.parseInt(st.nextToken());
+            } catch (final NumberFormatException e) {
+                return SYNTAX_ERROR;
+            }
+            final List<String> filenames = new ArrayList<String>();
+            while (st.hasMoreTokens()) {
+                filenames.add(st.nextToken());
+            }
+            if (jobs < 1 || filenames.isEmpty()) {
+                return SYNTAX_ERROR;
+            }
+            return loadParallel(session, filenames, jobs);
+        }
         final HenPlus henplus = HenPlus.getInstance();
         while (st.hasMoreElements()) {
             int commandCount = 0;
             final String filename = (String) st.nextElement();
             final long startTime = System.currentTimeMillis();
             File currentFile = null;
+            final File outerFile = _currentFile;
+            final int outerLine = _currentLine;
             try {
                 henplus.pushBuffer();
                 henplus.getDispatcher().startBatch();
@@ -115,17 +187,27 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
                 currentFile = f;
                 _openFiles.add(currentFile);
                 _cwdStack.push(currentFile.getParentFile());
-                final String encoding = System.getProperty("file.encoding");//"UTF-8";
-                final FileInputStream is = new FileInputStream(currentFile);
-                final BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(is, encoding));
                 _running = true;
                 SigIntHandler.getInstance().pushInterruptable(this);
-                String line;
-                while (_running && (line = reader.readLine()) != null) {
-                    final byte execResult = henplus.executeLine(line);
-                    if (execResult == HenPlus.LINE_EXECUTED) {
-                        ++commandCount;
+                _currentFile = currentFile;
+                _currentLine = 0;
+                final boolean outermost = _progress == null;
+                final String outerStatus = outermost ? null : _progress
+                        .getStatus();
+                final CompiledScript compiled = getCompiledScript(currentFile);
+                try {
+                    if (compiled != null) {
+                        commandCount = runCompiled(henplus, currentFile,
+                                compiled, outermost);
+                    } else {
+                        commandCount = runScript(henplus, currentFile,
+                                outermost);
+                    }
+                } finally {
+                    if (outermost) {
+                        finishProgress();
+                    } else {
+                        _progress.setStatus(outerStatus);
                     }
                 }
             } catch (final Exception e) {
@@ -138,6 +220,8 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
                 return EXEC_FAILED;
             } finally {
                 henplus.popBuffer(); // no open state ..
+                _currentFile = outerFile;
+                _currentLine = outerLine;
                 if (!_running) {
                     HenPlus.msg().println("cancel file loading " + currentFile);
                 }
@@ -150,26 +234,524 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
 
             }
             final long execTime = System.currentTimeMillis() - startTime;
-            HenPlus.msg().print(commandCount + " commands in ");
-            TimeRenderer.printTime(execTime, HenPlus.msg());
-            if (commandCount != 0) {
-                HenPlus.msg().print("; avg. time ");
-                TimeRenderer.printFraction(execTime, commandCount, HenPlus
-                        .msg());
+            printSummary(commandCount, -1, execTime, filename);
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * read the file line by line and let HenPlus separate and execute the
+     * statements.
+     *
+     * @return the number of lines that completed a command.
+     */
+    private int runScript(final HenPlus henplus, final File file,
+            final boolean outermost) throws IOException {
+        final String encoding = System.getProperty("file.encoding");//"UTF-8";
+        final ScriptReader reader = new ScriptReader(file, encoding);
+        int commandCount = 0;
+        if (outermost) {
+            startProgress(file, reader, reader.getFileSize());
+        }
+        try {
+            while (_running && reader.nextLine()) {
+                ++_currentLine;
+                final byte execResult = henplus.executeLine(reader
+                        .getBuffer(), reader.getLineStart(), reader
+                        .getLineLength());
+                if (execResult == HenPlus.LINE_EXECUTED) {
+                    ++commandCount;
+                    ++_statementCount;
+                }
+                updateProgress(reader, reader.getFileSize(), outermost);
             }
-            if (execTime != 0 && commandCount > 0) {
-                HenPlus.msg()
-                .print(
-                        "; " + 1000 * commandCount / execTime
-                        + " per second");
+        } finally {
+            reader.close();
+        }
+        return commandCount;
+    }
+
+    /**
+     * execute the statements of a compiled script; only the statements
+     * containing variables are substituted.
+     *
+     * @return the number of statements executed.
+     */
+    private int runCompiled(final HenPlus henplus, final File file,
+            final CompiledScript script, final boolean outermost) {
+        final CommandDispatcher dispatcher = henplus.getDispatcher();
+        int commandCount = 0;
+        if (outermost) {
+            startProgress(file, script, script.getFileSize());
+        }
+        while (_running && script.nextStatement()) {
+            _currentLine = script.getLine();
+            String command = script.getStatement();
+            if (script.hasVariables()) {
+                final Command c = dispatcher.getCommandFrom(command);
+                if (!(c instanceof SQLCommand && ((SQLCommand) c)
+                        .isBindVariables())) {
+                    // in bind mode, the SQLCommand binds the variables itself.
+                    command = henplus.varsubst(command, henplus
+                            .getVariableMap());
+                }
             }
-            HenPlus.msg().println(" (" + filename + ")");
+            dispatcher.execute(SessionManager.getInstance()
+                    .getCurrentSession(), command, script.getCommandName());
+            ++commandCount;
+            ++_statementCount;
+            updateProgress(script, script.getFileSize(), outermost);
         }
-        return SUCCESS;
+        return commandCount;
+    }
+
+    /**
+     * the compiled script of the file from the script cache, if it is used
+     * and the file is small enough to be kept in memory.
+     *
+     * @return null, if the file is to be read line by line.
+     */
+    private CompiledScript getCompiledScript(final File file) {
+        if (!_useScriptCache || !file.canRead()
+                || file.length() > ScriptCache.MAX_SCRIPT_SIZE) {
+            return null;
+        }
+        final HenPlus henplus = HenPlus.getInstance();
+        if (_scriptCache == null) {
+            _scriptCache = new ScriptCache(henplus.getDispatcher());
+        }
+        try {
+            return _scriptCache.get(file, henplus.isRemoveComments());
+        } catch (final IOException e) {
+            HenPlus.msg().println("script cache not used: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * show the progress of the outermost file by the bytes read of it, the
+     * compressed bytes for '.gz' files.
+     */
+    private void startProgress(final File file, final ByteCounter counter,
+            final long size) {
+        _progress = new ProgressWriter("load " + file.getName(),
+                size >= MIN_PROGRESS_SIZE ? size : -1, HenPlus.msg());
+        _progress.setScreenWidth(PROGRESS_WIDTH);
+        _progress.setByteCounter(counter);
+        _progress.setItemName("stmts");
+        _statementCount = 0;
+    }
+
+    /**
+     * a nested file does not move the progress of the outermost file, but
+     * is shown next to it; its statements count for the outermost file.
+     */
+    private void updateProgress(final ByteCounter counter, final long size,
+            final boolean outermost) {
+        if (outermost) {
+            _progress.update(counter.getByteCount(), _statementCount);
+            return;
+        }
+        _progress.setStatus(_currentFile.getName()
+                + (size > 0 ? " " + 100 * counter.getByteCount() / size + "%"
+                        : ""));
+        _progress.update(_progress.getValue(), _statementCount);
+    }
+
+    private void finishProgress() {
+        _progress.finish();
+        if (_progress.hasProgressOutput()) {
+            HenPlus.msg().println();
+        }
+        _progress = null;
+    }
+
+    /**
+     * print the number of commands, and the errors if known, executed in the
+     * given time.
+     */
+    private void printSummary(final long commandCount, final long errors,
+            final long execTime, final String what) {
+        HenPlus.msg().print(commandCount + " commands");
+        if (errors >= 0) {
+            HenPlus.msg().print(", " + errors + " errors");
+        }
+        HenPlus.msg().print(" in ");
+        TimeRenderer.printTime(execTime, HenPlus.msg());
+        if (commandCount != 0) {
+            HenPlus.msg().print("; avg. time ");
+            TimeRenderer.printFraction(execTime, commandCount, HenPlus.msg());
+        }
+        if (execTime != 0 && commandCount > 0) {
+            HenPlus.msg().print(
+                    "; " + 1000 * commandCount / execTime + " per second");
+        }
+        HenPlus.msg().println(" (" + what + ")");
+    }
+
+    /**
+     * run the files at the same time, each in its own transaction on a
+     * connection of its own; at most 'jobs' files at once.
+     */
+    private int loadParallel(final SQLSession session,
+            final List<String> filenames, final int jobs) {
+        if (session == null) {
+            HenPlus.msg().println("parallel loading requires a connection.");
+            return EXEC_FAILED;
+        }
+        final List<ScriptJob> scripts = new ArrayList<ScriptJob>();
+        for (final String filename : filenames) {
+            scripts.add(new ScriptJob(filename, openFile(filename)));
+        }
+        final List<ScriptWorker> workers = new ArrayList<ScriptWorker>();
+        for (int i = 0; i < Math.min(jobs, scripts.size()); ++i) {
+            workers.add(new ScriptWorker(session, scripts));
+        }
+        final long startTime = System.currentTimeMillis();
+        _running = true;
+        _workers = workers;
+        SigIntHandler.getInstance().pushInterruptable(this);
+        try {
+            final List<Thread> threads = new ArrayList<Thread>();
+            for (final ScriptWorker worker : workers) {
+                final Thread thread = ThreadUtil.newThread("henplus-load",
+                        worker);
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    _running = false;
+                }
+            }
+        } finally {
+            _workers = null;
+            SigIntHandler.getInstance().popInterruptable();
+        }
+        final long execTime = System.currentTimeMillis() - startTime;
+        if (!_running) {
+            HenPlus.msg().println("cancelled; open transactions rolled back.");
+        }
+        long commands = 0;
+        long errors = 0;
+        boolean failed = false;
+        for (final ScriptJob script : scripts) {
+            if (script.getExecTime() < 0) {
+                failed = true;
+                continue;
+            }
+            printSummary(script.getCommandCount(), script.getErrorCount(),
+                    script.getExecTime(), script.getName());
+            commands += script.getCommandCount();
+            errors += script.getErrorCount();
+        }
+        printSummary(commands, errors, execTime, "total of " + scripts.size()
+                + " files with " + workers.size() + " connections");
+        return failed ? EXEC_FAILED : SUCCESS;
     }
 
     public void interrupt() {
         _running = false;
+        final List<ScriptWorker> workers = _workers;
+        if (workers != null) {
+            for (final ScriptWorker worker : workers) {
+                worker.cancel();
+            }
+        }
+    }
+
+    /**
+     * a file of a parallel load; its output is collected and printed a block
+     * of lines at once, each line prefixed with the name of the file.
+     */
+    private static final class ScriptJob {
+        /** collected output is printed when it gets larger than this */
+        private static final int OUTPUT_BLOCK = 4096;
+        /** workers print one after another */
+        private static final Object OUTPUT_LOCK = new Object();
+
+        private final String _name;
+        private final File _file;
+        private final StringBuilder _output;
+        private boolean _taken;
+        private long _commandCount;
+        private long _errorCount;
+        private long _execTime;
+
+        ScriptJob(final String name, final File file) {
+            _name = name;
+            _file = file;
+            _output = new StringBuilder();
+            _execTime = -1;
+        }
+
+        String getName() {
+            return _name;
+        }
+
+        File getFile() {
+            return _file;
+        }
+
+        /**
+         * mark the file as being run.
+         *
+         * @return false, if it has been taken by another worker.
+         */
+        boolean take() {
+            if (_taken) {
+                return false;
+            }
+            _taken = true;
+            return true;
+        }
+
+        void println(final String line) {
+            _output.append(_name).append(": ").append(line).append('\n');
+            if (_output.length() > OUTPUT_BLOCK) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (_output.length() == 0) {
+                return;
+            }
+            synchronized (OUTPUT_LOCK) {
+                HenPlus.msg().print(_output.toString());
+            }
+            _output.setLength(0);
+        }
+
+        void executed(final boolean success) {
+            ++_commandCount;
+            if (!success) {
+                ++_errorCount;
+            }
+        }
+
+        long getCommandCount() {
+            return _commandCount;
+        }
+
+        long getErrorCount() {
+            return _errorCount;
+        }
+
+        /**
+         * the time it took to run the file; -1, if it could not be run.
+         */
+        long getExecTime() {
+            return _execTime;
+        }
+
+        void setExecTime(final long execTime) {
+            _execTime = execTime;
+        }
+    }
+
+    /**
+     * takes the next file not run yet and runs it, until all files are done.
+     * Each file is separated into statements of its own and is committed
+     * at its end. Only SQL statements can be run this way; their results are
+     * read, but not shown.
+     */
+    private final class ScriptWorker implements Runnable {
+        private final SQLSession _session;
+        private final List<ScriptJob> _queue;
+        private final CommandDispatcher _dispatcher;
+        private final HenPlus _henplus;
+        private Connection _conn;
+        private volatile Statement _stmt;
+
+        ScriptWorker(final SQLSession session, final List<ScriptJob> queue) {
+            _session = session;
+            _queue = queue;
+            _henplus = HenPlus.getInstance();
+            _dispatcher = _henplus.getDispatcher();
+        }
+
+        void cancel() {
+            final Statement stmt = _stmt;
+            if (stmt != null) {
+                try {
+                    stmt.cancel();
+                } catch (final Exception e) {
+                    /* ignore */
+                }
+            }
+        }
+
+        private ScriptJob nextJob() {
+            synchronized (_queue) {
+                for (final ScriptJob job : _queue) {
+                    if (job.take()) {
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public void run() {
+            try {
+                ScriptJob job;
+                while (_running && (job = nextJob()) != null) {
+                    final long startTime = System.currentTimeMillis();
+                    try {
+                        if (_conn == null) {
+                            _conn = _session.borrowConnection();
+                            _stmt = _conn.createStatement();
+                        }
+                        runScript(job);
+                        job.setExecTime(System.currentTimeMillis() - startTime);
+                    } catch (final Exception e) {
+                        job.println(e.getMessage());
+                    }
+                    job.flush();
+                }
+            } finally {
+                if (_conn != null) {
+                    final Statement stmt = _stmt;
+                    _stmt = null;
+                    if (stmt != null) {
+                        try {
+                            stmt.close();
+                        } catch (final SQLException e) {
+                            /* ignore */
+                        }
+                    }
+                    _session.releaseConnection(_conn);
+                }
+            }
+        }
+
+        private void runScript(final ScriptJob job) throws IOException,
+        SQLException {
+            final ScriptReader reader = new ScriptReader(job.getFile(), System
+                    .getProperty("file.encoding"));
+            final SQLStatementSeparator separator = new SQLStatementSeparator();
+            separator.removeComments(_henplus.isRemoveComments());
+            _conn.setAutoCommit(false);
+            int line = 0;
+            SQLCommand continued = null;
+            try {
+                while (_running && reader.nextLine()) {
+                    ++line;
+                    final char[] buf = reader.getBuffer();
+                    final int off = reader.getLineStart();
+                    final int len = reader.getLineLength();
+                    if (HenPlus.isRemark(CharBuffer.wrap(buf, off, len))) {
+                        continue;
+                    }
+                    separator.append(buf, off, len);
+                    while (_running && separator.hasNext()) {
+                        if (continued != null
+                                && !continued.isComplete(separator.peek())) {
+                            // don't copy a long statement for each line.
+                            separator.cont();
+                            continue;
+                        }
+                        continued = null;
+                        final String command = _henplus.varsubst(separator
+                                .next(), _henplus.getVariableMap());
+                        final Command c = _dispatcher.getCommandFrom(command);
+                        if (c == null) {
+                            separator.consumed();
+                        } else if (!c.isComplete(command)) {
+                            separator.cont();
+                            if (c instanceof SQLCommand) {
+                                continued = (SQLCommand) c;
+                            }
+                        } else {
+                            separator.consumed();
+                            execute(job, line, c, command);
+                        }
+                    }
+                }
+                if (_running) {
+                    _conn.commit();
+                } else {
+                    _conn.rollback();
+                }
+            } catch (final SQLException e) {
+                _conn.rollback();
+                throw e;
+            } finally {
+                reader.close();
+            }
+        }
+
+        private void execute(final ScriptJob job, final int line,
+                final Command c, final String command) {
+            if (!(c instanceof SQLCommand)) {
+                job.println(line + ": skipped '"
+                        + _dispatcher.getCommandNameFrom(command)
+                        + "'; only SQL statements are run in parallel.");
+                job.executed(false);
+                return;
+            }
+            final String sql = StatementUtil.stripTerminator(command);
+            try {
+                if ("commit".equalsIgnoreCase(sql)) {
+                    _conn.commit();
+                } else if ("rollback".equalsIgnoreCase(sql)) {
+                    _conn.rollback();
+                } else {
+                    StatementUtil.executeAndRead(_stmt, sql);
+                }
+                job.executed(true);
+            } catch (final SQLException e) {
+                job.println(line + ": FAILURE: " + e.getMessage());
+                job.executed(false);
+            }
+        }
+    }
+
+    /**
+     * returns a property holder for the 'load-script-cache' property.
+     */
+    public PropertyHolder getScriptCacheProperty() {
+        return new ScriptCacheProperty();
+    }
+
+    private class ScriptCacheProperty extends BooleanPropertyHolder {
+        public ScriptCacheProperty() {
+            super(_useScriptCache);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            _useScriptCache = value;
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "keep loaded scripts separated into statements";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "\tIf on, the statements a loaded script is separated into\n"
+            + "\tare kept in the directory 'script-cache' of the\n"
+            + "\tconfiguration directory, found by the digest of the\n"
+            + "\tscript. Loading the same script again executes the kept\n"
+            + "\tstatements without separating the script again; only the\n"
+            + "\tstatements containing variables are substituted. Scripts\n"
+            + "\tthat change aliases, plugins or properties, that name\n"
+            + "\tcommands by variables or that are larger than "
+            + ScriptCache.MAX_SCRIPT_SIZE / (1024 * 1024) + " MB are\n"
+            + "\talways read line by line. The " + ScriptCache.MAX_ENTRIES
+            + " scripts used last are\n"
+            + "\tkept.";
+        }
     }
 
     @Override
@@ -187,7 +769,7 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
 
     @Override
     public String getSynopsis(final String cmd) {
-        return cmd + " <filename> [<filename> ..]";
+        return cmd + " [-j <jobs>] <filename> [<filename> ..]";
     }
 
     @Override
@@ -202,7 +784,20 @@ public class LoadCommand extends AbstractCommand implements Interruptable {
         + "\t'start', '@' and '@@' are provided for compatibility \n"
         + "\twith oracle SQLPLUS scripts. However, there is no\n"
         + "\tdistinction between '@' and '@@' as in SQLPLUS; henplus\n"
-        + "\talways reads subfiles relative to the contained file.\n";
+        + "\talways reads subfiles relative to the contained file.\n"
+        + "\tFiles ending with '.gz' are uncompressed while reading.\n"
+        + "\tThe progress of files larger than 1 MB is shown by the\n"
+        + "\tbytes read, with an estimated end time and the statements\n"
+        + "\tper second, that include the statements of files loaded\n"
+        + "\tfrom it; such a file is shown next to the progress.\n"
+        + "\tWith '-j <jobs>', up to <jobs> files are run at the same\n"
+        + "\ttime, each on a connection of its own with the same URL and\n"
+        + "\tuser as the current session and in a transaction of its\n"
+        + "\town, that is committed at the end of the file. Only SQL\n"
+        + "\tstatements can be run this way; query results are read but\n"
+        + "\tnot shown. Failures are printed prefixed with the file name\n"
+        + "\tand line; at the end, the commands per second of each file\n"
+        + "\tand of all files are shown.\n";
     }
 }
 
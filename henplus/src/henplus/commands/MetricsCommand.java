@@ -0,0 +1,406 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.management.Metrics;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.StringTokenizer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Publishes the {@link Metrics} in the Prometheus text format, either on a
+ * HTTP port bound to localhost or as a textfile for the node_exporter that is
+ * rewritten periodically.
+ */
+public final class MetricsCommand extends AbstractCommand {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+    private static final int DEFAULT_INTERVAL = 15;
+    /** time a client has to send its request */
+    private static final int REQUEST_TIMEOUT = 5000;
+
+    private final Metrics _metrics;
+    private HttpExporter _http;
+    private FileExporter _file;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "metrics" };
+    }
+
+    public MetricsCommand(final Metrics metrics) {
+        _metrics = metrics;
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * answers each HTTP request with the current metrics; the requests are
+     * handled one after another, scrapes are rare.
+     */
+    private final class HttpExporter extends Thread {
+        private final ServerSocket _server;
+
+        HttpExporter(final int port) throws IOException {
+            super("henplus-metrics-http");
+            setDaemon(true);
+            _server = new ServerSocket(port, 8, InetAddress
+                    .getByName("127.0.0.1"));
+        }
+
+        int getPort() {
+            return _server.getLocalPort();
+        }
+
+        void close() {
+            try {
+                _server.close();
+            } catch (final IOException e) {
+                /* ignore */
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!_server.isClosed()) {
+                Socket client = null;
+                try {
+                    client = _server.accept();
+                    client.setSoTimeout(REQUEST_TIMEOUT);
+                    answer(client);
+                } catch (final IOException e) {
+                    /* closed, or the client went away */
+                } finally {
+                    if (client != null) {
+                        try {
+                            client.close();
+                        } catch (final IOException e) {
+                            /* ignore */
+                        }
+                    }
+                }
+            }
+        }
+
+        private void answer(final Socket client) throws IOException {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "US-ASCII"));
+            final String request = in.readLine();
+            if (request == null) {
+                return;
+            }
+            // skip headers.
+            String header;
+            while ((header = in.readLine()) != null && header.length() > 0) {
+                /* ignore */
+            }
+            final StringTokenizer tok = new StringTokenizer(request);
+            final String method = tok.hasMoreTokens() ? tok.nextToken() : "";
+            final String path = tok.hasMoreTokens() ? tok.nextToken() : "";
+            String status = "200 OK";
+            String body;
+            if (!"GET".equals(method)) {
+                status = "405 Method Not Allowed";
+                body = status + "\n";
+            } else if (!"/metrics".equals(path) && !"/".equals(path)) {
+                status = "404 Not Found";
+                body = status + "\n";
+            } else {
+                body = _metrics.render();
+            }
+            final byte[] content = body.getBytes("UTF-8");
+            final OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.0 " + status + "\r\nContent-Type: "
+                    + CONTENT_TYPE + "\r\nContent-Length: " + content.length
+                    + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.write(content);
+            out.flush();
+        }
+    }
+
+    /**
+     * rewrites the textfile every few seconds. The file is replaced
+     * atomically, so that the node_exporter never reads a partial file.
+     */
+    private final class FileExporter extends Thread {
+        private final File _target;
+        private final long _intervalMillis;
+        private volatile boolean _closed;
+
+        FileExporter(final File target, final int intervalSeconds) {
+            super("henplus-metrics-file");
+            setDaemon(true);
+            _target = target;
+            _intervalMillis = intervalSeconds * 1000L;
+        }
+
+        File getFile() {
+            return _target;
+        }
+
+        void close() {
+            _closed = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!_closed) {
+                    write();
+                    try {
+                        Thread.sleep(_intervalMillis);
+                    } catch (final InterruptedException e) {
+                        // closed; write the final values.
+                    }
+                }
+                write();
+            } catch (final IOException e) {
+                HenPlus.msg().println(
+                        "writing " + _target + " failed: " + e.getMessage()
+                        + "; metrics are not written anymore.");
+            }
+        }
+
+        private void write() throws IOException {
+            final File tmp = new File(_target.getPath() + ".tmp");
+            final Writer out = new OutputStreamWriter(new FileOutputStream(
+                    tmp), "UTF-8");
+            try {
+                out.write(_metrics.render());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(_target)) {
+                // some platforms do not replace on rename.
+                _target.delete();
+                if (!tmp.renameTo(_target)) {
+                    throw new IOException("cannot rename " + tmp);
+                }
+            }
+        }
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        final StringTokenizer st = new StringTokenizer(param);
+        if (!st.hasMoreTokens()) {
+            HenPlus.out().print(_metrics.render());
+            return SUCCESS;
+        }
+        final String what = st.nextToken();
+        if ("off".equals(what) && !st.hasMoreTokens()) {
+            stopHttp();
+            stopFile();
+            HenPlus.msg().println("metrics are not exported anymore.");
+            return SUCCESS;
+        } else if ("http".equals(what)) {
+            if (st.countTokens() != 1) {
+                return SYNTAX_ERROR;
+            }
+            try {
+                startHttp(Integer.parseInt(st.nextToken()));
+            } catch (final NumberFormatException e) {
+                return SYNTAX_ERROR;
+            }
+            return _http != null ? SUCCESS : EXEC_FAILED;
+        } else if ("file".equals(what)) {
+            if (st.countTokens() < 1 || st.countTokens() > 2) {
+                return SYNTAX_ERROR;
+            }
+            final String fileName = st.nextToken();
+            int interval = DEFAULT_INTERVAL;
+            if (st.hasMoreTokens()) {
+                try {
+                    interval = Integer.parseInt(st.nextToken());
+                } catch (final NumberFormatException e) {
+                    return SYNTAX_ERROR;
+                }
+                if (interval < 1) {
+                    HenPlus.msg().println("interval must be at least 1s");
+                    return SYNTAX_ERROR;
+                }
+            }
+            startFile(new File(fileName), interval);
+            return SUCCESS;
+        } else if ("status".equals(what) && !st.hasMoreTokens()) {
+            if (_http == null && _file == null) {
+                HenPlus.msg().println("metrics are not exported.");
+            }
+            if (_http != null) {
+                HenPlus.msg().println(
+                        "metrics served at http://127.0.0.1:"
+                        + _http.getPort() + "/metrics");
+            }
+            if (_file != null) {
+                HenPlus.msg().println(
+                        "metrics written to " + _file.getFile());
+            }
+            return SUCCESS;
+        }
+        return SYNTAX_ERROR;
+    }
+
+    private void startHttp(final int port) {
+        stopHttp();
+        try {
+            _http = new HttpExporter(port);
+        } catch (final IOException e) {
+            HenPlus.msg().println(
+                    "cannot listen on port " + port + ": " + e.getMessage());
+            return;
+        }
+        _http.start();
+        HenPlus.msg().println(
+                "metrics served at http://127.0.0.1:" + _http.getPort()
+                + "/metrics");
+    }
+
+    private void stopHttp() {
+        if (_http != null) {
+            _http.close();
+            _http = null;
+        }
+    }
+
+    private void startFile(final File file, final int intervalSeconds) {
+        stopFile();
+        _file = new FileExporter(file, intervalSeconds);
+        _file.start();
+        HenPlus.msg().println(
+                "metrics written to " + file + " every " + intervalSeconds
+                + "s");
+    }
+
+    private void stopFile() {
+        if (_file != null) {
+            _file.close();
+            try {
+                // let it write the final values.
+                _file.join(REQUEST_TIMEOUT);
+            } catch (final InterruptedException e) {
+                /* ignore */
+            }
+            _file = null;
+        }
+    }
+
+    @Override
+    public void registerOptions(final Options r) {
+        final Option port = new Option(null, "metrics-port", true,
+        "serve metrics in Prometheus format on this localhost port");
+        port.setArgName("port");
+        r.addOption(port);
+        final Option file = new Option(null, "metrics-file", true,
+        "write metrics in Prometheus format to this file every "
+        + DEFAULT_INTERVAL + "s");
+        file.setArgName("file");
+        r.addOption(file);
+    }
+
+    @Override
+    public void handleCommandline(final CommandLine line) {
+        if (line.hasOption("metrics-port")) {
+            final String port = line.getOptionValue("metrics-port");
+            try {
+                startHttp(Integer.parseInt(port));
+            } catch (final NumberFormatException e) {
+                HenPlus.msg().println("invalid metrics port '" + port + "'");
+            }
+        }
+        if (line.hasOption("metrics-file")) {
+            startFile(new File(line.getOptionValue("metrics-file")),
+                    DEFAULT_INTERVAL);
+        }
+    }
+
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        final StringTokenizer st = new StringTokenizer(partialCommand);
+        st.nextToken(); // skip cmd.
+        final int argc = st.countTokens();
+        if (argc > (lastWord.length() > 0 ? 1 : 0)) {
+            if (partialCommand.trim().startsWith("metrics file")) {
+                return new FileCompletionIterator(partialCommand, lastWord);
+            }
+            return null;
+        }
+        return new NameCompleter(new String[] { "http", "file", "status",
+        "off" }).getAlternatives(lastWord);
+    }
+
+    @Override
+    public void shutdown() {
+        stopHttp();
+        stopFile();
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "show or export metrics in Prometheus format";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " [http <port> | file <file> [<seconds>] | status | off]";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tWithout argument, print the metrics collected so far in\n"
+            + "\tthe Prometheus text format: the SQL statements executed\n"
+            + "\tand failed, the rows fetched and affected, a histogram of\n"
+            + "\tthe execution time, the rows and bytes processed by\n"
+            + "\tdump-in, dump-out and import and the open sessions.\n"
+            + "\t'metrics http <port>' serves them on\n"
+            + "\thttp://127.0.0.1:<port>/metrics for scraping; port 0\n"
+            + "\tchooses a free port.\n"
+            + "\t'metrics file <file> [<seconds>]' rewrites the file every\n"
+            + "\t" + DEFAULT_INTERVAL
+            + " seconds (or as given) and on exit, e.g. for the\n"
+            + "\ttextfile collector of the node_exporter.\n"
+            + "\t'metrics status' tells where the metrics are exported to,\n"
+            + "\t'metrics off' stops exporting them.\n"
+            + "\tThe same can be started with the commandline options\n"
+            + "\t--metrics-port and --metrics-file.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
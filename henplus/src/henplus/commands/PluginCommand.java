@@ -10,6 +10,7 @@ import henplus.AbstractCommand;
 import henplus.Command;
 import henplus.CommandDispatcher;
 import henplus.HenPlus;
+import henplus.LazyCommand;
 import henplus.SQLSession;
 import henplus.io.ConfigurationContainer;
 import henplus.view.Column;
@@ -29,11 +30,14 @@ import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 
+import org.apache.commons.cli.Options;
+
 /**
  * A Command that handles Plugins.
  */
 public final class PluginCommand extends AbstractCommand {
     private static final String PLUGINS_FILENAME = "plugins";
+    private static final String COMMANDS_FILENAME = "plugin-commands";
     private static final ColumnMetaData[] DRV_META;
     static {
         DRV_META = new ColumnMetaData[2];
@@ -45,6 +49,13 @@ public final class PluginCommand extends AbstractCommand {
     private final HenPlus _henplus;
     private final ConfigurationContainer _config;
 
+    /**
+     * the command names of the plugins without commandline options; these
+     * plugins are only loaded when one of their commands is used.
+     */
+    private final ConfigurationContainer _commandsConfig;
+    private final Map/* <ClassName-String,Command-Names> */_pluginCommands;
+
     /**
      * returns the command-strings this command can handle.
      */
@@ -56,6 +67,28 @@ public final class PluginCommand extends AbstractCommand {
         _henplus = henplus;
         _plugins = new TreeMap();
         _config = henplus.createConfigurationContainer(PLUGINS_FILENAME);
+        _commandsConfig = henplus
+        .createConfigurationContainer(COMMANDS_FILENAME);
+        _pluginCommands = _commandsConfig.readProperties();
+    }
+
+    /**
+     * a plugin, whose command names are known from an earlier session.
+     */
+    private final class LazyPlugin extends LazyCommand {
+        private final String _className;
+
+        LazyPlugin(final String className, final String[] commandList) {
+            super(commandList);
+            _className = className;
+        }
+
+        @Override
+        protected Command create() throws Exception {
+            final Command plugin = createPlugin(_className);
+            rememberCommands(_className, plugin);
+            return plugin;
+        }
     }
 
     /**
@@ -78,7 +111,14 @@ public final class PluginCommand extends AbstractCommand {
                     }
                     Command plugin = null;
                     try {
-                        plugin = loadPlugin(line);
+                        final String commands = (String) _pluginCommands
+                        .get(line);
+                        if (commands != null) {
+                            plugin = new LazyPlugin(line, commands.split(" "));
+                            _henplus.getDispatcher().register(plugin);
+                        } else {
+                            plugin = loadPlugin(line);
+                        }
                     } catch (final Exception e) {
                         HenPlus.msg().println(
                                 "couldn't load plugin '" + line + "' "
@@ -101,13 +141,42 @@ public final class PluginCommand extends AbstractCommand {
      */
     private Command loadPlugin(final String className) throws ClassNotFoundException,
     ClassCastException, InstantiationException, IllegalAccessException {
-        Command plugin = null;
-        final Class<?> pluginClass = Class.forName(className);
-        plugin = (Command) pluginClass.newInstance();
+        final Command plugin = createPlugin(className);
         _henplus.getDispatcher().register(plugin);
+        rememberCommands(className, plugin);
         return plugin;
     }
 
+    private Command createPlugin(final String className)
+    throws ClassNotFoundException, ClassCastException,
+    InstantiationException, IllegalAccessException {
+        final Class<?> pluginClass = Class.forName(className);
+        return (Command) pluginClass.newInstance();
+    }
+
+    /**
+     * remember the command names of the plugin, so that it can be loaded
+     * lazily next time; unless it has commandline options, that are needed
+     * at startup.
+     */
+    private void rememberCommands(final String className, final Command plugin) {
+        final Options options = new Options();
+        plugin.registerOptions(options);
+        if (!options.getOptions().isEmpty()) {
+            _pluginCommands.remove(className);
+            return;
+        }
+        final StringBuilder names = new StringBuilder();
+        final String[] cmdList = plugin.getCommandList();
+        for (int i = 0; i < cmdList.length; ++i) {
+            if (i != 0) {
+                names.append(' ');
+            }
+            names.append(cmdList[i]);
+        }
+        _pluginCommands.put(className, names.toString());
+    }
+
     /**
      * execute the command given.
      */
@@ -184,6 +253,7 @@ public final class PluginCommand extends AbstractCommand {
                 return EXEC_FAILED;
             } else {
                 final Command c = (Command) _plugins.remove(pluginClass);
+                _pluginCommands.remove(pluginClass);
                 _henplus.getDispatcher().unregister(c);
             }
         }
@@ -221,6 +291,9 @@ public final class PluginCommand extends AbstractCommand {
                 out.close();
             }
         });
+        _pluginCommands.keySet().retainAll(_plugins.keySet());
+        _commandsConfig.storeProperties(_pluginCommands, false,
+        "commands of the plugins; the plugins are loaded on first use");
     }
 
     /**
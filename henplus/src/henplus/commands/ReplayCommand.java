@@ -0,0 +1,470 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.Interruptable;
+import henplus.SQLSession;
+import henplus.SigIntHandler;
+import henplus.util.LatencyHistogram;
+import henplus.util.StatementUtil;
+import henplus.util.ThreadUtil;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Re-issues a workload captured with 'capture' against the current session,
+ * with the original timing between the statements.
+ */
+public final class ReplayCommand extends AbstractCommand implements
+Interruptable {
+    private static final Comparator<Record> BY_START = new Comparator<Record>() {
+        public int compare(final Record a, final Record b) {
+            return a.start < b.start ? -1 : a.start == b.start ? 0 : 1;
+        }
+    };
+
+    private volatile boolean _stopped;
+    private List<Replayer> _replayers;
+
+    /** a statement of the log */
+    private static final class Record {
+        final long start;
+        final String sql;
+
+        Record(final long start, final String sql) {
+            this.start = start;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "replay" };
+    }
+
+    // Interruptable interface.
+    public void interrupt() {
+        _stopped = true;
+        final List<Replayer> replayers = _replayers;
+        if (replayers != null) {
+            for (final Replayer replayer : replayers) {
+                replayer.cancel();
+            }
+        }
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        final StringTokenizer st = new StringTokenizer(param);
+        if (!st.hasMoreTokens()) {
+            return SYNTAX_ERROR;
+        }
+        final String filename = st.nextToken();
+        double speed = 1.0;
+        int sessions = -1;
+        try {
+            while (st.hasMoreTokens()) {
+                final String option = st.nextToken();
+                if (!st.hasMoreTokens()) {
+                    return SYNTAX_ERROR;
+                }
+                final String value = st.nextToken();
+                if ("speed".equals(option)) {
+                    speed = Double.parseDouble(value);
+                    if (speed < 0) {
+                        return SYNTAX_ERROR;
+                    }
+                } else if ("sessions".equals(option)) {
+                    sessions = Integer.parseInt(value);
+                    if (sessions <= 0) {
+                        return SYNTAX_ERROR;
+                    }
+                } else {
+                    return SYNTAX_ERROR;
+                }
+            }
+        } catch (final NumberFormatException e) {
+            return SYNTAX_ERROR;
+        }
+
+        // captured session -> statements, in order of first appearance.
+        final Map<String, List<Record>> captured = new HashMap<String, List<Record>>();
+        final List<List<Record>> capturedSessions = new ArrayList<List<Record>>();
+        long firstStart = Long.MAX_VALUE;
+        long lastStart = Long.MIN_VALUE;
+        int count = 0;
+        try {
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(new File(
+                            filename)), "UTF-8"));
+            try {
+                String line;
+                int lineNo = 0;
+                while ((line = reader.readLine()) != null) {
+                    ++lineNo;
+                    if (line.length() == 0 || line.startsWith("#")) {
+                        continue;
+                    }
+                    final String[] fields = split(line);
+                    if (fields == null) {
+                        HenPlus.msg().println(
+                                filename + ":" + lineNo
+                                + ": not a workload record; skipped.");
+                        continue;
+                    }
+                    final long start = Long.parseLong(fields[0]);
+                    List<Record> records = captured.get(fields[3]);
+                    if (records == null) {
+                        records = new ArrayList<Record>();
+                        captured.put(fields[3], records);
+                        capturedSessions.add(records);
+                    }
+                    records.add(new Record(start, CaptureCommand
+                            .unescape(fields[4])));
+                    firstStart = Math.min(firstStart, start);
+                    lastStart = Math.max(lastStart, start);
+                    ++count;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final IOException e) {
+            HenPlus.msg().println("cannot read " + filename + ": " + e.getMessage());
+            return EXEC_FAILED;
+        } catch (final NumberFormatException e) {
+            HenPlus.msg().println(filename + " is not a workload log.");
+            return EXEC_FAILED;
+        }
+        if (count == 0) {
+            HenPlus.msg().println("nothing to replay.");
+            return SUCCESS;
+        }
+
+        // distribute the captured sessions on the connections.
+        if (sessions < 0) {
+            sessions = capturedSessions.size();
+        }
+        final List<List<Record>> work = new ArrayList<List<Record>>();
+        for (int i = 0; i < Math.min(sessions, capturedSessions.size()); ++i) {
+            work.add(new ArrayList<Record>());
+        }
+        for (int i = 0; i < capturedSessions.size(); ++i) {
+            work.get(i % work.size()).addAll(capturedSessions.get(i));
+        }
+        if (work.size() < capturedSessions.size()) {
+            for (final List<Record> records : work) {
+                Collections.sort(records, BY_START);
+            }
+        }
+        return replay(session, work, firstStart, speed, lastStart - firstStart);
+    }
+
+    private int replay(final SQLSession session,
+            final List<List<Record>> work, final long firstStart,
+            final double speed, final long capturedMillis) {
+        _stopped = false;
+        final List<Replayer> replayers = new ArrayList<Replayer>();
+        SigIntHandler.getInstance().pushInterruptable(this);
+        try {
+            try {
+                for (int i = 0; i < work.size() && !_stopped; ++i) {
+                    replayers.add(new Replayer(session, session
+                            .borrowConnection(), work.get(i)));
+                }
+            } catch (final Exception e) {
+                HenPlus.msg().println(
+                        "cannot open connection " + (replayers.size() + 1)
+                        + ": " + e.getMessage());
+                return EXEC_FAILED;
+            }
+            if (_stopped) {
+                return EXEC_FAILED;
+            }
+            _replayers = replayers;
+            final long startTime = System.nanoTime();
+            final List<Thread> threads = new ArrayList<Thread>();
+            for (final Replayer replayer : replayers) {
+                replayer.schedule(startTime, firstStart, speed);
+                final Thread thread = ThreadUtil.newThread("henplus-replay",
+                        replayer);
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    _stopped = true;
+                }
+            }
+            report(replayers, (System.nanoTime() - startTime) / 1000000,
+                    capturedMillis);
+        } finally {
+            _replayers = null;
+            SigIntHandler.getInstance().popInterruptable();
+            for (final Replayer replayer : replayers) {
+                replayer.close();
+            }
+        }
+        return SUCCESS;
+    }
+
+    private void report(final List<Replayer> replayers,
+            final long elapsedMillis, final long capturedMillis) {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors = 0;
+        long maxLag = 0;
+        String firstError = null;
+        for (final Replayer replayer : replayers) {
+            latency.add(replayer.getLatency());
+            errors += replayer.getErrors();
+            maxLag = Math.max(maxLag, replayer.getMaxLag());
+            if (firstError == null) {
+                firstError = replayer.getFirstError();
+            }
+        }
+        HenPlus.msg().print(
+                "replayed " + (latency.getCount() + errors)
+                + " statements on " + replayers.size() + " connection"
+                + (replayers.size() == 1 ? "" : "s") + ", " + errors
+                + " errors in ");
+        TimeRenderer.printTime(elapsedMillis, HenPlus.msg());
+        HenPlus.msg().print(" (captured: ");
+        TimeRenderer.printTime(capturedMillis, HenPlus.msg());
+        HenPlus.msg().print(")");
+        if (_stopped) {
+            HenPlus.msg().print(" (interrupted)");
+        }
+        HenPlus.msg().println();
+        if (latency.getCount() > 0) {
+            final StringBuilder line = new StringBuilder("latency: p50 ");
+            line.append(TimeRenderer.renderMicros(latency
+                    .getValueAtPercentile(50)));
+            line.append(", p95 ");
+            line.append(TimeRenderer.renderMicros(latency
+                    .getValueAtPercentile(95)));
+            line.append(", p99 ");
+            line.append(TimeRenderer.renderMicros(latency
+                    .getValueAtPercentile(99)));
+            line.append(", max ");
+            line.append(TimeRenderer.renderMicros(latency.getMax()));
+            line.append("; max. behind schedule ");
+            line.append(TimeRenderer.renderMicros(maxLag));
+            HenPlus.msg().println(line.toString());
+        }
+        if (firstError != null) {
+            HenPlus.msg().println("first error: " + firstError);
+        }
+    }
+
+    /**
+     * split a record into its five fields; null, if it isn't one.
+     */
+    private static String[] split(final String line) {
+        final String[] fields = new String[5];
+        int pos = 0;
+        for (int i = 0; i < 4; ++i) {
+            final int tab = line.indexOf('\t', pos);
+            if (tab < 0) {
+                return null;
+            }
+            fields[i] = line.substring(pos, tab);
+            pos = tab + 1;
+        }
+        fields[4] = line.substring(pos);
+        return fields;
+    }
+
+    /**
+     * executes the statements of some captured sessions at their time.
+     */
+    private final class Replayer implements Runnable {
+        private final SQLSession _session;
+        private final Connection _conn;
+        private final List<Record> _records;
+        private final LatencyHistogram _latency;
+        private volatile Statement _stmt;
+        private long _startNanos;
+        private long _firstStart;
+        private double _speed;
+        private long _errors;
+        private long _maxLag;
+        private String _firstError;
+
+        Replayer(final SQLSession session, final Connection conn,
+                final List<Record> records) {
+            _session = session;
+            _conn = conn;
+            _records = records;
+            _latency = new LatencyHistogram();
+        }
+
+        void schedule(final long startNanos, final long firstStart,
+                final double speed) {
+            _startNanos = startNanos;
+            _firstStart = firstStart;
+            _speed = speed;
+        }
+
+        public void run() {
+            try {
+                _stmt = _conn.createStatement();
+                _session.getFetchSizeController().prepare(_stmt);
+            } catch (final Exception e) {
+                error(e);
+                return;
+            }
+            for (int i = 0; i < _records.size() && !_stopped; ++i) {
+                final Record record = _records.get(i);
+                long now = System.nanoTime();
+                if (_speed > 0) {
+                    final long due = _startNanos
+                    + (long) ((record.start - _firstStart) * 1000000L / _speed);
+                    if (due > now) {
+                        try {
+                            final long wait = due - now;
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                        now = System.nanoTime();
+                    }
+                    _maxLag = Math.max(_maxLag, (now - due) / 1000);
+                }
+                try {
+                    StatementUtil.executeAndRead(_stmt, record.sql);
+                    _latency.record((System.nanoTime() - now) / 1000);
+                } catch (final Exception e) {
+                    if (!_stopped) {
+                        error(e);
+                    }
+                }
+            }
+        }
+
+        private void error(final Exception e) {
+            ++_errors;
+            if (_firstError == null) {
+                _firstError = e.getMessage() != null ? e.getMessage().trim()
+                        : e.toString();
+            }
+        }
+
+        void cancel() {
+            final Statement stmt = _stmt;
+            if (stmt != null) {
+                try {
+                    stmt.cancel();
+                } catch (final Exception e) {
+                    /* we tried */
+                }
+            }
+        }
+
+        void close() {
+            final Statement stmt = _stmt;
+            _stmt = null;
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (final Exception e) {
+                    /* ignore */
+                }
+            }
+            _session.releaseConnection(_conn);
+        }
+
+        LatencyHistogram getLatency() {
+            return _latency;
+        }
+
+        long getErrors() {
+            return _errors;
+        }
+
+        long getMaxLag() {
+            return _maxLag;
+        }
+
+        String getFirstError() {
+            return _firstError;
+        }
+    }
+
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        final StringTokenizer st = new StringTokenizer(partialCommand);
+        int argc = st.countTokens();
+        if (lastWord.length() > 0) {
+            --argc;
+        }
+        if (argc <= 1) {
+            return new FileCompletionIterator(partialCommand, lastWord);
+        }
+        if (argc % 2 == 0) {
+            return new NameCompleter(new String[] { "speed", "sessions" })
+            .getAlternatives(lastWord);
+        }
+        return null;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "re-issue a captured workload";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " <logfile> [speed <factor>] [sessions <n>]";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tRe-issue the statements of a workload log written by\n"
+            + "\t'capture' against the database of the current session.\n"
+            + "\tThe statements are started with the time between them\n"
+            + "\tas captured, divided by the speed factor; 'speed 2'\n"
+            + "\treplays twice as fast, 'speed 0' as fast as possible.\n"
+            + "\tThe statements of each captured session are executed in\n"
+            + "\torder on a connection of their own; with 'sessions <n>'\n"
+            + "\tthe captured sessions are distributed on n connections.\n"
+            + "\tThe connections run in auto-commit mode; results are\n"
+            + "\tread and discarded. Reported are the latency percentiles\n"
+            + "\tand how far the replay fell behind the captured timing.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,440 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.io.ResultStore;
+import henplus.view.Column;
+import henplus.view.ColumnMetaData;
+import henplus.view.TableRenderer;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+/**
+ * Works on the last result kept by the {@link SQLCommand}: sort, filter, show
+ * and export it without running the query again.
+ */
+public final class ResultCommand extends AbstractCommand {
+    private static final String[] SUBCOMMANDS = { "sort", "filter", "show",
+        "export", "reset" };
+    private static final String[] OPERATORS = { "=", "!=", "<>", "<", "<=",
+        ">", ">=", "like" };
+    /** runs this short are sorted by insertion. */
+    private static final int INSERTION_SORT_THRESHOLD = 7;
+
+    private final SQLCommand _sqlCommand;
+
+    /** the store our view belongs to. */
+    private ResultStore _viewStore;
+    /** the rows of the store in the current order; filtered out rows omitted */
+    private int[] _view;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "result" };
+    }
+
+    public ResultCommand(final SQLCommand sqlCommand) {
+        _sqlCommand = sqlCommand;
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd, final String param) {
+        final StringTokenizer st = new StringTokenizer(param);
+        final String sub = st.hasMoreTokens() ? st.nextToken().toLowerCase() : "";
+        final ResultStore store = _sqlCommand.getLastResult();
+        if (store == null) {
+            HenPlus.msg().println(
+                    _sqlCommand.isKeepResult() ? "no result kept."
+                            : "no result kept; switch on 'sql-result-store'");
+            return EXEC_FAILED;
+        }
+        if (store != _viewStore || "reset".equals(sub)) {
+            resetView(store);
+        }
+        try {
+            if ("".equals(sub) || "reset".equals(sub)) {
+                printSummary(store);
+            } else if ("sort".equals(sub)) {
+                final int argc = st.countTokens();
+                if (argc < 1 || argc > 2) {
+                    return SYNTAX_ERROR;
+                }
+                final int col = findColumn(store, st.nextToken());
+                if (col < 0) {
+                    return EXEC_FAILED;
+                }
+                boolean descending = false;
+                if (st.hasMoreTokens()) {
+                    final String dir = st.nextToken().toLowerCase();
+                    if ("desc".equals(dir)) {
+                        descending = true;
+                    } else if (!"asc".equals(dir)) {
+                        return SYNTAX_ERROR;
+                    }
+                }
+                sort(store, col, descending);
+                printSummary(store);
+            } else if ("filter".equals(sub)) {
+                if (st.countTokens() < 3) {
+                    return SYNTAX_ERROR;
+                }
+                final int col = findColumn(store, st.nextToken());
+                if (col < 0) {
+                    return EXEC_FAILED;
+                }
+                final String op = st.nextToken().toLowerCase();
+                if (!Arrays.asList(OPERATORS).contains(op)) {
+                    return SYNTAX_ERROR;
+                }
+                final String value = stripQuotes(st.nextToken("").trim());
+                filter(store, col, op, value);
+                printSummary(store);
+            } else if ("show".equals(sub)) {
+                int from = 1;
+                int to = _sqlCommand.getRowLimit();
+                if (st.hasMoreTokens()) {
+                    from = Integer.parseInt(st.nextToken());
+                    to = from + _sqlCommand.getRowLimit() - 1;
+                }
+                if (st.hasMoreTokens()) {
+                    to = Integer.parseInt(st.nextToken());
+                }
+                if (st.hasMoreTokens() || from < 1 || to < from) {
+                    return SYNTAX_ERROR;
+                }
+                show(store, from - 1, Math.min(to, _view.length));
+            } else if ("export".equals(sub)) {
+                if (!st.hasMoreTokens()) {
+                    return SYNTAX_ERROR;
+                }
+                final String filename = st.nextToken("").trim();
+                export(store, filename);
+                HenPlus.msg().println(
+                        "exported " + _view.length + " rows to " + filename);
+            } else {
+                return SYNTAX_ERROR;
+            }
+        } catch (final NumberFormatException e) {
+            HenPlus.msg().println("not a number: " + e.getMessage());
+            return EXEC_FAILED;
+        } catch (final IOException e) {
+            HenPlus.msg().println("export failed: " + e.getMessage());
+            return EXEC_FAILED;
+        }
+        return SUCCESS;
+    }
+
+    private void resetView(final ResultStore store) {
+        _viewStore = store;
+        _view = new int[store.getRowCount()];
+        for (int i = 0; i < _view.length; ++i) {
+            _view[i] = i;
+        }
+    }
+
+    private int findColumn(final ResultStore store, final String name) {
+        final int col = store.findColumn(name);
+        if (col < 0) {
+            HenPlus.msg().println("unknown column '" + name + "'");
+        }
+        return col;
+    }
+
+    private void printSummary(final ResultStore store) {
+        HenPlus.msg().print(_view.length + " of " + store.getRowCount()
+                + " rows, " + store.getColumnCount() + " columns");
+        if (store.getMappedBytes() > 0) {
+            HenPlus.msg().print("; " + store.getMappedBytes() / 1024
+                    + " KByte memory mapped");
+        }
+        HenPlus.msg().println();
+    }
+
+    /**
+     * sort the current view. The sort is stable, so sorting by several
+     * columns one after another works as expected.
+     */
+    private void sort(final ResultStore store, final int col,
+            final boolean descending) {
+        mergeSort(_view.clone(), _view, 0, _view.length, store, col,
+                descending);
+    }
+
+    /**
+     * sort the rows of dst from lo to hi; src holds the same rows there and
+     * is scratch space. Rows are ints, so no Integer is needed per row.
+     */
+    private static void mergeSort(final int[] src, final int[] dst,
+            final int lo, final int hi, final ResultStore store,
+            final int col, final boolean descending) {
+        if (hi - lo < INSERTION_SORT_THRESHOLD) {
+            for (int i = lo + 1; i < hi; ++i) {
+                for (int j = i; j > lo && compare(store, dst[j - 1], dst[j],
+                        col, descending) > 0; --j) {
+                    final int row = dst[j];
+                    dst[j] = dst[j - 1];
+                    dst[j - 1] = row;
+                }
+            }
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        mergeSort(dst, src, lo, mid, store, col, descending);
+        mergeSort(dst, src, mid, hi, store, col, descending);
+        int left = lo;
+        int right = mid;
+        for (int i = lo; i < hi; ++i) {
+            if (right >= hi || left < mid
+                    && compare(store, src[left], src[right], col,
+                            descending) <= 0) {
+                dst[i] = src[left++];
+            } else {
+                dst[i] = src[right++];
+            }
+        }
+    }
+
+    private static int compare(final ResultStore store, final int a,
+            final int b, final int col, final boolean descending) {
+        final int result = store.compare(a, b, col);
+        return descending ? -result : result;
+    }
+
+    private void filter(final ResultStore store, final int col,
+            final String op, final String value) {
+        final Pattern like = "like".equals(op) ? likePattern(value) : null;
+        int kept = 0;
+        for (int i = 0; i < _view.length; ++i) {
+            final int row = _view[i];
+            if (store.isNull(row, col)) {
+                continue;
+            }
+            boolean match;
+            if (like != null) {
+                match = like.matcher(store.getString(row, col)).matches();
+            } else {
+                final int cmp = store.compareToValue(row, col, value);
+                if ("=".equals(op)) {
+                    match = cmp == 0;
+                } else if ("<".equals(op)) {
+                    match = cmp < 0;
+                } else if ("<=".equals(op)) {
+                    match = cmp <= 0;
+                } else if (">".equals(op)) {
+                    match = cmp > 0;
+                } else if (">=".equals(op)) {
+                    match = cmp >= 0;
+                } else {
+                    match = cmp != 0;
+                }
+            }
+            if (match) {
+                _view[kept++] = _view[i];
+            }
+        }
+        final int[] newView = new int[kept];
+        System.arraycopy(_view, 0, newView, 0, kept);
+        _view = newView;
+    }
+
+    /**
+     * translate a SQL like pattern into a regular expression.
+     */
+    private Pattern likePattern(final String value) {
+        final StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '%' || c == '_') {
+                if (i > start) {
+                    regex.append(Pattern.quote(value.substring(start, i)));
+                }
+                regex.append(c == '%' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < value.length()) {
+            regex.append(Pattern.quote(value.substring(start)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private String stripQuotes(final String value) {
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * show the rows from 'from' (inclusive) to 'to' (exclusive) of the view.
+     */
+    private void show(final ResultStore store, final int from, final int to) {
+        final int columns = store.getColumnCount();
+        final ColumnMetaData[] meta = new ColumnMetaData[columns];
+        for (int c = 0; c < columns; ++c) {
+            meta[c] = new ColumnMetaData(store.getLabel(c), store.getType(c)
+                    == ResultStore.TYPE_STRING ? ColumnMetaData.ALIGN_LEFT
+                            : ColumnMetaData.ALIGN_RIGHT);
+        }
+        final TableRenderer table = new TableRenderer(meta, HenPlus.out(),
+                _sqlCommand.getColumnDelimiter(), _sqlCommand.isShowHeader(),
+                _sqlCommand.isShowFooter());
+        for (int i = from; i < to; ++i) {
+            final int row = _view[i];
+            final Column[] columnValues = new Column[columns];
+            for (int c = 0; c < columns; ++c) {
+                columnValues[c] = new Column(store.getString(row, c));
+            }
+            table.addRow(columnValues);
+        }
+        table.closeTable();
+        HenPlus.msg().println(
+                "rows " + Math.min(from + 1, to) + "-" + to + " of "
+                + _view.length);
+    }
+
+    /**
+     * write the current view as comma separated values.
+     */
+    private void export(final ResultStore store, final String filename)
+    throws IOException {
+        final Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), "UTF-8"));
+        try {
+            final int columns = store.getColumnCount();
+            for (int c = 0; c < columns; ++c) {
+                if (c > 0) {
+                    out.write(',');
+                }
+                writeCsvValue(out, store.getLabel(c));
+            }
+            out.write('\n');
+            for (int i = 0; i < _view.length; ++i) {
+                final int row = _view[i];
+                for (int c = 0; c < columns; ++c) {
+                    if (c > 0) {
+                        out.write(',');
+                    }
+                    writeCsvValue(out, store.getString(row, c));
+                }
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeCsvValue(final Writer out, final String value)
+    throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * complete the subcommands and the column names of the last result.
+     */
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        final int argc = argumentCount(partialCommand);
+        final int pos = "".equals(lastWord) ? argc : argc - 1;
+        if (pos == 1) {
+            return new NameCompleter(SUBCOMMANDS).getAlternatives(lastWord);
+        }
+        final ResultStore store = _sqlCommand.getLastResult();
+        if (pos == 2 && store != null
+                && (partialCommand.indexOf("sort") > 0
+                        || partialCommand.indexOf("filter") > 0)) {
+            final NameCompleter columns = new NameCompleter();
+            for (int c = 0; c < store.getColumnCount(); ++c) {
+                columns.addName(store.getLabel(c));
+            }
+            return columns.getAlternatives(lastWord);
+        }
+        return null;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "sort, filter, show or export the last result";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return "result [sort <column> [asc|desc] | filter <column> <op> <value>\n"
+        + "\t| show [<from> [<to>]] | export <filename> | reset]";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tWorks on the rows read by the last query without running\n"
+            + "\tit again; see 'sql-result-store'. All operations work on\n"
+            + "\ta view of the result. Without arguments, the size of the\n"
+            + "\tcurrent view is shown.\n"
+            + "\t  sort <column> [asc|desc]\n"
+            + "\t      sort the view by the given column (name or number).\n"
+            + "\t      The sort is stable, so sort by the minor column\n"
+            + "\t      first. NULL values sort first.\n"
+            + "\t  filter <column> <op> <value>\n"
+            + "\t      only keep rows matching. Operators are\n"
+            + "\t      =, !=, <>, <, <=, >, >= and like (with % and _).\n"
+            + "\t      Numeric columns are compared numerically. Filters\n"
+            + "\t      are applied on top of each other.\n"
+            + "\t  show [<from> [<to>]]\n"
+            + "\t      print rows of the view; by default as many as\n"
+            + "\t      'sql-result-limit'.\n"
+            + "\t  export <filename>\n"
+            + "\t      write the view to a file as comma separated values.\n"
+            + "\t  reset\n"
+            + "\t      remove all filters and sorting.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
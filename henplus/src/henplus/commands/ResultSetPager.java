@@ -0,0 +1,260 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.FetchSizeController;
+import henplus.HenPlus;
+import henplus.Interruptable;
+import henplus.OutputDevice;
+import henplus.io.ResultStore;
+import henplus.io.RowSpillBuffer;
+import henplus.view.Column;
+import henplus.view.ColumnMetaData;
+import henplus.view.TableRenderer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.gnu.readline.Readline;
+
+/**
+ * Interactive pager for result sets. Instead of cutting off the result after
+ * a fixed number of rows, rows are fetched lazily one window at a time while
+ * the user pages through the result. If the result set is scrollable, the
+ * window is positioned on the server cursor directly; forward only result
+ * sets are remembered in a {@link RowSpillBuffer}, so that previous pages can
+ * be shown again without re-running the query.
+ */
+public class ResultSetPager implements Interruptable {
+    /** rows of forward-only results kept in memory before spilling */
+    private static final int SPILL_MEMORY_ROWS = 5000;
+
+    private final ResultSet _rset;
+    private final ResultSetMetaData _meta;
+    private final ColumnMetaData[] _displayMeta;
+    private final String _columnDelimiter;
+    private final boolean _enableHeader;
+    private final boolean _enableFooter;
+    private final int _windowSize;
+    private final OutputDevice _out;
+    private final boolean _scrollable;
+    private final RowSpillBuffer _spillBuffer;
+
+    private long _firstRowTime;
+    private int _fetchedRows;
+    private boolean _exhausted;
+    private volatile boolean _running;
+    private ResultStore _store;
+    private FetchSizeController.Tuner _tuner;
+
+    public ResultSetPager(final ResultSet rset, final String columnDelimiter,
+            final boolean enableHeader, final boolean enableFooter,
+            final int windowSize, final OutputDevice out) throws SQLException {
+        _rset = rset;
+        _meta = rset.getMetaData();
+        _displayMeta = ResultSetRenderer.createDisplayMeta(_meta, null);
+        _columnDelimiter = columnDelimiter;
+        _enableHeader = enableHeader;
+        _enableFooter = enableFooter;
+        _windowSize = windowSize;
+        _out = out;
+        _scrollable = rset.getType() != ResultSet.TYPE_FORWARD_ONLY;
+        _spillBuffer = _scrollable ? null : new RowSpillBuffer(Math.max(
+                SPILL_MEMORY_ROWS, windowSize));
+        _firstRowTime = -1;
+        _fetchedRows = 0;
+        _exhausted = false;
+    }
+
+    // Interruptable interface.
+    public synchronized void interrupt() {
+        _running = false;
+    }
+
+    /**
+     * page through the result until the user quits or the result is
+     * exhausted.
+     *
+     * @return the number of rows fetched from the database.
+     */
+    public int execute() throws SQLException {
+        _running = true;
+        int page = 0;
+        try {
+            while (_running) {
+                final int shown = showWindow(page * _windowSize);
+                final boolean hasMore = hasRow((page + 1) * _windowSize);
+                if (!_running || !hasMore && page == 0) {
+                    break;
+                }
+                final String prompt = "-- rows " + (page * _windowSize + 1)
+                + "-" + (page * _windowSize + shown)
+                + (hasMore ? "" : " (end)")
+                + ": [RETURN] next, p previous, q quit -- ";
+                String answer;
+                try {
+                    answer = Readline.readline(prompt, false);
+                } catch (final EOFException e) {
+                    break;
+                }
+                answer = answer == null ? "" : answer.trim().toLowerCase();
+                if (answer.startsWith("q")) {
+                    break;
+                } else if (answer.startsWith("p")) {
+                    page = Math.max(0, page - 1);
+                } else if (hasMore) {
+                    ++page;
+                } else {
+                    break;
+                }
+            }
+        } catch (final IOException e) {
+            throw new SQLException("paging result failed: " + e.getMessage());
+        } finally {
+            if (_tuner != null) {
+                _tuner.finish();
+            }
+            if (_spillBuffer != null) {
+                _spillBuffer.close();
+            }
+            _rset.close();
+        }
+        return _fetchedRows;
+    }
+
+    /**
+     * keep all rows fetched in the given store.
+     */
+    public void setResultStore(final ResultStore store) {
+        _store = store;
+    }
+
+    /**
+     * inform the given tuner about the rows read.
+     */
+    public void setFetchSizeTuner(final FetchSizeController.Tuner tuner) {
+        _tuner = tuner;
+    }
+
+    /**
+     * the store containing the rows fetched or null, if the rows could not be
+     * stored.
+     */
+    public ResultStore getResultStore() {
+        return _store;
+    }
+
+    public long getFirstRowTime() {
+        return _firstRowTime;
+    }
+
+    /**
+     * true, if the result has been read completely.
+     */
+    public boolean isExhausted() {
+        return _exhausted;
+    }
+
+    /**
+     * render the window starting at the given row (starting with zero).
+     * Returns the number of rows shown.
+     */
+    private int showWindow(final int start) throws SQLException, IOException {
+        for (int i = 0; i < _displayMeta.length; ++i) {
+            _displayMeta[i].resetWidth();
+        }
+        final TableRenderer table = new TableRenderer(_displayMeta, _out,
+                _columnDelimiter, _enableHeader, _enableFooter);
+        int shown = 0;
+        if (_scrollable) {
+            if (_rset.absolute(start) || start == 0) {
+                while (_running && shown < _windowSize && _rset.next()) {
+                    final String[] row = readRow();
+                    if (_store != null
+                            && _store.getRowCount() == start + shown) {
+                        _store = ResultSetRenderer.storeRow(_store, row);
+                    }
+                    table.addRow(toColumns(row));
+                    ++shown;
+                }
+            }
+            _fetchedRows = Math.max(_fetchedRows, start + shown);
+        } else {
+            while (_running && shown < _windowSize && hasRow(start + shown)) {
+                table.addRow(toColumns(_spillBuffer.get(start + shown)));
+                ++shown;
+            }
+        }
+        table.closeTable();
+        return shown;
+    }
+
+    /**
+     * determines, if the row with the given index exists; fetches forward-only
+     * result sets up to that row.
+     */
+    private boolean hasRow(final int index) throws SQLException, IOException {
+        if (_scrollable) {
+            if (_exhausted && index >= _fetchedRows) {
+                return false;
+            }
+            final boolean exists = _rset.absolute(index + 1);
+            if (!exists) {
+                _exhausted = true;
+            }
+            return exists;
+        }
+        while (_running && !_exhausted && _spillBuffer.size() <= index) {
+            if (_rset.next()) {
+                final String[] row = readRow();
+                _spillBuffer.add(row);
+                _store = ResultSetRenderer.storeRow(_store, row);
+                ++_fetchedRows;
+            } else {
+                _exhausted = true;
+            }
+        }
+        return index < _spillBuffer.size();
+    }
+
+    private String[] readRow() throws SQLException {
+        final String[] row = new String[_displayMeta.length];
+        for (int i = 0; i < row.length; ++i) {
+            row[i] = ResultSetRenderer.readColumn(_rset, _meta, i + 1);
+        }
+        if (_firstRowTime < 0) {
+            _firstRowTime = System.currentTimeMillis();
+        }
+        if (_tuner != null) {
+            _tuner.rowRead(row);
+        }
+        return row;
+    }
+
+    private Column[] toColumns(final String[] row) {
+        final Column[] result = new Column[row.length];
+        for (int i = 0; i < row.length; ++i) {
+            result[i] = new Column(row[i]);
+        }
+        return result;
+    }
+
+    /**
+     * the pager is only useful, if there is someone to talk to.
+     */
+    static boolean isAvailable() {
+        return HenPlus.out().isTerminal() && HenPlus.msg().isTerminal();
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -6,13 +6,18 @@
  */
 package henplus.commands;
 
+import henplus.FetchSizeController;
 import henplus.HenPlus;
 import henplus.Interruptable;
 import henplus.OutputDevice;
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import henplus.io.ResultStore;
 import henplus.view.Column;
 import henplus.view.ColumnMetaData;
 import henplus.view.TableRenderer;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.sql.Clob;
 import java.sql.ResultSet;
@@ -32,9 +37,11 @@ public class ResultSetRenderer implements Interruptable {
 
     private boolean _beyondLimit;
     private long _firstRowTime;
-    private final long _clobLimit = 8192;
+    private static final long CLOB_LIMIT = 8192;
     private final int _rowLimit;
     private volatile boolean _running;
+    private ResultStore _store;
+    private FetchSizeController.Tuner _tuner;
 
     public ResultSetRenderer(final ResultSet rset, final String columnDelimiter,
             final boolean enableHeader, final boolean enableFooter, final int limit,
@@ -46,8 +53,8 @@ public class ResultSetRenderer implements Interruptable {
         _rowLimit = limit;
         _meta = rset.getMetaData();
         _columns = show != null ? show.length : _meta.getColumnCount();
-        _table = new TableRenderer(getDisplayMeta(_meta), out, columnDelimiter,
-                enableHeader, enableFooter);
+        _table = new TableRenderer(createDisplayMeta(_meta, show), out,
+                columnDelimiter, enableHeader, enableFooter);
     }
 
     public ResultSetRenderer(final ResultSet rset, final String columnDelimiter,
@@ -62,16 +69,39 @@ public class ResultSetRenderer implements Interruptable {
         _running = false;
     }
 
+    /**
+     * keep all rows read in the given store. Only possible, if all columns are
+     * shown.
+     */
+    public void setResultStore(final ResultStore store) {
+        _store = _showColumns == null ? store : null;
+    }
+
+    /**
+     * inform the given tuner about the rows read.
+     */
+    public void setFetchSizeTuner(final FetchSizeController.Tuner tuner) {
+        _tuner = tuner;
+    }
+
+    /**
+     * the store containing the rows read or null, if the rows could not be
+     * stored.
+     */
+    public ResultStore getResultStore() {
+        return _store;
+    }
+
     public ColumnMetaData[] getDisplayMetaData() {
         return _table.getMetaData();
     }
 
-    private String readClob(final Clob c) throws SQLException {
+    private static String readClob(final Clob c) throws SQLException {
         if (c == null) {
             return null;
         }
         final StringBuilder result = new StringBuilder();
-        long restLimit = _clobLimit;
+        long restLimit = CLOB_LIMIT;
         try {
             final Reader in = c.getCharacterStream();
             final char buf[] = new char[4096];
@@ -96,33 +126,46 @@ public class ResultSetRenderer implements Interruptable {
         int rows = 0;
 
         _running = true;
+        final TraceSpan fetch = Tracer.start(Tracer.FETCH);
+        TraceSpan firstRow = Tracer.start(Tracer.FIRST_ROW);
         try {
             while (_running && _rset.next()) {
                 final Column[] currentRow = new Column[_columns];
+                final String[] values = new String[_columns];
                 for (int i = 0; i < _columns; ++i) {
                     final int col = _showColumns != null ? _showColumns[i] : i + 1;
-                    String colString;
-                    if (_meta.getColumnType(col) == Types.CLOB) {
-                        colString = readClob(_rset.getClob(col));
-                    } else {
-                        colString = _rset.getString(col);
-                    }
+                    final String colString = readColumn(_rset, _meta, col);
                     final Column thisCol = new Column(colString);
                     currentRow[i] = thisCol;
+                    values[i] = colString;
+                }
+                _store = storeRow(_store, values);
+                if (_tuner != null) {
+                    _tuner.rowRead(values);
                 }
                 if (_firstRowTime < 0) {
                     // read first row completely.
                     _firstRowTime = System.currentTimeMillis();
+                    firstRow.setRows(1);
+                    firstRow.finish();
+                    firstRow = null;
                 }
                 _table.addRow(currentRow);
                 ++rows;
                 if (rows >= _rowLimit) {
-                    _beyondLimit = true;
+                    // only look ahead one row, so that we don't report a
+                    // limit on results that have exactly limit rows.
+                    _beyondLimit = _rset.next();
                     break;
                 }
             }
 
+            fetch.setRows(rows);
+            fetch.finish();
+            final TraceSpan render = Tracer.start(Tracer.RENDER);
             _table.closeTable();
+            render.setRows(rows);
+            render.finish();
             if (!_running) {
                 try {
                     _rset.getStatement().cancel();
@@ -130,8 +173,26 @@ public class ResultSetRenderer implements Interruptable {
                     HenPlus.msg().println(
                             "cancel statement failed: " + e.getMessage());
                 }
+            } else if (_beyondLimit) {
+                /*
+                 * some drivers (e.g. streaming result sets) read all remaining
+                 * rows on close; cancel first, so that we don't wait for rows
+                 * nobody is going to see.
+                 */
+                try {
+                    _rset.getStatement().cancel();
+                } catch (final Exception e) {
+                    /* not supported: close() has to do the work then */
+                }
             }
         } finally {
+            if (firstRow != null) {
+                // no rows.
+                firstRow.finish();
+            }
+            if (_tuner != null) {
+                _tuner.finish();
+            }
             _rset.close();
         }
         return rows;
@@ -145,15 +206,49 @@ public class ResultSetRenderer implements Interruptable {
         return _firstRowTime;
     }
 
+    /**
+     * add the row to the store. If this fails, the store is discarded and
+     * null is returned.
+     */
+    static ResultStore storeRow(final ResultStore store, final String[] row) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            store.addRow(row);
+            return store;
+        } catch (final IOException e) {
+            HenPlus.msg().println("result not kept: " + e.getMessage());
+        } catch (final NumberFormatException e) {
+            HenPlus.msg().println("result not kept: " + e.getMessage());
+        }
+        store.close();
+        return null;
+    }
+
+    /**
+     * read the string representation of the given column of the current row;
+     * CLOBs are read up to a limit.
+     */
+    static String readColumn(final ResultSet rset, final ResultSetMetaData meta,
+            final int col) throws SQLException {
+        if (meta.getColumnType(col) == Types.CLOB) {
+            return readClob(rset.getClob(col));
+        }
+        return rset.getString(col);
+    }
+
     /**
      * determine meta data necesary for display.
      */
-    private ColumnMetaData[] getDisplayMeta(final ResultSetMetaData m)
-    throws SQLException {
-        final ColumnMetaData result[] = new ColumnMetaData[_columns];
+    static ColumnMetaData[] createDisplayMeta(final ResultSetMetaData m,
+            final int[] showColumns) throws SQLException {
+        final int columns = showColumns != null ? showColumns.length : m
+                .getColumnCount();
+        final ColumnMetaData result[] = new ColumnMetaData[columns];
 
         for (int i = 0; i < result.length; ++i) {
-            final int col = _showColumns != null ? _showColumns[i] : i + 1;
+            final int col = showColumns != null ? showColumns[i] : i + 1;
             int alignment = ColumnMetaData.ALIGN_LEFT;
             final String columnLabel = m.getColumnLabel(col);
             /*
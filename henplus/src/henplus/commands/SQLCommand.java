@@ -12,17 +12,27 @@ import henplus.HenPlus;
 import henplus.PropertyRegistry;
 import henplus.SQLSession;
 import henplus.SigIntHandler;
+import henplus.event.TraceSpan;
+import henplus.event.Tracer;
+import henplus.io.ResultStore;
+import henplus.util.SQLParameterizer;
 import henplus.property.PropertyHolder;
 import henplus.property.BooleanPropertyHolder;
 import henplus.view.util.NameCompleter;
 import henplus.view.util.CancelWriter;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -33,6 +43,10 @@ import java.util.Map.Entry;
  */
 public final class SQLCommand extends AbstractCommand {
     private static final boolean VERBOSE = HenPlus.VERBOSE;
+    /** heap used for the last result before it is memory mapped */
+    private static final long RESULT_STORE_MEMORY = 16 * 1024 * 1024;
+    /** words of a 'create' statement looked at to find procedures */
+    private static final int PROCEDURE_HEADER_WORDS = 6;
     private static final String[] TABLE_COMPLETER_KEYWORD = { "FROM", "INTO",
         "UPDATE", "TABLE", "ALIAS", "VIEW", /* create index */"ON" };
 
@@ -56,6 +70,15 @@ public final class SQLCommand extends AbstractCommand {
     private int _rowLimit;
     private boolean _showHeader;
     private boolean _showFooter;
+    private boolean _usePager;
+    private boolean _keepResult;
+    private boolean _autoParameterize;
+    private boolean _bindVariables;
+    private ResultStore _lastResult;
+    private int _lastRowCount;
+    private long _lastFirstRowTime;
+    private JobCommand _jobs;
+    private StatementBatcher _batcher;
     private volatile boolean _running;
     private StatementCanceller _statementCanceller;
 
@@ -66,6 +89,7 @@ public final class SQLCommand extends AbstractCommand {
     }
 
     private LongRunningTimeDisplay _longRunningDisplay;
+    private boolean _helperThreadsStarted;
 
     public SQLCommand(final ListUserObjectsCommand tc, final PropertyRegistry registry) {
         _tableCompleter = tc;
@@ -73,6 +97,7 @@ public final class SQLCommand extends AbstractCommand {
         _rowLimit = 2000;
         _showHeader = true;
         _showFooter = true;
+        _keepResult = true;
         registry.registerProperty("column-delimiter",
                 new SQLColumnDelimiterProperty());
         registry.registerProperty("sql-result-limit", new RowLimitProperty());
@@ -80,12 +105,30 @@ public final class SQLCommand extends AbstractCommand {
                 new ShowHeaderProperty());
         registry.registerProperty("sql-result-showfooter",
                 new ShowFooterProperty());
+        registry.registerProperty("sql-result-pager", new PagerProperty());
+        registry.registerProperty("sql-result-store", new ResultStoreProperty());
+        registry.registerProperty("sql-auto-parameterize",
+                new AutoParameterizeProperty());
+        registry.registerProperty("sql-bind-variables",
+                new BindVariablesProperty());
         _statementCanceller = new StatementCanceller(
                 new CurrentStatementCancelTarget());
-        new Thread(_statementCanceller).start();
         _longRunningDisplay = new LongRunningTimeDisplay("statement running",
                 30000);
+    }
+
+    /**
+     * the threads that cancel statements and show the time of long running
+     * statements are only started with the first statement; many sessions,
+     * e.g. scripts that fail to connect, never execute one.
+     */
+    private synchronized void startHelperThreads() {
+        if (_helperThreadsStarted) {
+            return;
+        }
+        new Thread(_statementCanceller).start();
         new Thread(_longRunningDisplay).start();
+        _helperThreadsStarted = true;
     }
 
     /**
@@ -106,27 +149,34 @@ public final class SQLCommand extends AbstractCommand {
      * beginning of a line.
      */
     @Override
-    public boolean isComplete(String command) {
-        command = command.toUpperCase(); // fixme: expensive.
-        if (command.startsWith("COMMIT") || command.startsWith("ROLLBACK")) {
+    public boolean isComplete(final String command) {
+        return isComplete((CharSequence) command);
+    }
+
+    /**
+     * like {@link #isComplete(String)}. Only looks at the first words and the
+     * end of the command, so that it can be asked after each line of a long
+     * statement without rescanning it.
+     */
+    public boolean isComplete(final CharSequence command) {
+        if (startsWithWord(command, "COMMIT")
+                || startsWithWord(command, "ROLLBACK")) {
             return true;
         }
         // FIXME: this is a very dumb 'parser'.
         // i.e. string literals are not considered.
-        final boolean anyProcedure = command.startsWith("BEGIN")
-                || command.startsWith("DECLARE") || (command
-                        .startsWith("CREATE") || command.startsWith("REPLACE")) && (containsWord(
-                                command, "PROCEDURE")
-                                || containsWord(command, "FUNCTION")
-                                || containsWord(command, "PACKAGE") || containsWord(command,
-                                "TRIGGER"));
-
-        if (!anyProcedure && command.endsWith(";")) {
+        final boolean anyProcedure = startsWithWord(command, "BEGIN")
+        || startsWithWord(command, "DECLARE")
+        || (startsWithWord(command, "CREATE") || startsWithWord(command,
+        "REPLACE")) && declaresProcedure(command);
+
+        final int length = command.length();
+        if (!anyProcedure && length > 0 && command.charAt(length - 1) == ';') {
             return true;
         }
         // sqlplus is complete on a single '/' on a line.
-        if (command.length() >= 3) {
-            final int lastPos = command.length() - 1;
+        if (length >= 3) {
+            final int lastPos = length - 1;
             if (command.charAt(lastPos) == '\n'
                 && command.charAt(lastPos - 1) == '/'
                     && command.charAt(lastPos - 2) == '\n') {
@@ -136,6 +186,50 @@ public final class SQLCommand extends AbstractCommand {
         return false;
     }
 
+    /**
+     * the command starts with the given (upper case) word, ignoring case; a
+     * prefix of a longer word matches as well, as it always did.
+     */
+    private static boolean startsWithWord(final CharSequence command,
+            final String word) {
+        final int len = word.length();
+        if (command.length() < len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (Character.toUpperCase(command.charAt(i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * looks, if one of the first words of a 'create' statement says, that a
+     * stored procedure, function, package or trigger is created; e.g.
+     * 'CREATE OR REPLACE EDITIONABLE PACKAGE BODY'.
+     */
+    private static boolean declaresProcedure(final CharSequence command) {
+        final int length = command.length();
+        int pos = 0;
+        for (int word = 0; word < PROCEDURE_HEADER_WORDS && pos < length; ++word) {
+            while (pos < length && Character.isWhitespace(command.charAt(pos))) {
+                ++pos;
+            }
+            final int start = pos;
+            while (pos < length && !Character.isWhitespace(command.charAt(pos))) {
+                ++pos;
+            }
+            final String token = command.subSequence(start, pos).toString()
+            .toUpperCase();
+            if ("PROCEDURE".equals(token) || "FUNCTION".equals(token)
+                    || "PACKAGE".equals(token) || "TRIGGER".equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setColumnDelimiter(final String value) {
         _columnDelimiter = value;
     }
@@ -168,6 +262,107 @@ public final class SQLCommand extends AbstractCommand {
         return _showFooter;
     }
 
+    public void setUsePager(final boolean b) {
+        _usePager = b;
+    }
+
+    public boolean isUsePager() {
+        return _usePager;
+    }
+
+    public void setAutoParameterize(final boolean b) {
+        _autoParameterize = b;
+    }
+
+    public boolean isAutoParameterize() {
+        return _autoParameterize;
+    }
+
+    public void setBindVariables(final boolean b) {
+        _bindVariables = b;
+    }
+
+    /**
+     * true, if variables within SQL statements are to be passed as bind
+     * parameters instead of being substituted textually.
+     */
+    public boolean isBindVariables() {
+        return _bindVariables;
+    }
+
+    /**
+     * run statements ending with '&' as jobs of the given job command.
+     */
+    public void setJobCommand(final JobCommand jobs) {
+        _jobs = jobs;
+    }
+
+    /**
+     * collect DML read from scripts in the given batcher.
+     */
+    public void setStatementBatcher(final StatementBatcher batcher) {
+        _batcher = batcher;
+    }
+
+    public void setKeepResult(final boolean b) {
+        _keepResult = b;
+        if (!b) {
+            setLastResult(null);
+        }
+    }
+
+    public boolean isKeepResult() {
+        return _keepResult;
+    }
+
+    /**
+     * the rows of the last query read or null, if there is none.
+     */
+    public ResultStore getLastResult() {
+        return _lastResult;
+    }
+
+    /**
+     * the number of rows read or affected by the last statement executed;
+     * -1 if unknown, e.g. if it failed.
+     */
+    public int getLastRowCount() {
+        return _lastRowCount;
+    }
+
+    /**
+     * the milliseconds until the first row of the last query was read; -1 if
+     * the last statement has not been a query.
+     */
+    public long getLastFirstRowTime() {
+        return _lastFirstRowTime;
+    }
+
+    private void setLastResult(final ResultStore store) {
+        if (_lastResult != null && _lastResult != store) {
+            _lastResult.close();
+        }
+        _lastResult = store;
+    }
+
+    /**
+     * create a store for the given result, if we keep results.
+     */
+    private ResultStore createResultStore(final ResultSet rset) {
+        setLastResult(null);
+        if (!isKeepResult()) {
+            return null;
+        }
+        try {
+            return new ResultStore(rset.getMetaData(), RESULT_STORE_MEMORY);
+        } catch (final Exception e) {
+            if (VERBOSE) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
     /**
      * A statement cancel target that accesses the instance wide statement.
      */
@@ -192,15 +387,172 @@ public final class SQLCommand extends AbstractCommand {
     }
 
     /**
-     * looks, if this word is contained in 'all', preceeded and followed by a
-     * whitespace.
+     * determine, if the driver is able to provide scrollable result sets.
+     */
+    private boolean supportsScrolling(final SQLSession session) {
+        try {
+            return session.getConnection().getMetaData().supportsResultSetType(
+                    ResultSet.TYPE_SCROLL_INSENSITIVE);
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private boolean isParameterizable(final String cmd) {
+        return isQuery(cmd) || "insert".equalsIgnoreCase(cmd)
+                || "update".equalsIgnoreCase(cmd)
+                || "delete".equalsIgnoreCase(cmd)
+                || "merge".equalsIgnoreCase(cmd);
+    }
+
+    /**
+     * return the cached prepared statement for the command with the
+     * parameters bound. The command may already contain placeholders for
+     * bound variables; if auto-parameterization is on, literals are lifted
+     * into parameters as well. Returns null, if there is nothing to bind or
+     * the database does not accept the parameterized statement; the command
+     * is then to be executed with the values substituted textually.
+     */
+    /**
+     * whether the database refused the parameterized form of a statement,
+     * so that it has not been executed: a dynamic SQL error (SQLState class
+     * 07), a syntax or access rule violation (42) or a feature not supported
+     * (0A). Other errors, e.g. deadlocks, are not retried.
+     */
+    private static boolean isRejectedForm(final SQLException e) {
+        final String state = e.getSQLState();
+        return state != null
+        && (state.startsWith("07") || state.startsWith("42") || state
+                .startsWith("0A"));
+    }
+
+    /**
+     * a savepoint to return to if the parameterized form is refused within
+     * a transaction, e.g. PostgreSQL aborts the transaction on any error.
+     * Null in auto-commit mode or if the driver has no savepoints.
+     */
+    private static Savepoint setSavepoint(final Connection conn) {
+        try {
+            if (conn.getAutoCommit()
+                    || !conn.getMetaData().supportsSavepoints()) {
+                return null;
+            }
+            return conn.setSavepoint();
+        } catch (final SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * whether the statement can be run again after the refused one: in
+     * auto-commit mode, or within the transaction after rolling back to the
+     * savepoint set before.
+     */
+    private static boolean canRetry(final Connection conn,
+            final Savepoint savepoint) {
+        try {
+            if (savepoint == null) {
+                return conn.getAutoCommit();
+            }
+            conn.rollback(savepoint);
+            return true;
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    private static void releaseSavepoint(final Connection conn,
+            final Savepoint savepoint) {
+        if (savepoint == null) {
+            return;
+        }
+        try {
+            conn.releaseSavepoint(savepoint);
+        } catch (final SQLException e) {
+            /* released with the transaction anyway */
+        }
+    }
+
+    private PreparedStatement prepareParameterized(final SQLSession session,
+            final String command, final List<Object> boundValues) {
+        return prepareParameterized(session, command, boundValues,
+                isAutoParameterize());
+    }
+
+    private PreparedStatement prepareParameterized(final SQLSession session,
+            final String command, final List<Object> boundValues,
+            final boolean autoParameterize) {
+        SQLParameterizer parameterized = null;
+        if (autoParameterize) {
+            parameterized = boundValues != null ? SQLParameterizer
+                    .parameterize(command, boundValues) : SQLParameterizer
+                    .parameterize(command);
+        }
+        final String sql = parameterized != null ? parameterized.getSQL()
+                : command;
+        final List<Object> values = parameterized != null ? parameterized
+                .getParameters() : boundValues;
+        if (values == null) {
+            return null;
+        }
+        try {
+            final PreparedStatement stmt = session.prepareCached(sql);
+            stmt.clearParameters();
+            bindParameters(stmt, values);
+            return stmt;
+        } catch (final SQLException e) {
+            // e.g. placeholders not allowed at some position.
+            if (VERBOSE) {
+                e.printStackTrace();
+            }
+            if (boundValues != null && parameterized != null) {
+                // only bind the variables then.
+                return prepareParameterized(session, command, boundValues,
+                        false);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * bind the values (Strings, Longs, BigDecimals or other objects) to the
+     * parameters of the statement.
+     */
+    static void bindParameters(final PreparedStatement stmt,
+            final List<Object> values) throws SQLException {
+        for (int i = 0; i < values.size(); ++i) {
+            final Object value = values.get(i);
+            if (value instanceof String) {
+                stmt.setString(i + 1, (String) value);
+            } else if (value instanceof Long) {
+                stmt.setLong(i + 1, ((Long) value).longValue());
+            } else if (value instanceof BigDecimal) {
+                stmt.setBigDecimal(i + 1, (BigDecimal) value);
+            } else {
+                stmt.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private boolean isQuery(final String cmd) {
+        return "select".equalsIgnoreCase(cmd) || "with".equalsIgnoreCase(cmd);
+    }
+
+    /**
+     * let the server know, that we are not going to read more than the
+     * row limit. One more row is requested to tell if the limit has been
+     * reached. Only done for queries, as some drivers apply the maximum to
+     * the rows affected by updates as well.
      */
-    private boolean containsWord(final String all, final String word) {
-        final int wordLen = word.length();
-        final int index = all.indexOf(word);
-        return index >= 0
-                && (index == 0 || Character.isWhitespace(all.charAt(index - 1))) && Character
-                        .isWhitespace(all.charAt(index + wordLen));
+    private void limitRows(final Statement stmt) {
+        if (getRowLimit() == Integer.MAX_VALUE) {
+            return;
+        }
+        try {
+            stmt.setMaxRows(getRowLimit() + 1);
+        } catch (final Exception e) {
+            /* ignore; we stop reading ourself */
+        }
     }
 
     /**
@@ -208,45 +560,140 @@ public final class SQLCommand extends AbstractCommand {
      */
     public int execute(final SQLSession session, final String cmd, final String param) {
         String command = cmd + " " + param;
-        // boolean background = false;
 
         if (command.endsWith("/")) {
             command = command.substring(0, command.length() - 1);
         }
 
-        // if (command.endsWith("&")) {
-        // command = command.substring(0, command.length()-1);
-        // HenPlus.msg().println(
-        // "## executing command in the background not yet supported");
-        // background = true;
-        // }
+        // with bound variables: the command with their placeholders.
+        String boundCommand = null;
+        List<Object> boundValues = null;
+        if (isBindVariables()) {
+            final Map variables = HenPlus.getInstance().getVariableMap();
+            final boolean textual = command.endsWith("&")
+            || !isParameterizable(cmd)
+            || _batcher != null && _batcher.accepts(cmd, command);
+            final SQLParameterizer bound = textual ? null : SQLParameterizer
+                    .bindVariables(command, variables);
+            if (bound != null && !bound.getParameters().isEmpty()) {
+                // variables within literals are substituted anyway.
+                boundCommand = HenPlus.getInstance().varsubst(bound.getSQL(),
+                        variables);
+                boundValues = bound.getParameters();
+            }
+            // the textual form, if the bound one is refused.
+            command = HenPlus.getInstance().varsubst(command, variables);
+        }
+
+        // nothing known yet; batched and background statements stay so.
+        _lastRowCount = -1;
+        _lastFirstRowTime = -1;
+
+        if (command.endsWith("&") && _jobs != null) {
+            command = command.substring(0, command.length() - 1).trim();
+            final int id = _jobs.submit(session, command, getRowLimit());
+            HenPlus.msg().println("[" + id + "] started in background");
+            return SUCCESS;
+        }
+
+        if (_batcher != null && _batcher.accepts(cmd, command)) {
+            try {
+                _batcher.add(session, command);
+                return SUCCESS;
+            } catch (final SQLException e) {
+                HenPlus.msg().println("FAILURE: " + e.getMessage());
+                return EXEC_FAILED;
+            }
+        }
 
         final long startTime = System.currentTimeMillis();
         long lapTime = -1;
         long execTime = -1;
         ResultSet rset = null;
         _running = true;
+        startHelperThreads();
         SigIntHandler.getInstance().pushInterruptable(_statementCanceller);
         try {
             if (command.startsWith("commit")) {
                 session.print("commit..");
                 session.getConnection().commit();
                 session.println(".done.");
+                _tableCompleter.transactionEnded(session);
             } else if (command.startsWith("rollback")) {
                 session.print("rollback..");
                 session.getConnection().rollback();
                 session.println(".done.");
+                _tableCompleter.transactionEnded(session);
             } else {
-                _stmt = session.createStatement();
-                try {
-                    _stmt.setFetchSize(200);
-                } catch (final Exception e) {
-                    /* ignore */
+                final boolean paging = isUsePager() && session.printMessages()
+                && ResultSetPager.isAvailable();
+                final boolean scrolling = paging && boundValues == null
+                && supportsScrolling(session);
+                PreparedStatement prepared = null;
+                if (boundValues != null) {
+                    prepared = prepareParameterized(session, boundCommand,
+                            boundValues);
+                } else if (!scrolling && isAutoParameterize()
+                        && isParameterizable(cmd)) {
+                    prepared = prepareParameterized(session, command, null);
+                }
+                if (prepared != null) {
+                    _stmt = prepared;
+                } else if (scrolling) {
+                    _stmt = session.createStatement(
+                            ResultSet.TYPE_SCROLL_INSENSITIVE,
+                            ResultSet.CONCUR_READ_ONLY);
+                } else {
+                    _stmt = session.createStatement();
+                }
+                session.getFetchSizeController().prepare(_stmt);
+                if (!paging && isQuery(cmd)) {
+                    limitRows(_stmt);
+                } else if (prepared != null) {
+                    // cached statement; may still carry a previous limit.
+                    prepared.setMaxRows(0);
                 }
 
                 _statementCanceller.arm();
                 _longRunningDisplay.arm();
-                final boolean hasResultSet = _stmt.execute(command);
+                final TraceSpan span = Tracer.start(Tracer.EXECUTE);
+                boolean hasResultSet;
+                try {
+                    span.setSQL(command);
+                    if (prepared == null) {
+                        hasResultSet = _stmt.execute(command);
+                    } else {
+                        final Connection conn = session.getConnection();
+                        final Savepoint savepoint = setSavepoint(conn);
+                        try {
+                            hasResultSet = prepared.execute();
+                        } catch (final SQLException e) {
+                            if (!_running || !isRejectedForm(e)
+                                    || !canRetry(conn, savepoint)) {
+                                throw e;
+                            }
+                            /*
+                             * the bound or auto-parameterized form refused
+                             * by a driver that prepares lazily: run the
+                             * original text, but tell why.
+                             */
+                            HenPlus.msg().println(
+                                    "parameterized statement refused: "
+                                    + e.getMessage().trim()
+                                    + "; executing it as text.");
+                            prepared = null;
+                            _stmt = session.createStatement();
+                            session.getFetchSizeController().prepare(_stmt);
+                            if (!paging && isQuery(cmd)) {
+                                limitRows(_stmt);
+                            }
+                            hasResultSet = _stmt.execute(command);
+                        }
+                        releaseSavepoint(conn, savepoint);
+                    }
+                } finally {
+                    span.finish();
+                }
                 _longRunningDisplay.disarm();
 
                 if (!_running) {
@@ -254,15 +701,37 @@ public final class SQLCommand extends AbstractCommand {
                     return SUCCESS;
                 }
 
-                if (hasResultSet) {
+                if (hasResultSet && paging) {
+                    rset = _stmt.getResultSet();
+                    final ResultSetPager pager = new ResultSetPager(rset,
+                            getColumnDelimiter(), isShowHeader(),
+                            isShowFooter(), getRowLimit(), HenPlus.out());
+                    pager.setResultStore(createResultStore(rset));
+                    pager.setFetchSizeTuner(session.getFetchSizeController()
+                            .createTuner(rset));
+                    SigIntHandler.getInstance().pushInterruptable(pager);
+                    final int rows = pager.execute();
+                    SigIntHandler.getInstance().popInterruptable();
+                    setLastResult(pager.getResultStore());
+                    _lastRowCount = rows;
+                    session.print(rows + " row" + (rows == 1 ? "" : "s")
+                            + (pager.isExhausted() ? " in result" : " fetched"));
+                    lapTime = pager.getFirstRowTime() - startTime;
+                    _lastFirstRowTime = lapTime >= 0 ? lapTime : -1;
+                } else if (hasResultSet) {
                     rset = _stmt.getResultSet();
                     ResultSetRenderer renderer;
                     renderer = new ResultSetRenderer(rset,
                             getColumnDelimiter(), isShowHeader(),
                             isShowFooter(), getRowLimit(), HenPlus.out());
+                    renderer.setResultStore(createResultStore(rset));
+                    renderer.setFetchSizeTuner(session
+                            .getFetchSizeController().createTuner(rset));
                     SigIntHandler.getInstance().pushInterruptable(renderer);
                     final int rows = renderer.execute();
                     SigIntHandler.getInstance().popInterruptable();
+                    setLastResult(renderer.getResultStore());
+                    _lastRowCount = rows;
                     if (renderer.limitReached()) {
                         session.println("limit of " + getRowLimit()
                                 + " rows reached ..");
@@ -271,8 +740,10 @@ public final class SQLCommand extends AbstractCommand {
                     session.print(rows + " row" + (rows == 1 ? "" : "s")
                             + " in result");
                     lapTime = renderer.getFirstRowTime() - startTime;
+                    _lastFirstRowTime = lapTime >= 0 ? lapTime : -1;
                 } else {
                     final int updateCount = _stmt.getUpdateCount();
+                    _lastRowCount = updateCount;
                     if (updateCount >= 0) {
                         session.print("affected " + updateCount + " rows");
                     } else {
@@ -294,8 +765,9 @@ public final class SQLCommand extends AbstractCommand {
                 session.println(")");
             }
 
-            // be smart and retrigger hashing of the tablenames.
-            if ("drop".equals(cmd) || "create".equals(cmd)) {
+            // be smart and retrigger hashing of the table and column names.
+            if ("drop".equals(cmd) || "create".equals(cmd)
+                    || "alter".equals(cmd) || "rename".equalsIgnoreCase(cmd)) {
                 _tableCompleter.unhash(session);
             }
 
@@ -328,7 +800,7 @@ public final class SQLCommand extends AbstractCommand {
             } catch (final Exception e) {
             }
             try {
-                if (_stmt != null) {
+                if (_stmt != null && !session.isCached(_stmt)) {
                     _stmt.close();
                 }
             } catch (final Exception e) {
@@ -397,7 +869,7 @@ public final class SQLCommand extends AbstractCommand {
                 if (tabName == null) {
                     continue;
                 }
-                final Collection<String> columns = _tableCompleter.columnsFor(tabName);
+                final Collection<String> columns = _tableCompleter.getKnownColumns(tabName);
                 final Iterator<String> cit = columns.iterator();
                 while (cit.hasNext()) {
                     final String col = cit.next();
@@ -501,6 +973,7 @@ public final class SQLCommand extends AbstractCommand {
     @Override
     public void shutdown() {
         _statementCanceller.stopThread();
+        setLastResult(null);
     }
 
     @Override
@@ -623,7 +1096,175 @@ public final class SQLCommand extends AbstractCommand {
 
         @Override
         public String getShortDescription() {
-            return "set the maximum number of rows printed";
+            return "set the maximum number of rows printed or paged";
+        }
+    }
+
+    private class PagerProperty extends BooleanPropertyHolder {
+
+        public PagerProperty() {
+            super(false);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            setUsePager(value);
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        /**
+         * return a short descriptive string.
+         */
+        @Override
+        public String getShortDescription() {
+            return "page through results instead of cutting them off";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tIf switched on, results of interactive queries are not\n"
+                + "\tcut off after 'sql-result-limit' rows. Instead the\n"
+                + "\tresult is shown in windows of that size and fetched\n"
+                + "\tlazily while you page forth and back through it. The\n"
+                + "\tquery is executed only once. If the driver supports\n"
+                + "\tscrollable cursors, these are used; otherwise the rows\n"
+                + "\tseen so far are kept in a temporary file.";
+            return dsc;
+        }
+    }
+
+    private class ResultStoreProperty extends BooleanPropertyHolder {
+
+        public ResultStoreProperty() {
+            super(true);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            setKeepResult(value);
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "on";
+        }
+
+        /**
+         * return a short descriptive string.
+         */
+        @Override
+        public String getShortDescription() {
+            return "keep the last result for the 'result' command";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tIf switched on, the rows read from the last query are\n"
+                + "\tkept in a compact client side store, so that they can\n"
+                + "\tbe sorted, filtered, shown and exported with the\n"
+                + "\t'result' command without running the query again.\n"
+                + "\tThe store is held in memory up to a limit and memory\n"
+                + "\tmapped from a temporary file beyond that.";
+            return dsc;
+        }
+    }
+
+    private class AutoParameterizeProperty extends BooleanPropertyHolder {
+
+        public AutoParameterizeProperty() {
+            super(false);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            setAutoParameterize(value);
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        /**
+         * return a short descriptive string.
+         */
+        @Override
+        public String getShortDescription() {
+            return "execute literals as bind parameters";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tIf switched on, numeric and string literals in select,\n"
+                + "\tinsert, update, delete and merge statements are passed\n"
+                + "\tas bind parameters of a prepared statement. Prepared\n"
+                + "\tstatements are cached per session (see the session\n"
+                + "\tproperty 'statement-cache-size'), so statements that\n"
+                + "\tonly differ in their literals are parsed and planned\n"
+                + "\tonly once by the server. Positional ORDER BY/GROUP BY\n"
+                + "\tcolumns and typed literals (DATE '..') are left as\n"
+                + "\tthey are. If the database does not accept the\n"
+                + "\tparameterized statement, when preparing it or with a\n"
+                + "\tsyntax or unsupported feature error when executing it,\n"
+                + "\tit is executed as is; within a transaction only if the\n"
+                + "\tdriver supports savepoints. Statements with backslashes\n"
+                + "\tin their literals or E'..' literals are never\n"
+                + "\tparameterized, since their escapes depend on the\n"
+                + "\tdatabase.";
+            return dsc;
+        }
+    }
+
+    private class BindVariablesProperty extends BooleanPropertyHolder {
+
+        public BindVariablesProperty() {
+            super(false);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            setBindVariables(value);
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        /**
+         * return a short descriptive string.
+         */
+        @Override
+        public String getShortDescription() {
+            return "pass variables in SQL as bind parameters";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tIf switched on, variables ($VAR or ${VAR}, see\n"
+                + "\t'set-var') in SQL statements are not substituted\n"
+                + "\ttextually but passed as bind parameters of a cached\n"
+                + "\tprepared statement. Values that look like numbers are\n"
+                + "\tbound as numbers, all others as strings. So the SQL\n"
+                + "\ttext stays the same for all values, which lets the\n"
+                + "\tserver reuse its plans and values cannot change the\n"
+                + "\tstatement. Only queries and DML are bound, and only\n"
+                + "\tvariables where a value is expected: after an\n"
+                + "\toperator, LIKE, BETWEEN, THEN, ELSE or in a list after\n"
+                + "\tIN or VALUES. Variables naming tables or columns, within\n"
+                + "\tstring literals and in statements run in the background\n"
+                + "\tor batched are substituted textually as before; so is\n"
+                + "\tthe whole statement, if the database refuses the bound\n"
+                + "\tform (see 'sql-auto-parameterize').";
+            return dsc;
         }
     }
 
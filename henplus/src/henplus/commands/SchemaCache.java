@@ -0,0 +1,489 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.io.ConfigurationContainer;
+import henplus.view.util.NameCompleter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The table and column names of a database, kept in the configuration
+ * directory for each url and user, so that they can be completed right
+ * after connecting. Loading and reading the names from the database is done
+ * in the background, so the completion never waits for it: it gets the names
+ * read so far. What is read from disk may be outdated, it is refreshed right
+ * after it is loaded; caches older than MAX_AGE are not used at all.
+ */
+final class SchemaCache {
+    private static final String CACHE_DIR = "schema-cache";
+    private static final int FORMAT_VERSION = 1;
+    private static final long MAX_AGE = 7L * 24 * 3600 * 1000;
+    private static final String[] LIST_TABLES_VIEWS = { "TABLE", "VIEW" };
+
+    // how much the names can be trusted.
+    /** read from disk; the refresh has not finished yet */
+    private static final int LOADED = 0;
+    /** read from the database in this session */
+    private static final int FRESH = 1;
+    /** not read yet, or the session changed the schema since */
+    private static final int DIRTY = 2;
+
+    private final SQLSession _session;
+    private final ConfigurationContainer _container;
+
+    /*
+     * the completion reads these without locking: the maps and completers
+     * are replaced as a whole, never changed once they are visible.
+     */
+    /** the columns by table; null for tables whose columns are not known */
+    private volatile SortedMap<String, SortedSet<String>> _tables;
+    private volatile NameCompleter _tableCompleter;
+    private volatile NameCompleter _columnCompleter;
+    private volatile boolean _columnsComplete;
+    private volatile int _state;
+
+    private int _changes;
+    /**
+     * the session changed the schema since the table names were read with
+     * its connection; another connection may not see this yet.
+     */
+    private boolean _pending;
+    /**
+     * the names have been read with another connection while the session's
+     * changes were pending; reading again only helps after they ended.
+     */
+    private boolean _readWhilePending;
+    private boolean _loadTried;
+    private Thread _refresher;
+    /** refresh again after the running refresh */
+    private boolean _again;
+
+    SchemaCache(final HenPlus henplus, final SQLSession session) {
+        _session = session;
+        _container = henplus.createConfigurationContainer(CACHE_DIR
+                + File.separator + getKey(session) + ".names");
+        _tables = new TreeMap<String, SortedSet<String>>();
+        _tableCompleter = new NameCompleter();
+        _columnCompleter = new NameCompleter();
+        _columnsComplete = true;
+        _state = DIRTY;
+    }
+
+    private static String getKey(final SQLSession session) {
+        final String id = session.getURL() + "\n" + session.getUsername();
+        try {
+            final byte[] bytes = MessageDigest.getInstance("SHA-1").digest(
+                    id.getBytes("UTF-8"));
+            final StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < bytes.length; ++i) {
+                hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (final Exception e) {
+            return Integer.toHexString(id.hashCode());
+        }
+    }
+
+    /**
+     * read the names kept for the url and user of the session.
+     *
+     * @return null, if there are none or they are too old.
+     */
+    private SortedMap<String, SortedSet<String>> load() {
+        final SortedMap<String, SortedSet<String>> result = new TreeMap<String, SortedSet<String>>();
+        final boolean[] loaded = new boolean[1];
+        _container.read(new ConfigurationContainer.ReadAction() {
+            public void readConfiguration(final InputStream in)
+            throws Exception {
+                if (in == null) {
+                    return;
+                }
+                final DataInputStream data = new DataInputStream(
+                        new BufferedInputStream(in));
+                if (data.readInt() != FORMAT_VERSION
+                        || !data.readUTF().equals(_session.getURL())
+                        || !data.readUTF().equals(
+                                String.valueOf(_session.getUsername()))
+                                || System.currentTimeMillis() - data.readLong() > MAX_AGE) {
+                    return;
+                }
+                final int tables = data.readInt();
+                for (int i = 0; i < tables; ++i) {
+                    final String table = data.readUTF();
+                    final int columns = data.readInt();
+                    SortedSet<String> names = null;
+                    if (columns >= 0) {
+                        names = new TreeSet<String>();
+                        for (int j = 0; j < columns; ++j) {
+                            names.add(data.readUTF());
+                        }
+                    }
+                    result.put(table, names);
+                }
+                loaded[0] = true;
+            }
+        });
+        return loaded[0] ? result : null;
+    }
+
+    private void save() {
+        final File dir = new File(HenPlus.getInstance()
+                .getConfigurationDirectoryInfo(), CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        final SortedMap<String, SortedSet<String>> tables = _tables;
+        _container.write(new ConfigurationContainer.WriteAction() {
+            public void writeConfiguration(final OutputStream out)
+            throws Exception {
+                final DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(out));
+                data.writeInt(FORMAT_VERSION);
+                data.writeUTF(_session.getURL());
+                data.writeUTF(String.valueOf(_session.getUsername()));
+                data.writeLong(System.currentTimeMillis());
+                data.writeInt(tables.size());
+                for (final Map.Entry<String, SortedSet<String>> entry : tables
+                        .entrySet()) {
+                    data.writeUTF(entry.getKey());
+                    final SortedSet<String> columns = entry.getValue();
+                    data.writeInt(columns != null ? columns.size() : -1);
+                    if (columns != null) {
+                        for (final String column : columns) {
+                            data.writeUTF(column);
+                        }
+                    }
+                }
+                data.flush();
+            }
+        });
+    }
+
+    /**
+     * make the names visible to the completion; the completers are built
+     * before, so that the completion never waits for it.
+     */
+    private void publish(final SortedMap<String, SortedSet<String>> tables,
+            final int state) {
+        final NameCompleter tableCompleter = new NameCompleter(tables
+                .keySet());
+        final NameCompleter columnCompleter = new NameCompleter();
+        boolean complete = true;
+        for (final SortedSet<String> columns : tables.values()) {
+            if (columns == null) {
+                complete = false;
+                continue;
+            }
+            for (final String column : columns) {
+                columnCompleter.addName(column);
+            }
+        }
+        synchronized (this) {
+            _tables = tables;
+            _tableCompleter = tableCompleter;
+            _columnCompleter = columnCompleter;
+            _columnsComplete = complete;
+            _state = state;
+            ++_changes;
+        }
+    }
+
+    /**
+     * the session changed the schema; the table names are to be read again.
+     * Without auto-commit, other connections see the change only after the
+     * session's transaction ends.
+     */
+    void invalidate() {
+        boolean pending = true;
+        try {
+            pending = !_session.getConnection().getAutoCommit();
+        } catch (final SQLException e) {
+            /* assume the worst */
+        }
+        synchronized (this) {
+            _state = DIRTY;
+            _pending = pending;
+            _readWhilePending = false;
+            ++_changes;
+        }
+    }
+
+    /**
+     * the session committed or rolled back: other connections see now what
+     * it changed, so the names pending since are read again.
+     */
+    void transactionEnded() {
+        synchronized (this) {
+            if (!_pending) {
+                return;
+            }
+            _pending = false;
+            _readWhilePending = false;
+        }
+        refresh();
+    }
+
+    /**
+     * returns, if the table names have been read in this session and the
+     * schema has not been changed since.
+     */
+    boolean isFresh() {
+        return _state == FRESH;
+    }
+
+    /**
+     * returns, if the table names are good enough for the completion:
+     * loaded or fresh.
+     */
+    boolean isUsable() {
+        return _state != DIRTY;
+    }
+
+    /**
+     * returns, if the columns of all tables are known.
+     */
+    boolean isColumnsComplete() {
+        return _columnsComplete;
+    }
+
+    NameCompleter getTableCompleter() {
+        return _tableCompleter;
+    }
+
+    /**
+     * the names of all columns known.
+     */
+    NameCompleter getColumnCompleter() {
+        return _columnCompleter;
+    }
+
+    /**
+     * the columns of the table, if known.
+     */
+    SortedSet<String> getColumns(final String table) {
+        return _tables.get(table);
+    }
+
+    void putColumns(final String table, final SortedSet<String> columns) {
+        synchronized (this) {
+            if (!_tables.containsKey(table)) {
+                return;
+            }
+        }
+        final SortedMap<String, SortedSet<String>> tables = new TreeMap<String, SortedSet<String>>(
+                _tables);
+        tables.put(table, columns);
+        publish(tables, _state);
+    }
+
+    /**
+     * read the table names with the connection of the session, which sees
+     * what the session changed even before it is committed. The columns
+     * already known are kept until the next refresh.
+     */
+    void readTables() throws SQLException {
+        final SortedSet<String> names = readTables(_session.getConnection()
+                .getMetaData());
+        final SortedMap<String, SortedSet<String>> known = _tables;
+        final SortedMap<String, SortedSet<String>> tables = new TreeMap<String, SortedSet<String>>();
+        for (final String table : names) {
+            tables.put(table, known.get(table));
+        }
+        publish(tables, FRESH);
+        synchronized (this) {
+            _pending = false;
+            _readWhilePending = false;
+        }
+    }
+
+    private static SortedSet<String> readTables(final DatabaseMetaData meta)
+    throws SQLException {
+        final SortedSet<String> result = new TreeSet<String>();
+        final ResultSet rset = meta.getTables(null, null, null,
+                LIST_TABLES_VIEWS);
+        try {
+            while (rset.next()) {
+                result.add(rset.getString(3));
+            }
+        } finally {
+            rset.close();
+        }
+        return result;
+    }
+
+    /**
+     * the columns of all tables, read at once.
+     */
+    private static Map<String, SortedSet<String>> readColumns(
+            final Connection conn) throws SQLException {
+        final Map<String, SortedSet<String>> result = new HashMap<String, SortedSet<String>>();
+        final ResultSet rset = conn.getMetaData().getColumns(
+                conn.getCatalog(), null, null, null);
+        try {
+            while (rset.next()) {
+                final String table = rset.getString(3);
+                SortedSet<String> columns = result.get(table);
+                if (columns == null) {
+                    columns = new TreeSet<String>();
+                    result.put(table, columns);
+                }
+                columns.add(rset.getString(4));
+            }
+        } finally {
+            rset.close();
+        }
+        return result;
+    }
+
+    /**
+     * read the table and column names in the background, on a connection
+     * borrowed from the session, and store them; nothing is done if this is
+     * running already or if the session's changes pending are all that is
+     * missing. The first time, the names kept on disk are loaded before.
+     */
+    synchronized void refresh() {
+        if (_refresher != null || _readWhilePending) {
+            return;
+        }
+        final boolean load = !_loadTried;
+        _loadTried = true;
+        _refresher = new Thread("henplus-schema-cache") {
+            @Override
+            public void run() {
+                try {
+                    if (load) {
+                        final SortedMap<String, SortedSet<String>> tables = load();
+                        if (tables != null) {
+                            publish(tables, LOADED);
+                        }
+                    }
+                    do {
+                        refreshNow();
+                    } while (takeAgain());
+                } finally {
+                    synchronized (SchemaCache.this) {
+                        _refresher = null;
+                        SchemaCache.this.notifyAll();
+                    }
+                }
+            }
+        };
+        _refresher.setDaemon(true);
+        _refresher.start();
+    }
+
+    private synchronized boolean takeAgain() {
+        final boolean again = _again;
+        _again = false;
+        return again;
+    }
+
+    private void refreshNow() {
+        final int changes;
+        synchronized (this) {
+            changes = _changes;
+        }
+        Connection conn = null;
+        try {
+            conn = _session.borrowConnection();
+            final SortedSet<String> names = readTables(conn.getMetaData());
+            final Map<String, SortedSet<String>> columns = readColumns(conn);
+            final SortedMap<String, SortedSet<String>> tables;
+            final int state;
+            synchronized (this) {
+                if (changes == _changes) {
+                    // nothing happened meanwhile; this is all there is.
+                    tables = new TreeMap<String, SortedSet<String>>();
+                    for (final String table : names) {
+                        final SortedSet<String> tableColumns = columns
+                        .get(table);
+                        tables.put(table, tableColumns != null ? tableColumns
+                                : new TreeSet<String>());
+                    }
+                    /*
+                     * this connection does not see what the session changed
+                     * and did not commit yet: dirty until it ends.
+                     */
+                    state = _pending ? DIRTY : FRESH;
+                    _readWhilePending = _pending;
+                } else {
+                    /*
+                     * the session changed the schema meanwhile, maybe not
+                     * committed yet: only update the columns.
+                     */
+                    tables = new TreeMap<String, SortedSet<String>>(_tables);
+                    for (final Map.Entry<String, SortedSet<String>> entry : tables
+                            .entrySet()) {
+                        final SortedSet<String> tableColumns = columns
+                        .get(entry.getKey());
+                        if (tableColumns != null) {
+                            entry.setValue(tableColumns);
+                        }
+                    }
+                    state = _state;
+                    // a DIRTY state is not cured by this.
+                    _again |= state == DIRTY;
+                }
+            }
+            publish(tables, state);
+            save();
+        } catch (final SQLException e) {
+            // keep what we have; the next refresh may work.
+        } finally {
+            if (conn != null) {
+                _session.releaseConnection(conn);
+            }
+        }
+    }
+
+    /**
+     * wait until the refresh running has finished.
+     *
+     * @return false, if it is still running after the given time.
+     */
+    synchronized boolean awaitRefresh(final long millis) {
+        final long end = System.currentTimeMillis() + millis;
+        while (_refresher != null) {
+            final long rest = end - System.currentTimeMillis();
+            if (rest <= 0) {
+                return false;
+            }
+            try {
+                wait(rest);
+            } catch (final InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,187 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.io.ConfigurationContainer;
+import henplus.io.ScriptReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Keeps compiled scripts in the configuration directory, so that scripts run
+ * again and again need not be separated each time. The scripts are found by
+ * the digest of their content; a cached script is only used if the commands
+ * and the comment removal are still the same as when it was compiled.
+ */
+final class ScriptCache {
+    private static final String CACHE_DIR = "script-cache";
+    private static final String SUFFIX = ".script";
+    /** the least recently used scripts are removed beyond this */
+    static final int MAX_ENTRIES = 64;
+    /** larger scripts are not kept in memory to be cached */
+    static final long MAX_SCRIPT_SIZE = 64L * 1024 * 1024;
+    private static final int DIGEST_BLOCK = 1024 * 1024;
+
+    private final CommandDispatcher _dispatcher;
+
+    ScriptCache(final CommandDispatcher dispatcher) {
+        _dispatcher = dispatcher;
+    }
+
+    /**
+     * the compiled script of the file, read from the cache or compiled and
+     * added to it.
+     *
+     * @return null, if the script cannot be compiled.
+     */
+    CompiledScript get(final File file, final boolean removeComments)
+    throws IOException {
+        final HenPlus henplus = HenPlus.getInstance();
+        final File dir = new File(henplus.getConfigurationDirectoryInfo(),
+                CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        final String key = digest(file);
+        final String environment = getEnvironment(removeComments);
+        final File entry = new File(dir, key + SUFFIX);
+        final CompiledScript[] result = new CompiledScript[1];
+        final ConfigurationContainer container = henplus
+        .createConfigurationContainer(CACHE_DIR + File.separator
+                + entry.getName());
+        container.read(new ConfigurationContainer.ReadAction() {
+            public void readConfiguration(final InputStream in)
+            throws Exception {
+                if (in == null) {
+                    return;
+                }
+                final DataInputStream data = new DataInputStream(
+                        new BufferedInputStream(in));
+                if (environment.equals(data.readUTF())) {
+                    result[0] = CompiledScript.read(data);
+                }
+            }
+        });
+        if (result[0] != null) {
+            entry.setLastModified(System.currentTimeMillis());
+            return result[0];
+        }
+
+        final ScriptReader reader = new ScriptReader(file, System
+                .getProperty("file.encoding"));
+        final CompiledScript script;
+        try {
+            script = CompiledScript.compile(reader, _dispatcher,
+                    removeComments);
+        } finally {
+            reader.close();
+        }
+        if (script == null) {
+            return null;
+        }
+        container.write(new ConfigurationContainer.WriteAction() {
+            public void writeConfiguration(final OutputStream out)
+            throws Exception {
+                final DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(out));
+                data.writeUTF(environment);
+                script.write(data);
+                data.flush();
+            }
+        });
+        evict(dir);
+        return script;
+    }
+
+    /**
+     * what the separation depends on besides the script: the encoding, the
+     * comment removal and the names of the commands, including aliases.
+     */
+    private String getEnvironment(final boolean removeComments) {
+        int commands = 1;
+        final Iterator it = _dispatcher.getRegisteredCommandNames();
+        while (it.hasNext()) {
+            commands = 31 * commands + it.next().hashCode();
+        }
+        return System.getProperty("file.encoding") + ";" + removeComments
+        + ";" + Integer.toHexString(commands);
+    }
+
+    /**
+     * the SHA-1 digest of the file content in hex.
+     */
+    private static String digest(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException("no SHA-1: " + e.getMessage());
+        }
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer block = ByteBuffer.allocate(DIGEST_BLOCK);
+            while (channel.read(block) >= 0) {
+                block.flip();
+                digest.update(block);
+                block.clear();
+            }
+        } finally {
+            in.close();
+        }
+        final StringBuilder hex = new StringBuilder();
+        final byte[] bytes = digest.digest();
+        for (int i = 0; i < bytes.length; ++i) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * remove the least recently used scripts beyond MAX_ENTRIES.
+     */
+    private static void evict(final File dir) {
+        final File[] entries = dir.listFiles();
+        if (entries == null || entries.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(final File a, final File b) {
+                final long diff = b.lastModified() - a.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (int i = MAX_ENTRIES; i < entries.length; ++i) {
+            if (entries[i].getName().endsWith(SUFFIX)) {
+                entries[i].delete();
+            }
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,305 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.Command;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.event.StatementListener;
+import henplus.property.PropertyHolder;
+import henplus.util.StatementUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The property 'sql-slow-log'. If set, every SQL statement taking at least
+ * the given number of milliseconds is appended to the file 'slow-queries.log'
+ * in the configuration directory. The entries are handed to a writer thread,
+ * so logging never blocks the shell; if the writer cannot keep up, entries
+ * are dropped and the number of dropped entries is logged. The log is
+ * rotated when it exceeds {@link #MAX_FILE_SIZE}.
+ */
+public final class SlowQueryLog extends PropertyHolder implements
+StatementListener {
+    static final String FILE_NAME = "slow-queries.log";
+    private static final long MAX_FILE_SIZE = 1024 * 1024;
+    /** number of rotated files kept besides the current one */
+    private static final int ROTATED_FILES = 4;
+    private static final int QUEUE_SIZE = 1000;
+    /** how long closing waits for the entries left to be written */
+    private static final long CLOSE_TIMEOUT = 5 * 1000L;
+
+    private final CommandDispatcher _dispatcher;
+    private final SQLCommand _sqlCommand;
+    private long _threshold;
+    private volatile LogWriter _writer;
+
+    /** a statement to be logged */
+    private static final class Entry {
+        final long time;
+        final String url;
+        final String sql;
+        final long totalMillis;
+        final long firstRowMillis;
+        final int rows;
+
+        Entry(final String url, final String sql, final long totalMillis,
+                final long firstRowMillis, final int rows) {
+            time = System.currentTimeMillis();
+            this.url = url;
+            this.sql = sql;
+            this.totalMillis = totalMillis;
+            this.firstRowMillis = firstRowMillis;
+            this.rows = rows;
+        }
+    }
+
+    public SlowQueryLog(final CommandDispatcher dispatcher,
+            final SQLCommand sqlCommand) {
+        super("0");
+        _dispatcher = dispatcher;
+        _sqlCommand = sqlCommand;
+    }
+
+    /**
+     * write the entries left; called when HenPlus exits, which does not wait
+     * for the daemon thread writing them.
+     */
+    public synchronized void shutdown() {
+        if (_writer != null) {
+            _dispatcher.removeStatementListener(this);
+            _writer.close();
+            _writer = null;
+        }
+    }
+
+    // -- Statement listener
+
+    public void statementExecuted(final SQLSession session,
+            final String command, final int result, final long startTime,
+            final long nanos) {
+        final long millis = nanos / 1000000;
+        final LogWriter writer = _writer;
+        if (writer == null || millis < _threshold) {
+            return;
+        }
+        writer.log(new Entry(session != null ? session.getURL() : null,
+                StatementUtil.stripTerminator(command), millis, _sqlCommand
+                .getLastFirstRowTime(), result == Command.SUCCESS ? _sqlCommand
+                        .getLastRowCount() : -1));
+    }
+
+    /**
+     * writes the entries in the background.
+     */
+    private static final class LogWriter extends Thread {
+        private final File _file;
+        private final BlockingQueue<Entry> _queue;
+        private final SimpleDateFormat _dateFormat;
+        private volatile boolean _closed;
+        private int _dropped;
+        private Writer _out;
+        private long _size;
+
+        LogWriter(final File file) {
+            super("henplus-slow-log");
+            setDaemon(true);
+            _file = file;
+            _queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+            _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        }
+
+        void log(final Entry entry) {
+            if (!_queue.offer(entry)) {
+                synchronized (this) {
+                    ++_dropped;
+                }
+            }
+        }
+
+        /**
+         * stop and wait until the entries left are written.
+         */
+        void close() {
+            _closed = true;
+            interrupt();
+            try {
+                join(CLOSE_TIMEOUT);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<Entry> entries = new ArrayList<Entry>();
+            try {
+                while (!_closed || !_queue.isEmpty()) {
+                    try {
+                        entries.add(_queue.take());
+                    } catch (final InterruptedException e) {
+                        // closed; write what is left.
+                    }
+                    _queue.drainTo(entries);
+                    write(entries);
+                    entries.clear();
+                }
+            } catch (final IOException e) {
+                HenPlus.msg().println(
+                        "writing " + _file + " failed: " + e.getMessage()
+                        + "; slow statements are not logged anymore.");
+            } finally {
+                closeFile();
+            }
+        }
+
+        private void write(final List<Entry> entries) throws IOException {
+            final StringBuilder text = new StringBuilder();
+            synchronized (this) {
+                if (_dropped > 0) {
+                    text.append("-- ").append(_dropped).append(
+                    " entries dropped\n\n");
+                    _dropped = 0;
+                }
+            }
+            for (final Entry entry : entries) {
+                text.append("-- ").append(
+                        _dateFormat.format(new Date(entry.time)));
+                text.append("; total: ").append(
+                        TimeRenderer.renderTime(entry.totalMillis));
+                if (entry.firstRowMillis >= 0) {
+                    text.append("; first row: ").append(
+                            TimeRenderer.renderTime(entry.firstRowMillis));
+                }
+                if (entry.rows >= 0) {
+                    text.append("; rows: ").append(entry.rows);
+                }
+                if (entry.url != null) {
+                    text.append("; ").append(entry.url);
+                }
+                text.append('\n').append(entry.sql).append(";\n\n");
+            }
+            if (text.length() == 0) {
+                return;
+            }
+            if (_out == null || _size >= MAX_FILE_SIZE) {
+                closeFile();
+                open();
+            }
+            _out.write(text.toString());
+            _out.flush();
+            _size += text.length();
+        }
+
+        private void open() throws IOException {
+            if (_file.length() >= MAX_FILE_SIZE) {
+                rotate();
+            }
+            _out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(_file, true), "UTF-8"));
+            _size = _file.length();
+        }
+
+        private void rotate() {
+            final File oldest = rotated(ROTATED_FILES);
+            oldest.delete();
+            for (int i = ROTATED_FILES - 1; i >= 1; --i) {
+                rotated(i).renameTo(rotated(i + 1));
+            }
+            _file.renameTo(rotated(1));
+        }
+
+        private File rotated(final int number) {
+            return new File(_file.getPath() + "." + number);
+        }
+
+        private void closeFile() {
+            if (_out != null) {
+                try {
+                    _out.close();
+                } catch (final IOException e) {
+                    /* ignore */
+                }
+                _out = null;
+            }
+        }
+    }
+
+    // -- property
+
+    @Override
+    protected synchronized String propertyChanged(String newValue)
+    throws Exception {
+        newValue = newValue.trim();
+        long threshold;
+        try {
+            threshold = Long.parseLong(newValue);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("cannot parse '" + newValue
+                    + "' as milliseconds");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("value cannot be negative");
+        }
+        _threshold = threshold;
+        if (threshold > 0 && _writer == null) {
+            _writer = new LogWriter(new File(HenPlus.getInstance()
+                    .getConfigurationDirectoryInfo(), FILE_NAME));
+            _writer.start();
+            _dispatcher.addStatementListener(this);
+        } else if (threshold == 0 && _writer != null) {
+            _dispatcher.removeStatementListener(this);
+            _writer.close();
+            _writer = null;
+        }
+        return newValue;
+    }
+
+    @Override
+    public String getDefaultValue() {
+        return "0";
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "log SQL statements slower than this many ms; 0 is off";
+    }
+
+    @Override
+    public String getLongDescription() {
+        String dsc;
+        dsc = "\tIf set to a value greater than zero, every SQL statement\n"
+            + "\tthat takes at least this many milliseconds is appended\n"
+            + "\tto the file '" + FILE_NAME + "' in the configuration\n"
+            + "\tdirectory, with time, total time, time to the first row,\n"
+            + "\tnumber of rows and the URL of the session; the file can be\n"
+            + "\tloaded as script again. The entries are written in the\n"
+            + "\tbackground, so this does not slow down the shell. When\n"
+            + "\tthe file exceeds " + MAX_FILE_SIZE / 1024
+            + " KB, it is renamed to '" + FILE_NAME + ".1'\n"
+            + "\tand older files are shifted; " + ROTATED_FILES
+            + " old files are kept.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
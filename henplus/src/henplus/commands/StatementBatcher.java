@@ -0,0 +1,241 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SQLSession;
+import henplus.event.ExecutionListener;
+import henplus.property.PropertyHolder;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The property 'sql-batch-size'. If set, runs of consecutive DML statements
+ * read from scripts are collected and sent to the database as JDBC batch. The
+ * batch is flushed, whenever any other command is executed (including
+ * commit/rollback), at the end of a loaded file and if it reaches the batch
+ * size. Each statement remembers its position in the script, so that failures
+ * can be reported with the original line number.
+ */
+public final class StatementBatcher extends PropertyHolder implements
+ExecutionListener {
+    private static final String[] DML = { "insert", "update", "delete",
+        "merge" };
+
+    private final CommandDispatcher _dispatcher;
+    private final LoadCommand _loadCommand;
+    private int _batchSize;
+
+    private SQLSession _session;
+    private Statement _stmt;
+    private final List<String> _commands;
+    private final List<String> _positions;
+
+    public StatementBatcher(final CommandDispatcher dispatcher,
+            final LoadCommand loadCommand) {
+        super("0");
+        _dispatcher = dispatcher;
+        _loadCommand = loadCommand;
+        _batchSize = 0;
+        _commands = new ArrayList<String>();
+        _positions = new ArrayList<String>();
+    }
+
+    /**
+     * determines, if the command is to be batched instead of executed.
+     */
+    public boolean accepts(final String cmd, final String command) {
+        if (_batchSize <= 0 || !_dispatcher.isInBatch()
+                || _loadCommand.getCurrentFile() == null
+                || command.endsWith("&")) {
+            return false;
+        }
+        for (int i = 0; i < DML.length; ++i) {
+            if (DML[i].equalsIgnoreCase(cmd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * add the statement to the current batch.
+     */
+    public void add(final SQLSession session, final String command)
+    throws SQLException {
+        if (_session != session) {
+            flush();
+        }
+        if (_stmt == null) {
+            _session = session;
+            _stmt = session.createStatement();
+        }
+        int lines = 0;
+        for (int i = command.indexOf('\n'); i >= 0; i = command.indexOf('\n',
+                i + 1)) {
+            ++lines;
+        }
+        _stmt.addBatch(command);
+        _commands.add(command);
+        _positions.add(_loadCommand.getCurrentFile().getName() + ":"
+                + Math.max(1, _loadCommand.getCurrentLine() - lines));
+        if (_commands.size() >= _batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * send the pending statements. Failures are reported with the position
+     * of the failed statement in its script.
+     *
+     * @return false, if any statement failed.
+     */
+    public boolean flush() {
+        if (_stmt == null) {
+            return true;
+        }
+        boolean success = true;
+        try {
+            _stmt.executeBatch();
+        } catch (final BatchUpdateException e) {
+            success = false;
+            final int[] counts = e.getUpdateCounts();
+            boolean reported = false;
+            if (counts != null) {
+                for (int i = 0; i < counts.length; ++i) {
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        reportFailure(i, e);
+                        reported = true;
+                    }
+                }
+                // drivers that stop at the first failure.
+                if (!reported && counts.length < _commands.size()) {
+                    reportFailure(counts.length, e);
+                    reported = true;
+                }
+            }
+            if (!reported) {
+                reportFailure(-1, e);
+            }
+        } catch (final SQLException e) {
+            success = false;
+            reportFailure(-1, e);
+        } finally {
+            try {
+                _stmt.close();
+            } catch (final Exception e) {
+                /* ignore */
+            }
+            _stmt = null;
+            _session = null;
+            _commands.clear();
+            _positions.clear();
+        }
+        return success;
+    }
+
+    private void reportFailure(final int index, final SQLException e) {
+        final String msg = e.getMessage();
+        if (msg != null) {
+            HenPlus.msg().println("FAILURE: " + msg.trim());
+        }
+        if (index >= 0 && index < _commands.size()) {
+            HenPlus.msg().println(
+                    "-- failed command at " + _positions.get(index) + ": ");
+            HenPlus.msg().println(_commands.get(index));
+        } else {
+            HenPlus.msg().println(
+                    "-- failed batch of " + _commands.size()
+                    + " commands starting at " + _positions.get(0));
+        }
+    }
+
+    // -- Execution listener
+
+    public void beforeExecution(final SQLSession session, final String command) {
+        if (_stmt == null) {
+            return;
+        }
+        String stripped = command.trim();
+        while (stripped.endsWith(";")) {
+            stripped = stripped.substring(0, stripped.length() - 1).trim();
+        }
+        final String cmd = _dispatcher.getCommandNameFrom(stripped);
+        if (session != _session || !accepts(cmd, stripped)) {
+            flush();
+        }
+    }
+
+    public void afterExecution(final SQLSession session, final String command,
+            final int result) {
+        // a loaded file is finished; don't leave statements of it behind.
+        if (_stmt != null
+                && _dispatcher.getCommandFrom(command.trim()) == _loadCommand) {
+            flush();
+        }
+    }
+
+    // -- property
+
+    @Override
+    protected String propertyChanged(String newValue) throws Exception {
+        newValue = newValue.trim();
+        int size;
+        try {
+            size = Integer.parseInt(newValue);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("cannot parse '" + newValue
+                    + "' as integer");
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("value cannot be negative");
+        }
+        flush();
+        _batchSize = size;
+        if (size > 0) {
+            _dispatcher.addExecutionListener(this);
+        } else {
+            _dispatcher.removeExecutionListener(this);
+        }
+        return newValue;
+    }
+
+    @Override
+    public String getDefaultValue() {
+        return "0";
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "batch DML in loaded scripts; 0 is off";
+    }
+
+    @Override
+    public String getLongDescription() {
+        String dsc;
+        dsc = "\tIf set to a value greater than zero, consecutive\n"
+            + "\tinsert, update, delete and merge statements read by\n"
+            + "\t'load' are sent to the database in JDBC batches of up\n"
+            + "\tto this many statements, which is much faster for large\n"
+            + "\tgenerated scripts. A batch is sent before any other\n"
+            + "\tcommand (including commit), at the end of each file and\n"
+            + "\twhen it is full. Failures are reported with file and\n"
+            + "\tline of the failed statement; how many statements of a\n"
+            + "\tfailed batch have been executed depends on the driver.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
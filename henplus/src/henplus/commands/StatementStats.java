@@ -0,0 +1,99 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.util.LatencyHistogram;
+
+/**
+ * The statistics of all executions of one normalized statement. Times are in
+ * microseconds.
+ */
+public final class StatementStats {
+    private final String _statement;
+    private final LatencyHistogram _totalTime;
+    private final LatencyHistogram _firstRowTime;
+    private final LatencyHistogram _rows;
+    private long _errors;
+
+    StatementStats(final String statement) {
+        _statement = statement;
+        _totalTime = new LatencyHistogram();
+        _firstRowTime = new LatencyHistogram();
+        _rows = new LatencyHistogram();
+    }
+
+    /**
+     * record a successful execution.
+     *
+     * @param firstRowMicros
+     *            time to the first row; negative if not a query.
+     * @param rows
+     *            rows read or affected; negative if unknown.
+     */
+    synchronized void record(final long totalMicros, final long firstRowMicros,
+            final long rows) {
+        _totalTime.record(totalMicros);
+        if (firstRowMicros >= 0) {
+            _firstRowTime.record(firstRowMicros);
+        }
+        if (rows >= 0) {
+            _rows.record(rows);
+        }
+    }
+
+    synchronized void recordError() {
+        ++_errors;
+    }
+
+    public String getStatement() {
+        return _statement;
+    }
+
+    /**
+     * the number of successful executions.
+     */
+    public synchronized long getCount() {
+        return _totalTime.getCount();
+    }
+
+    public synchronized long getErrors() {
+        return _errors;
+    }
+
+    public synchronized long getTotalTime() {
+        return _totalTime.getTotal();
+    }
+
+    public synchronized long getMinTime() {
+        return _totalTime.getMin();
+    }
+
+    public synchronized long getMaxTime() {
+        return _totalTime.getMax();
+    }
+
+    public synchronized long getTime(final double percentile) {
+        return _totalTime.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * the percentile of the time to the first row; 0 for statements that are
+     * no queries.
+     */
+    public synchronized long getFirstRowTime(final double percentile) {
+        return _firstRowTime.getValueAtPercentile(percentile);
+    }
+
+    public synchronized long getRows(final double percentile) {
+        return _rows.getValueAtPercentile(percentile);
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,347 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.commands;
+
+import henplus.AbstractCommand;
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.PropertyRegistry;
+import henplus.SQLSession;
+import henplus.event.StatementListener;
+import henplus.property.BooleanPropertyHolder;
+import henplus.util.SQLParameterizer;
+import henplus.util.StatementUtil;
+import henplus.view.Column;
+import henplus.view.ColumnMetaData;
+import henplus.view.TableRenderer;
+import henplus.view.util.NameCompleter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Collects execution statistics of the SQL statements, grouped by the
+ * statement with its literals replaced by placeholders, and shows them with
+ * the 'stats' command. Only done while the property 'sql-stats' is on; only
+ * the beginning of long statements is looked at.
+ */
+public final class StatsCommand extends AbstractCommand implements
+StatementListener {
+    /** statements tracked individually; all others are summed up */
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER_STATEMENTS = "(other statements)";
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int STATEMENT_WIDTH = 50;
+    /** statements are grouped by this many characters at most */
+    static final int MAX_STATEMENT_LENGTH = 1024;
+    private static final String TRUNCATED = " ...";
+
+    private static final ColumnMetaData[] STATS_META;
+
+    static {
+        final String[] labels = { "count", "errors", "total", "min", "p50",
+                "p99", "max", "first row p50", "first row p99", "rows p50",
+                "rows p99" };
+        STATS_META = new ColumnMetaData[labels.length + 1];
+        for (int i = 0; i < labels.length; ++i) {
+            STATS_META[i] = new ColumnMetaData(labels[i],
+                    ColumnMetaData.ALIGN_RIGHT);
+        }
+        STATS_META[labels.length] = new ColumnMetaData("statement");
+    }
+
+    private static final Comparator<StatementStats> BY_TOTAL = new Comparator<StatementStats>() {
+        public int compare(final StatementStats a, final StatementStats b) {
+            return compareDescending(a.getTotalTime(), b.getTotalTime());
+        }
+    };
+
+    private static final Comparator<StatementStats> BY_P99 = new Comparator<StatementStats>() {
+        public int compare(final StatementStats a, final StatementStats b) {
+            return compareDescending(a.getTime(99), b.getTime(99));
+        }
+    };
+
+    private final CommandDispatcher _dispatcher;
+    private final SQLCommand _sqlCommand;
+    private final Map<String, StatementStats> _stats;
+    private boolean _enabled;
+
+    /**
+     * returns the command-strings this command can handle.
+     */
+    public String[] getCommandList() {
+        return new String[] { "stats" };
+    }
+
+    public StatsCommand(final CommandDispatcher dispatcher,
+            final SQLCommand sqlCommand, final PropertyRegistry registry) {
+        _dispatcher = dispatcher;
+        _sqlCommand = sqlCommand;
+        _stats = new HashMap<String, StatementStats>();
+        registry.registerProperty("sql-stats", new StatsProperty());
+    }
+
+    private void setEnabled(final boolean enabled) {
+        if (enabled == _enabled) {
+            return;
+        }
+        _enabled = enabled;
+        if (enabled) {
+            _dispatcher.addStatementListener(this);
+        } else {
+            _dispatcher.removeStatementListener(this);
+        }
+    }
+
+    @Override
+    public boolean requiresValidSession(final String cmd) {
+        return false;
+    }
+
+    /**
+     * the statistics of all statements executed so far.
+     */
+    public List<StatementStats> getStatistics() {
+        synchronized (_stats) {
+            return new ArrayList<StatementStats>(_stats.values());
+        }
+    }
+
+    // -- Statement listener
+
+    public void statementExecuted(final SQLSession session,
+            final String command, final int result, final long startTime,
+            final long nanos) {
+        final long micros = nanos / 1000;
+        final StatementStats stats = statsFor(normalize(command));
+        if (result == SUCCESS) {
+            final long firstRow = _sqlCommand.getLastFirstRowTime();
+            stats.record(micros, firstRow >= 0 ? firstRow * 1000 : -1,
+                    _sqlCommand.getLastRowCount());
+        } else {
+            stats.recordError();
+        }
+    }
+
+    private StatementStats statsFor(String statement) {
+        synchronized (_stats) {
+            StatementStats stats = _stats.get(statement);
+            if (stats == null) {
+                if (_stats.size() >= MAX_STATEMENTS) {
+                    statement = OTHER_STATEMENTS;
+                    stats = _stats.get(statement);
+                }
+                if (stats == null) {
+                    stats = new StatementStats(statement);
+                    _stats.put(statement, stats);
+                }
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * the statement with literals replaced by placeholders and whitespace
+     * collapsed, so that executions with different values are counted
+     * together. Statements longer than MAX_STATEMENT_LENGTH are cut; they
+     * are counted together with those starting the same.
+     */
+    static String normalize(final String command) {
+        final boolean truncated = command.length() > MAX_STATEMENT_LENGTH;
+        String sql = truncated ? command.substring(0, MAX_STATEMENT_LENGTH)
+                : StatementUtil.stripTerminator(command);
+        final SQLParameterizer parameterized = SQLParameterizer
+        .parameterize(sql);
+        if (parameterized != null) {
+            sql = parameterized.getSQL();
+        }
+        final StringBuilder result = new StringBuilder(sql.length());
+        boolean space = false;
+        for (int i = 0; i < sql.length(); ++i) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = result.length() > 0;
+                continue;
+            }
+            if (space) {
+                result.append(' ');
+                space = false;
+            }
+            result.append(c);
+        }
+        if (truncated) {
+            result.append(TRUNCATED);
+        }
+        return result.toString();
+    }
+
+    /**
+     * execute the command given.
+     */
+    public int execute(final SQLSession session, final String cmd,
+            final String param) {
+        final StringTokenizer st = new StringTokenizer(param);
+        Comparator<StatementStats> order = BY_TOTAL;
+        int limit = DEFAULT_LIMIT;
+        while (st.hasMoreTokens()) {
+            final String arg = st.nextToken();
+            if ("reset".equals(arg)) {
+                synchronized (_stats) {
+                    _stats.clear();
+                }
+                HenPlus.msg().println("statistics reset.");
+                return SUCCESS;
+            } else if ("total".equals(arg)) {
+                order = BY_TOTAL;
+            } else if ("p99".equals(arg)) {
+                order = BY_P99;
+            } else {
+                try {
+                    limit = Integer.parseInt(arg);
+                } catch (final NumberFormatException e) {
+                    return SYNTAX_ERROR;
+                }
+            }
+        }
+        final List<StatementStats> stats = getStatistics();
+        if (stats.isEmpty()) {
+            HenPlus.msg().println(
+                    _enabled ? "no statements executed."
+                            : "no statistics; switch them on with "
+                            + "'set-property sql-stats on'.");
+            return SUCCESS;
+        }
+        Collections.sort(stats, order);
+        for (int i = 0; i < STATS_META.length; ++i) {
+            STATS_META[i].resetWidth();
+        }
+        final TableRenderer table = new TableRenderer(STATS_META, HenPlus.out());
+        for (int i = 0; i < stats.size() && i < limit; ++i) {
+            table.addRow(toRow(stats.get(i)));
+        }
+        table.closeTable();
+        if (stats.size() > limit) {
+            HenPlus.msg().println(
+                    (stats.size() - limit) + " more statements; use 'stats "
+                    + stats.size() + "' to show all.");
+        }
+        return SUCCESS;
+    }
+
+    private static Column[] toRow(final StatementStats stats) {
+        final Column[] row = new Column[STATS_META.length];
+        final boolean hasFirstRow = stats.getFirstRowTime(100) > 0;
+        int col = 0;
+        row[col++] = new Column(stats.getCount());
+        row[col++] = new Column(stats.getErrors());
+        row[col++] = new Column(renderMicros(stats.getTotalTime()));
+        row[col++] = new Column(renderMicros(stats.getMinTime()));
+        row[col++] = new Column(renderMicros(stats.getTime(50)));
+        row[col++] = new Column(renderMicros(stats.getTime(99)));
+        row[col++] = new Column(renderMicros(stats.getMaxTime()));
+        row[col++] = new Column(hasFirstRow ? renderMicros(stats
+                .getFirstRowTime(50)) : "");
+        row[col++] = new Column(hasFirstRow ? renderMicros(stats
+                .getFirstRowTime(99)) : "");
+        row[col++] = new Column(stats.getRows(50));
+        row[col++] = new Column(stats.getRows(99));
+        final String sql = stats.getStatement();
+        row[col++] = new Column(sql.length() > STATEMENT_WIDTH ? sql.substring(
+                0, STATEMENT_WIDTH - 3)
+                + "..." : sql);
+        return row;
+    }
+
+    private static String renderMicros(final long micros) {
+        return micros == 0 ? "0" : TimeRenderer.renderMicros(micros);
+    }
+
+    private static int compareDescending(final long a, final long b) {
+        return a > b ? -1 : a == b ? 0 : 1;
+    }
+
+    private class StatsProperty extends BooleanPropertyHolder {
+
+        public StatsProperty() {
+            super(false);
+        }
+
+        @Override
+        public void booleanPropertyChanged(final boolean value) {
+            setEnabled(value);
+        }
+
+        @Override
+        public String getDefaultValue() {
+            return "off";
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "collect statistics of the SQL statements for 'stats'";
+        }
+
+        @Override
+        public String getLongDescription() {
+            String dsc;
+            dsc = "\tIf switched on, the execution time, the time to the\n"
+                + "\tfirst row and the rows of each SQL statement are\n"
+                + "\trecorded and shown with 'stats'. Switching it off keeps\n"
+                + "\twhat has been collected so far.";
+            return dsc;
+        }
+    }
+
+    @Override
+    public Iterator complete(final CommandDispatcher disp,
+            final String partialCommand, final String lastWord) {
+        return new NameCompleter(new String[] { "total", "p99", "reset" })
+        .getAlternatives(lastWord);
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "show execution statistics of the SQL statements";
+    }
+
+    @Override
+    public String getSynopsis(final String cmd) {
+        return cmd + " [total | p99] [<limit>] | reset";
+    }
+
+    @Override
+    public String getLongDescription(final String cmd) {
+        String dsc;
+        dsc = "\tShow statistics of the SQL statements executed while the\n"
+            + "\tproperty 'sql-stats' is on.\n"
+            + "\tStatements that only differ in literals and whitespace\n"
+            + "\tare counted together, looking at their first "
+            + MAX_STATEMENT_LENGTH + "\n"
+            + "\tcharacters only. For each statement, the number of\n"
+            + "\tsuccessful and failed executions, the total time and the\n"
+            + "\tdistribution of the execution time, of the time to the\n"
+            + "\tfirst row of queries and of the rows read or affected\n"
+            + "\tare shown. The statements are sorted by total time or by\n"
+            + "\tthe 99th percentile of their time ('p99'); only the first\n"
+            + "\t" + DEFAULT_LIMIT
+            + " are shown, unless another limit is given.\n"
+            + "\t'stats reset' discards the statistics collected.";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
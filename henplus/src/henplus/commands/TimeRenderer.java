@@ -45,6 +45,11 @@ public class TimeRenderer {
         return result.toString();
     }
 
+    /** render a time given in microseconds as string */
+    public static String renderMicros(final long micros) {
+        return renderTime(micros / 1000, micros % 1000);
+    }
+
     /** print time to output device */
     public static void printTime(final long execTimeInMs, final OutputDevice out) {
         printTime(execTimeInMs, 0, out);
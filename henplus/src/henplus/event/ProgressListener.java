@@ -0,0 +1,32 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.event;
+
+import henplus.view.util.ProgressWriter;
+
+import java.util.EventListener;
+
+/**
+ * A Listener that is informed about the named operations, e.g. a dump or
+ * import, whose progress is written by a ProgressWriter.
+ */
+public interface ProgressListener extends EventListener {
+    /**
+     * called when the operation starts.
+     */
+    void operationStarted(ProgressWriter progress);
+
+    /**
+     * called when the operation is finished; may be called more than once.
+     */
+    void operationFinished(ProgressWriter progress);
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
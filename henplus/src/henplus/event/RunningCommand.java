@@ -0,0 +1,45 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.event;
+
+/**
+ * A command the CommandDispatcher is executing, with its start time.
+ */
+public final class RunningCommand {
+    private final String _command;
+    private final long _startTime;
+    private final long _startNanos;
+
+    public RunningCommand(final String command) {
+        _command = command;
+        _startTime = System.currentTimeMillis();
+        _startNanos = System.nanoTime();
+    }
+
+    public String getCommand() {
+        return _command;
+    }
+
+    /**
+     * when the command started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    /**
+     * the time since the command started.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - _startNanos;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,35 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.event;
+
+import henplus.SQLSession;
+
+import java.util.EventListener;
+
+/**
+ * A Listener that is called by the CommandDispatcher after each SQL
+ * statement, with the time it took; so those measuring the statements need
+ * not track the running commands themselves.
+ */
+public interface StatementListener extends EventListener {
+    /**
+     * called after a SQL statement is executed.
+     *
+     * @param startTime
+     *            when the statement started, in milliseconds since the
+     *            epoch.
+     * @param nanos
+     *            the time the statement took.
+     */
+    void statementExecuted(SQLSession session, String command, int result,
+            long startTime, long nanos);
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,44 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.event;
+
+/**
+ * One traced stage of the execution, started with {@link Tracer#start(int)}.
+ * The setters only record values if tracing is switched on, so they are
+ * cheap to call in any case.
+ */
+public interface TraceSpan {
+    /**
+     * the SQL statement executed in this stage.
+     */
+    void setSQL(String sql);
+
+    /**
+     * the table worked on in this stage.
+     */
+    void setTable(String table);
+
+    /**
+     * the number of rows read or written.
+     */
+    void setRows(long rows);
+
+    /**
+     * the number of bytes read or written.
+     */
+    void setBytes(long bytes);
+
+    /**
+     * ends this stage; the span must not be used anymore afterwards.
+     */
+    void finish();
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
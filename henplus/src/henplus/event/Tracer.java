@@ -0,0 +1,106 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.event;
+
+/**
+ * Traces the stages of the execution, so that slow sessions can be analyzed
+ * with profiling tools. If the JVM supports the Java Flight Recorder and the
+ * JFR events have been compiled in (see build.xml), each stage is emitted
+ * as a JFR event in the category 'HenPlus'; otherwise tracing does nothing.
+ *
+ * <pre>
+ * final TraceSpan span = Tracer.start(Tracer.EXECUTE);
+ * try {
+ *     span.setSQL(sql);
+ *     ...
+ * } finally {
+ *     span.finish();
+ * }
+ * </pre>
+ */
+public abstract class Tracer {
+    /** execution of a statement up to the point the result is available */
+    public static final int EXECUTE = 0;
+    /** reading the first row of a result set */
+    public static final int FIRST_ROW = 1;
+    /** reading all rows of a result set */
+    public static final int FETCH = 2;
+    /** formatting and printing a result */
+    public static final int RENDER = 3;
+    /** writing a table to a dump file */
+    public static final int DUMP_TABLE = 4;
+    /** inserting a batch of rows from a dump or an import file */
+    public static final int IMPORT_BATCH = 5;
+    /** reading the metadata of the database */
+    public static final int METADATA = 6;
+    /** looking up the alternatives for the tab-completion */
+    public static final int COMPLETION = 7;
+
+    private static final String JFR_TRACER = "henplus.jfr.JfrTracer";
+
+    /** the span returned if the stage is not traced */
+    protected static final TraceSpan NO_SPAN = new TraceSpan() {
+        public void setSQL(final String sql) { /* not traced */
+        }
+
+        public void setTable(final String table) { /* not traced */
+        }
+
+        public void setRows(final long rows) { /* not traced */
+        }
+
+        public void setBytes(final long bytes) { /* not traced */
+        }
+
+        public void finish() { /* not traced */
+        }
+    };
+
+    private static final Tracer INSTANCE = createTracer();
+
+    private static Tracer createTracer() {
+        try {
+            return (Tracer) Class.forName(JFR_TRACER).getDeclaredConstructor()
+            .newInstance();
+        } catch (final ClassNotFoundException e) {
+            /* not compiled in */
+        } catch (final LinkageError e) {
+            /* compiled in, but this JVM has no flight recorder */
+        } catch (final Exception e) {
+            /*
+             * not instantiable or its constructor failed, e.g. with an
+             * InvocationTargetException; not worth failing for.
+             */
+        }
+        return new Tracer() {
+            @Override
+            protected TraceSpan begin(final int stage) {
+                return NO_SPAN;
+            }
+        };
+    }
+
+    /**
+     * starts tracing the given stage. Always returns a span; it does nothing
+     * if this stage is not traced at the moment.
+     */
+    public static TraceSpan start(final int stage) {
+        return INSTANCE.begin(stage);
+    }
+
+    /**
+     * begin the given stage.
+     *
+     * @return the span; {@link #NO_SPAN} if the stage is not traced.
+     */
+    protected abstract TraceSpan begin(int stage);
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
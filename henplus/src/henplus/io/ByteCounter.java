@@ -0,0 +1,22 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.io;
+
+/**
+ * Something that counts the bytes passing through it.
+ */
+public interface ByteCounter {
+    /**
+     * the number of bytes read or written so far.
+     */
+    long getByteCount();
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
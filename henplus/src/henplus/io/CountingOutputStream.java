@@ -0,0 +1,47 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that counts the bytes written to the underlying stream.
+ * The count may be read from other threads.
+ */
+public final class CountingOutputStream extends FilterOutputStream implements
+ByteCounter {
+    private volatile long _count;
+
+    public CountingOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    public long getByteCount() {
+        return _count;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+        ++_count;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+    throws IOException {
+        // FilterOutputStream would write byte by byte.
+        out.write(b, off, len);
+        _count += len;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
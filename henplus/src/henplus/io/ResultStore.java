@@ -0,0 +1,459 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Compact, column oriented client side store for a result set. Integral and
+ * floating point columns are stored as primitive values, all other columns as
+ * character data. The storage lives on the heap up to a given memory limit;
+ * beyond that, further storage is memory mapped from a temporary file, so
+ * that large results do not exhaust the heap.
+ */
+public final class ResultStore {
+    public static final int TYPE_LONG = 0;
+    public static final int TYPE_DOUBLE = 1;
+    public static final int TYPE_DECIMAL = 2;
+    public static final int TYPE_STRING = 3;
+
+    private final String[] _labels;
+    private final int[] _types;
+    private final Vector[] _columns;
+    private final SegmentAllocator _allocator;
+    private int _rows;
+
+    public ResultStore(final ResultSetMetaData meta, final long memoryLimit)
+    throws SQLException {
+        final int count = meta.getColumnCount();
+        _labels = new String[count];
+        _types = new int[count];
+        _columns = new Vector[count];
+        _allocator = new SegmentAllocator(memoryLimit);
+        for (int i = 0; i < count; ++i) {
+            _labels[i] = meta.getColumnLabel(i + 1);
+            _types[i] = storeType(meta.getColumnType(i + 1));
+            switch (_types[i]) {
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                _columns[i] = new PrimitiveVector(_allocator);
+                break;
+            default:
+                _columns[i] = new StringVector(_allocator);
+            }
+        }
+        _rows = 0;
+    }
+
+    /**
+     * maps the JDBC type to the type used in this store.
+     */
+    public static int storeType(final int jdbcType) {
+        switch (jdbcType) {
+        case Types.BIGINT:
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+            return TYPE_LONG;
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.REAL:
+            return TYPE_DOUBLE;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return TYPE_DECIMAL;
+        default:
+            return TYPE_STRING;
+        }
+    }
+
+    /**
+     * add a row given in its string representation as read from the result
+     * set.
+     */
+    public void addRow(final String[] values) throws IOException {
+        for (int i = 0; i < _columns.length; ++i) {
+            final String value = values[i];
+            switch (_types[i]) {
+            case TYPE_LONG:
+                ((PrimitiveVector) _columns[i]).add(_rows, value == null ? 0
+                        : Long.parseLong(value.trim()), value == null);
+                break;
+            case TYPE_DOUBLE:
+                ((PrimitiveVector) _columns[i]).add(_rows, value == null ? 0
+                        : Double.doubleToLongBits(Double.parseDouble(value
+                                .trim())), value == null);
+                break;
+            default:
+                ((StringVector) _columns[i]).add(_rows, value);
+            }
+        }
+        ++_rows;
+    }
+
+    public int getRowCount() {
+        return _rows;
+    }
+
+    public int getColumnCount() {
+        return _columns.length;
+    }
+
+    public String getLabel(final int col) {
+        return _labels[col];
+    }
+
+    public int getType(final int col) {
+        return _types[col];
+    }
+
+    /**
+     * returns the column index for the given label or 1-based column number;
+     * -1, if there is no such column.
+     */
+    public int findColumn(final String name) {
+        for (int i = 0; i < _labels.length; ++i) {
+            if (_labels[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        try {
+            final int pos = Integer.parseInt(name);
+            if (pos >= 1 && pos <= _labels.length) {
+                return pos - 1;
+            }
+        } catch (final NumberFormatException e) {
+            /* no number, no column */
+        }
+        return -1;
+    }
+
+    public boolean isNull(final int row, final int col) {
+        return _columns[col].isNull(row);
+    }
+
+    public String getString(final int row, final int col) {
+        if (isNull(row, col)) {
+            return null;
+        }
+        switch (_types[col]) {
+        case TYPE_LONG:
+            return String.valueOf(((PrimitiveVector) _columns[col]).get(row));
+        case TYPE_DOUBLE:
+            return String.valueOf(getDouble(row, col));
+        default:
+            return ((StringVector) _columns[col]).get(row);
+        }
+    }
+
+    /**
+     * numeric value of the given cell; strings are parsed.
+     */
+    public double getDouble(final int row, final int col) {
+        switch (_types[col]) {
+        case TYPE_LONG:
+            return ((PrimitiveVector) _columns[col]).get(row);
+        case TYPE_DOUBLE:
+            return Double.longBitsToDouble(((PrimitiveVector) _columns[col])
+                    .get(row));
+        default:
+            return Double.parseDouble(((StringVector) _columns[col]).get(row)
+                    .trim());
+        }
+    }
+
+    /**
+     * compare the given column of two rows; NULL sorts first.
+     */
+    public int compare(final int rowA, final int rowB, final int col) {
+        final boolean nullA = isNull(rowA, col);
+        final boolean nullB = isNull(rowB, col);
+        if (nullA || nullB) {
+            return nullA == nullB ? 0 : nullA ? -1 : 1;
+        }
+        switch (_types[col]) {
+        case TYPE_LONG: {
+            final long a = ((PrimitiveVector) _columns[col]).get(rowA);
+            final long b = ((PrimitiveVector) _columns[col]).get(rowB);
+            return a < b ? -1 : a == b ? 0 : 1;
+        }
+        case TYPE_DOUBLE:
+            return Double.compare(getDouble(rowA, col), getDouble(rowB, col));
+        case TYPE_DECIMAL:
+            return new BigDecimal(getString(rowA, col).trim())
+            .compareTo(new BigDecimal(getString(rowB, col).trim()));
+        default:
+            return getString(rowA, col).compareTo(getString(rowB, col));
+        }
+    }
+
+    /**
+     * compare the cell with a value given as string. Numeric columns compare
+     * numerically. NULL cells are smaller than any value.
+     *
+     * @throws NumberFormatException
+     *             if the value is not numeric but the column is.
+     */
+    public int compareToValue(final int row, final int col, final String value) {
+        if (isNull(row, col)) {
+            return -1;
+        }
+        switch (_types[col]) {
+        case TYPE_LONG:
+        case TYPE_DOUBLE:
+            return Double.compare(getDouble(row, col), Double
+                    .parseDouble(value));
+        case TYPE_DECIMAL:
+            return new BigDecimal(getString(row, col).trim())
+            .compareTo(new BigDecimal(value));
+        default:
+            return getString(row, col).compareTo(value);
+        }
+    }
+
+    /**
+     * number of bytes that have been spilled to the memory mapped file.
+     */
+    public long getMappedBytes() {
+        return _allocator.getMappedBytes();
+    }
+
+    /**
+     * release all storage and remove the temporary file.
+     */
+    public void close() {
+        _allocator.close();
+    }
+
+    /**
+     * hands out storage segments. Segments start small and grow up to a
+     * maximum size; they are allocated on the heap as long as the memory limit
+     * is not reached and memory mapped from a temporary file afterwards.
+     */
+    private static final class SegmentAllocator {
+        private final long _memoryLimit;
+        private long _heapBytes;
+        private long _mappedBytes;
+        private File _file;
+        private RandomAccessFile _raf;
+        private FileChannel _channel;
+
+        SegmentAllocator(final long memoryLimit) {
+            _memoryLimit = memoryLimit;
+        }
+
+        ByteBuffer allocate(final int size) throws IOException {
+            if (_heapBytes + size <= _memoryLimit) {
+                _heapBytes += size;
+                return ByteBuffer.allocate(size);
+            }
+            if (_channel == null) {
+                _file = File.createTempFile("henplus-result-", ".tmp");
+                _file.deleteOnExit();
+                _raf = new RandomAccessFile(_file, "rw");
+                _channel = _raf.getChannel();
+            }
+            final ByteBuffer segment = _channel.map(
+                    FileChannel.MapMode.READ_WRITE, _mappedBytes, size);
+            _mappedBytes += size;
+            return segment;
+        }
+
+        long getMappedBytes() {
+            return _mappedBytes;
+        }
+
+        void close() {
+            try {
+                if (_channel != null) {
+                    _channel.close();
+                    _raf.close();
+                }
+            } catch (final IOException e) {
+                /* ignore */
+            }
+            if (_file != null) {
+                _file.delete();
+            }
+            _channel = null;
+            _file = null;
+        }
+    }
+
+    /**
+     * growable storage made of segments: the first segments double in size,
+     * then all segments have the maximum size. This keeps small results small
+     * and bounds the number of mappings for large ones.
+     */
+    private static final class SegmentedBuffer {
+        private static final int BASE_SHIFT = 12; // 4k
+        private static final int GROWING_SEGMENTS = 11; // up to 4M
+        private static final long MAX_SEGMENT = 1L << BASE_SHIFT + GROWING_SEGMENTS - 1;
+        private static final long GROWING_TOTAL = (1L << BASE_SHIFT)
+        * ((1L << GROWING_SEGMENTS) - 1);
+
+        private final SegmentAllocator _allocator;
+        private final List<ByteBuffer> _segments;
+        private long _size;
+        private long _capacity;
+
+        SegmentedBuffer(final SegmentAllocator allocator) {
+            _allocator = allocator;
+            _segments = new ArrayList<ByteBuffer>();
+        }
+
+        long size() {
+            return _size;
+        }
+
+        private int segmentIndex(final long pos) {
+            if (pos < GROWING_TOTAL) {
+                final long units = (pos >> BASE_SHIFT) + 1;
+                return 63 - Long.numberOfLeadingZeros(units);
+            }
+            return GROWING_SEGMENTS + (int) ((pos - GROWING_TOTAL) / MAX_SEGMENT);
+        }
+
+        private int segmentOffset(final long pos, final int index) {
+            if (index < GROWING_SEGMENTS) {
+                return (int) (pos - (1L << BASE_SHIFT) * ((1L << index) - 1));
+            }
+            return (int) ((pos - GROWING_TOTAL) % MAX_SEGMENT);
+        }
+
+        private void ensureCapacity(final long needed) throws IOException {
+            while (_capacity < needed) {
+                final int index = _segments.size();
+                final int size = (int) (index < GROWING_SEGMENTS ? 1L << BASE_SHIFT
+                        + index : MAX_SEGMENT);
+                _segments.add(_allocator.allocate(size));
+                _capacity += size;
+            }
+        }
+
+        void appendLong(final long value) throws IOException {
+            ensureCapacity(_size + 8);
+            final int index = segmentIndex(_size);
+            _segments.get(index).putLong(segmentOffset(_size, index), value);
+            _size += 8;
+        }
+
+        long getLong(final long pos) {
+            final int index = segmentIndex(pos);
+            return _segments.get(index).getLong(segmentOffset(pos, index));
+        }
+
+        void appendChars(final String value) throws IOException {
+            final int len = value.length();
+            ensureCapacity(_size + 2L * len);
+            int i = 0;
+            while (i < len) {
+                final int index = segmentIndex(_size);
+                final ByteBuffer segment = _segments.get(index);
+                int offset = segmentOffset(_size, index);
+                final int limit = segment.capacity();
+                while (i < len && offset < limit) {
+                    segment.putChar(offset, value.charAt(i++));
+                    offset += 2;
+                    _size += 2;
+                }
+            }
+        }
+
+        String getChars(long pos, final int len) {
+            final char[] result = new char[len];
+            int i = 0;
+            while (i < len) {
+                final int index = segmentIndex(pos);
+                final ByteBuffer segment = _segments.get(index);
+                int offset = segmentOffset(pos, index);
+                final int limit = segment.capacity();
+                while (i < len && offset < limit) {
+                    result[i++] = segment.getChar(offset);
+                    offset += 2;
+                    pos += 2;
+                }
+            }
+            return new String(result);
+        }
+    }
+
+    private abstract static class Vector {
+        private final BitSet _nulls = new BitSet();
+
+        protected void setNull(final int row) {
+            _nulls.set(row);
+        }
+
+        boolean isNull(final int row) {
+            return _nulls.get(row);
+        }
+    }
+
+    /** longs and doubles (as their bit pattern). */
+    private static final class PrimitiveVector extends Vector {
+        private final SegmentedBuffer _values;
+
+        PrimitiveVector(final SegmentAllocator allocator) {
+            _values = new SegmentedBuffer(allocator);
+        }
+
+        void add(final int row, final long value, final boolean isNull)
+        throws IOException {
+            if (isNull) {
+                setNull(row);
+            }
+            _values.appendLong(value);
+        }
+
+        long get(final int row) {
+            return _values.getLong(8L * row);
+        }
+    }
+
+    /** character data; we remember the end position of each value. */
+    private static final class StringVector extends Vector {
+        private final SegmentedBuffer _ends;
+        private final SegmentedBuffer _chars;
+
+        StringVector(final SegmentAllocator allocator) {
+            _ends = new SegmentedBuffer(allocator);
+            _chars = new SegmentedBuffer(allocator);
+        }
+
+        void add(final int row, final String value) throws IOException {
+            if (value == null) {
+                setNull(row);
+            } else {
+                _chars.appendChars(value);
+            }
+            _ends.appendLong(_chars.size());
+        }
+
+        String get(final int row) {
+            final long start = row == 0 ? 0 : _ends.getLong(8L * (row - 1));
+            final long end = _ends.getLong(8L * row);
+            return _chars.getChars(start, (int) ((end - start) / 2));
+        }
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,161 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only buffer of rows of strings. The first rows are kept in
+ * memory; everything beyond that is spilled to a temporary file, so that the
+ * memory footprint stays bounded no matter how many rows are added. Rows can
+ * be read back in any order.
+ */
+public final class RowSpillBuffer {
+    private static final int INITIAL_OFFSETS = 1024;
+
+    private final int _memoryRows;
+    private final List<String[]> _memory;
+
+    private File _spillFile;
+    private DataOutputStream _spillOut;
+    private RandomAccessFile _spillIn;
+    private long _spillPosition;
+    private boolean _needsFlush;
+
+    /** start offsets of the spilled rows in the spill file. */
+    private long[] _offsets;
+    private int _spilledRows;
+
+    /**
+     * @param memoryRows
+     *            number of rows to be kept in memory before spilling to disk.
+     */
+    public RowSpillBuffer(final int memoryRows) {
+        _memoryRows = memoryRows;
+        _memory = new ArrayList<String[]>(Math.min(memoryRows, 1024));
+        _spilledRows = 0;
+    }
+
+    public int size() {
+        return _memory.size() + _spilledRows;
+    }
+
+    public void add(final String[] row) throws IOException {
+        if (_memory.size() < _memoryRows) {
+            _memory.add(row);
+            return;
+        }
+        if (_spillOut == null) {
+            _spillFile = File.createTempFile("henplus-rows-", ".tmp");
+            _spillFile.deleteOnExit();
+            _spillOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(_spillFile), 65536));
+            _offsets = new long[INITIAL_OFFSETS];
+            _spillPosition = 0;
+        }
+        if (_spilledRows == _offsets.length) {
+            final long[] newOffsets = new long[_offsets.length * 2];
+            System.arraycopy(_offsets, 0, newOffsets, 0, _offsets.length);
+            _offsets = newOffsets;
+        }
+        _offsets[_spilledRows++] = _spillPosition;
+        final int before = _spillOut.size();
+        _spillOut.writeInt(row.length);
+        for (int i = 0; i < row.length; ++i) {
+            final String value = row[i];
+            if (value == null) {
+                _spillOut.writeInt(-1);
+            } else {
+                _spillOut.writeInt(value.length());
+                _spillOut.writeChars(value);
+            }
+        }
+        // DataOutputStream.size() is an int and wraps; only use the difference
+        _spillPosition += _spillOut.size() - before;
+        _needsFlush = true;
+    }
+
+    /**
+     * read back row with the given index (starting with zero).
+     */
+    public String[] get(final int index) throws IOException {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("row " + index);
+        }
+        if (index < _memory.size()) {
+            return _memory.get(index);
+        }
+        final int spillIndex = index - _memory.size();
+        if (_needsFlush) {
+            _spillOut.flush();
+            _needsFlush = false;
+        }
+        if (_spillIn == null) {
+            _spillIn = new RandomAccessFile(_spillFile, "r");
+        }
+        final long start = _offsets[spillIndex];
+        final long end = spillIndex + 1 < _spilledRows ? _offsets[spillIndex + 1]
+                : _spillPosition;
+        final byte[] record = new byte[(int) (end - start)];
+        _spillIn.seek(start);
+        _spillIn.readFully(record);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                record));
+        final String[] row = new String[in.readInt()];
+        for (int i = 0; i < row.length; ++i) {
+            final int len = in.readInt();
+            if (len < 0) {
+                continue;
+            }
+            final char[] chars = new char[len];
+            for (int c = 0; c < len; ++c) {
+                chars[c] = in.readChar();
+            }
+            row[i] = new String(chars);
+        }
+        return row;
+    }
+
+    /**
+     * release all resources and remove the spill file.
+     */
+    public void close() {
+        _memory.clear();
+        try {
+            if (_spillOut != null) {
+                _spillOut.close();
+            }
+            if (_spillIn != null) {
+                _spillIn.close();
+            }
+        } catch (final IOException e) {
+            /* ignore */
+        }
+        if (_spillFile != null) {
+            _spillFile.delete();
+        }
+        _spillOut = null;
+        _spillIn = null;
+        _spillFile = null;
+        _spilledRows = 0;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,251 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the lines of a script fast: the file is decoded in large blocks,
+ * from a memory mapped file or, for files ending with '.gz', from the
+ * uncompressed stream. The lines are not copied into Strings but handed
+ * out as ranges of the internal buffer:
+ *
+ * <pre>
+ * while (reader.nextLine()) {
+ *     use(reader.getBuffer(), reader.getLineStart(), reader.getLineLength());
+ * }
+ * </pre>
+ *
+ * Like {@link java.io.BufferedReader#readLine()}, lines are terminated by
+ * '\n', '\r' or "\r\n"; unlike it, each line handed out ends with a single
+ * '\n', regardless of its terminator. The number of bytes read from the file
+ * can be asked from other threads while reading.
+ */
+public final class ScriptReader implements ByteCounter {
+    /** chars decoded at once */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /** bytes of the file mapped at once */
+    private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+    private final CharsetDecoder _decoder;
+    private final FileInputStream _fileIn;
+
+    private final long _fileSize;
+
+    // either a mapped file ..
+    private final FileChannel _channel;
+    private long _mapStart;
+
+    // .. or a stream.
+    private final CountingInputStream _counter;
+    private final ReadableByteChannel _stream;
+
+    private ByteBuffer _bytes;
+    private boolean _endOfInput;
+    private volatile long _bytesRead;
+
+    private char[] _chars;
+    /** the chars not handed out yet are _chars[_pos.._limit) */
+    private int _pos;
+    private int _limit;
+    /** no line terminator in _chars[_pos.._scanned) */
+    private int _scanned;
+    private boolean _skipNewline;
+    private int _lineStart;
+    private int _lineEnd;
+
+    public ScriptReader(final File file, final String encoding)
+    throws IOException {
+        _decoder = Charset.forName(encoding).newDecoder().onMalformedInput(
+                CodingErrorAction.REPLACE).onUnmappableCharacter(
+                        CodingErrorAction.REPLACE);
+        _fileIn = new FileInputStream(file);
+        _fileSize = file.length();
+        if (file.getName().endsWith(".gz")) {
+            _channel = null;
+            _counter = new CountingInputStream(_fileIn);
+            try {
+                _stream = Channels.newChannel(new GZIPInputStream(_counter,
+                        BLOCK_SIZE));
+            } catch (final IOException e) {
+                _fileIn.close();
+                throw e;
+            }
+            _bytes = ByteBuffer.allocate(BLOCK_SIZE);
+            _bytes.flip();
+        } else {
+            _channel = _fileIn.getChannel();
+            _counter = null;
+            _stream = null;
+            _bytes = ByteBuffer.allocate(0);
+        }
+        _chars = new char[BLOCK_SIZE];
+    }
+
+    /**
+     * advance to the next line.
+     *
+     * @return false, if there are no more lines.
+     */
+    public boolean nextLine() throws IOException {
+        if (_skipNewline) {
+            if (_pos == _limit) {
+                fill();
+            }
+            if (_pos < _limit && _chars[_pos] == '\n') {
+                ++_pos;
+            }
+            _skipNewline = false;
+        }
+        _scanned = _pos;
+        for (;;) {
+            for (int i = _scanned; i < _limit; ++i) {
+                final char c = _chars[i];
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        _chars[i] = '\n';
+                        _skipNewline = true;
+                    }
+                    _lineStart = _pos;
+                    _lineEnd = i + 1;
+                    _pos = _lineEnd;
+                    return true;
+                }
+            }
+            _scanned = _limit;
+            if (_endOfInput) {
+                if (_pos == _limit) {
+                    return false;
+                }
+                // last line without terminator.
+                if (_limit == _chars.length) {
+                    makeRoom();
+                }
+                _chars[_limit++] = '\n';
+                _lineStart = _pos;
+                _lineEnd = _limit;
+                _pos = _limit;
+                return true;
+            }
+            fill();
+        }
+    }
+
+    public char[] getBuffer() {
+        return _chars;
+    }
+
+    public int getLineStart() {
+        return _lineStart;
+    }
+
+    /**
+     * the length of the current line, including its terminating '\n'.
+     */
+    public int getLineLength() {
+        return _lineEnd - _lineStart;
+    }
+
+    /**
+     * the bytes read from the file so far; for compressed files, the
+     * compressed bytes.
+     */
+    public long getByteCount() {
+        return _bytesRead;
+    }
+
+    /**
+     * the size of the file; the number of bytes read at the end.
+     */
+    public long getFileSize() {
+        return _fileSize;
+    }
+
+    public void close() throws IOException {
+        if (_stream != null) {
+            _stream.close();
+        }
+        _fileIn.close();
+    }
+
+    /**
+     * move the chars not handed out yet to the beginning of the buffer; grow
+     * it, if it is full.
+     */
+    private void makeRoom() {
+        final int pending = _limit - _pos;
+        char[] target = _chars;
+        if (pending == _chars.length) {
+            target = new char[2 * _chars.length];
+        }
+        System.arraycopy(_chars, _pos, target, 0, pending);
+        _chars = target;
+        _scanned -= _pos;
+        _limit = pending;
+        _pos = 0;
+    }
+
+    /**
+     * decode more chars; sets _endOfInput if there are none.
+     */
+    private void fill() throws IOException {
+        if (_pos > 0 || _limit == _chars.length) {
+            makeRoom();
+        }
+        final CharBuffer out = CharBuffer.wrap(_chars, _limit, _chars.length
+                - _limit);
+        final int start = _limit;
+        while (out.position() == start && !_endOfInput) {
+            _decoder.decode(_bytes, out, false);
+            if (out.position() == start && !moreBytes()) {
+                _decoder.decode(_bytes, out, true);
+                _decoder.flush(out);
+                _endOfInput = true;
+            }
+        }
+        _limit = out.position();
+        _bytesRead = _counter != null ? _counter.getByteCount() : _mapStart
+                + _bytes.position();
+    }
+
+    /**
+     * make more bytes available, keeping those not decoded yet.
+     *
+     * @return false at the end of the file.
+     */
+    private boolean moreBytes() throws IOException {
+        if (_channel != null) {
+            if (_mapStart + _bytes.limit() >= _fileSize) {
+                return false;
+            }
+            _mapStart += _bytes.position();
+            _bytes = _channel.map(FileChannel.MapMode.READ_ONLY, _mapStart,
+                    Math.min(MAP_SIZE, _fileSize - _mapStart));
+            return true;
+        }
+        _bytes.compact();
+        final int read = _stream.read(_bytes);
+        _bytes.flip();
+        return read >= 0;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
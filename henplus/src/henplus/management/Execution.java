@@ -0,0 +1,93 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+import henplus.CommandDispatcher;
+import henplus.SQLSession;
+import henplus.commands.LoadCommand;
+import henplus.commands.TimeRenderer;
+import henplus.event.ExecutionListener;
+import henplus.event.RunningCommand;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The running commands, as the dispatcher tracks them, and the number of
+ * commands executed, counted as listener of the dispatcher.
+ */
+final class Execution implements ExecutionMBean, ExecutionListener {
+    private final CommandDispatcher _dispatcher;
+    private final LoadCommand _loadCommand;
+    private long _executed;
+
+    Execution(final CommandDispatcher dispatcher,
+            final LoadCommand loadCommand) {
+        _dispatcher = dispatcher;
+        _loadCommand = loadCommand;
+    }
+
+    public void beforeExecution(final SQLSession session,
+            final String command) {
+    }
+
+    public synchronized void afterExecution(final SQLSession session,
+            final String command, final int result) {
+        ++_executed;
+    }
+
+    /**
+     * the innermost running command.
+     *
+     * @return null, if there is none.
+     */
+    private RunningCommand getInnermost() {
+        final List<RunningCommand> running = _dispatcher.getRunningCommands();
+        return running.isEmpty() ? null : running.get(running.size() - 1);
+    }
+
+    public String getRunningCommand() {
+        final RunningCommand running = getInnermost();
+        return running != null ? running.getCommand().trim() : null;
+    }
+
+    public long getRunningTime() {
+        final RunningCommand running = getInnermost();
+        return running != null ? running.getElapsedNanos() / 1000000 : -1;
+    }
+
+    public String[] getRunningCommands() {
+        final List<RunningCommand> running = _dispatcher.getRunningCommands();
+        final String[] result = new String[running.size()];
+        for (int i = 0; i < result.length; ++i) {
+            final RunningCommand command = running.get(i);
+            result[i] = TimeRenderer.renderTime(command.getElapsedNanos()
+                    / 1000000)
+                    + ": " + command.getCommand().trim();
+        }
+        return result;
+    }
+
+    public synchronized long getExecutedCommands() {
+        return _executed;
+    }
+
+    public String getScript() {
+        final File file = _loadCommand.getCurrentFile();
+        return file != null ? file.getPath() : null;
+    }
+
+    public int getScriptLine() {
+        return _loadCommand.getCurrentFile() != null ? _loadCommand
+                .getCurrentLine() : -1;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
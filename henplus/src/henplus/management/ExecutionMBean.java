@@ -0,0 +1,49 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+/**
+ * The commands currently executed and the progress of loaded scripts. Times
+ * are in milliseconds.
+ */
+public interface ExecutionMBean {
+    /**
+     * the innermost command running, e.g. the statement of a loaded script;
+     * null if the shell is idle.
+     */
+    String getRunningCommand();
+
+    /**
+     * the time the innermost command is running; -1 if the shell is idle.
+     */
+    long getRunningTime();
+
+    /**
+     * all running commands with their running time, outermost first.
+     */
+    String[] getRunningCommands();
+
+    /**
+     * the number of commands executed since the instrumentation was enabled.
+     */
+    long getExecutedCommands();
+
+    /**
+     * the script currently loaded; null if none.
+     */
+    String getScript();
+
+    /**
+     * the line of the loaded script currently executed.
+     */
+    int getScriptLine();
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,169 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+import henplus.CommandDispatcher;
+import henplus.HenPlus;
+import henplus.SessionManager;
+import henplus.commands.LoadCommand;
+import henplus.event.ProgressListener;
+import henplus.property.BooleanPropertyHolder;
+import henplus.view.util.ProgressWriter;
+
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The property 'jmx-beans'. If switched on, MBeans are registered in the
+ * platform MBean server, so that a running shell can be observed with any
+ * JMX client, e.g. jconsole:
+ * <ul>
+ * <li>henplus:type=Sessions - the open sessions</li>
+ * <li>henplus:type=Execution - the running commands and loaded script</li>
+ * <li>henplus:type=Operation,name=... - a running dump or import</li>
+ * </ul>
+ */
+public final class JmxInstrumentation extends BooleanPropertyHolder
+implements ProgressListener {
+    private static final String DOMAIN = "henplus";
+    private static final ObjectName SESSIONS = objectName("type=Sessions");
+    private static final ObjectName EXECUTION = objectName("type=Execution");
+
+    private final CommandDispatcher _dispatcher;
+    private final LoadCommand _loadCommand;
+
+    // guarded by this.
+    private MBeanServer _server;
+    private final Map<ProgressWriter, ObjectName> _operations;
+    private int _nextOperation;
+    private Execution _execution;
+
+    public JmxInstrumentation(final CommandDispatcher dispatcher,
+            final LoadCommand loadCommand) {
+        super(false);
+        _dispatcher = dispatcher;
+        _loadCommand = loadCommand;
+        _operations = new IdentityHashMap<ProgressWriter, ObjectName>();
+        _nextOperation = 1;
+    }
+
+    private static ObjectName objectName(final String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (final Exception e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    // -- Progress listener
+
+    public synchronized void operationStarted(final ProgressWriter progress) {
+        if (_server == null) {
+            return;
+        }
+        try {
+            final ObjectName name = objectName("type=Operation,id="
+                    + _nextOperation++ + ",name="
+                    + ObjectName.quote(progress.getOperation()));
+            _server.registerMBean(new Operation(progress), name);
+            _operations.put(progress, name);
+        } catch (final Exception e) {
+            /* observing is not worth failing the operation */
+        }
+    }
+
+    public synchronized void operationFinished(final ProgressWriter progress) {
+        final ObjectName name = _operations.remove(progress);
+        if (name != null && _server != null) {
+            unregister(_server, name);
+        }
+    }
+
+    private static void unregister(final MBeanServer mbeanServer,
+            final ObjectName name) {
+        try {
+            mbeanServer.unregisterMBean(name);
+        } catch (final Exception e) {
+            /* gone anyway */
+        }
+    }
+
+    @Override
+    public void booleanPropertyChanged(final boolean switchOn) throws Exception {
+        synchronized (this) {
+            if (switchOn == (_server != null)) {
+                return;
+            }
+            if (switchOn) {
+                final MBeanServer mbeanServer = ManagementFactory
+                .getPlatformMBeanServer();
+                // left over from a failed attempt?
+                unregister(mbeanServer, SESSIONS);
+                unregister(mbeanServer, EXECUTION);
+                _execution = new Execution(_dispatcher, _loadCommand);
+                mbeanServer.registerMBean(new Sessions(SessionManager
+                        .getInstance()), SESSIONS);
+                mbeanServer.registerMBean(_execution, EXECUTION);
+                _dispatcher.addExecutionListener(_execution);
+                ProgressWriter.addProgressListener(this);
+                _server = mbeanServer;
+            } else {
+                ProgressWriter.removeProgressListener(this);
+                _dispatcher.removeExecutionListener(_execution);
+                _execution = null;
+                for (final ObjectName name : _operations.values()) {
+                    unregister(_server, name);
+                }
+                _operations.clear();
+                unregister(_server, EXECUTION);
+                unregister(_server, SESSIONS);
+                _server = null;
+            }
+        }
+        if (switchOn) {
+            HenPlus.msg().println(
+                    "JMX instrumentation registered in domain '" + DOMAIN
+                    + "'");
+        }
+    }
+
+    @Override
+    public String getDefaultValue() {
+        return "false";
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "expose sessions, commands and dumps as JMX MBeans";
+    }
+
+    @Override
+    public String getLongDescription() {
+        String dsc;
+        dsc = "\tIf switched on, MBeans are registered in the platform\n"
+            + "\tMBean server, so that a long running batch can be watched\n"
+            + "\tfrom outside with any JMX client (e.g. jconsole, which can\n"
+            + "\tattach to the local process):\n"
+            + "\t  henplus:type=Sessions   - the open sessions with their\n"
+            + "\t                            statement counts and uptime\n"
+            + "\t  henplus:type=Execution  - the running commands and their\n"
+            + "\t                            time; script and line loaded\n"
+            + "\t  henplus:type=Operation  - one for each running dump-in,\n"
+            + "\t                            dump-out or import with rows,\n"
+            + "\t                            bytes and their rates";
+        return dsc;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
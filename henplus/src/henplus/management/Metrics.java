@@ -0,0 +1,207 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+import henplus.Command;
+import henplus.SQLSession;
+import henplus.SessionManager;
+import henplus.commands.SQLCommand;
+import henplus.event.ProgressListener;
+import henplus.event.StatementListener;
+import henplus.view.util.ProgressWriter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters of the executed SQL statements, their latency and of the rows and
+ * bytes of dumps and imports, rendered in the Prometheus text exposition
+ * format. Collecting only means incrementing a few counters per statement,
+ * so it is always on; the text is rendered only if it is asked for.
+ */
+public final class Metrics implements StatementListener, ProgressListener {
+    /** upper bounds of the latency buckets in seconds */
+    private static final double[] LATENCY_BUCKETS = { 0.001, 0.005, 0.01,
+        0.05, 0.1, 0.5, 1, 5, 10, 60, 300 };
+
+    private final SQLCommand _sqlCommand;
+
+    // guarded by this.
+    /** rows and bytes of dumps and imports */
+    private final Map<ProgressWriter, String> _running;
+    private final Map<String, long[]> _finished;
+    private long _statements;
+    private long _errors;
+    private long _rowsFetched;
+    private long _rowsAffected;
+    private final long[] _latencyCounts;
+    private long _latencyCount;
+    private long _latencySumNanos;
+
+    public Metrics(final SQLCommand sqlCommand) {
+        _sqlCommand = sqlCommand;
+        _latencyCounts = new long[LATENCY_BUCKETS.length];
+        _running = new IdentityHashMap<ProgressWriter, String>();
+        _finished = new TreeMap<String, long[]>();
+    }
+
+    // -- Progress listener
+
+    public synchronized void operationStarted(final ProgressWriter progress) {
+        _running.put(progress, kindOf(progress.getOperation()));
+    }
+
+    public synchronized void operationFinished(final ProgressWriter progress) {
+        final String kind = _running.remove(progress);
+        if (kind != null) {
+            add(_finished, kind, progress);
+        }
+    }
+
+    /**
+     * the kind of an operation is its first word, e.g. 'dump-in'.
+     */
+    private static String kindOf(final String operation) {
+        final int space = operation.indexOf(' ');
+        return space > 0 ? operation.substring(0, space) : operation;
+    }
+
+    private static void add(final Map<String, long[]> totals,
+            final String kind, final ProgressWriter progress) {
+        long[] total = totals.get(kind);
+        if (total == null) {
+            total = new long[2];
+            totals.put(kind, total);
+        }
+        total[0] += progress.getValue();
+        total[1] += Math.max(0, progress.getBytes());
+    }
+
+    /**
+     * rows and bytes per kind of operation, including the operations still
+     * running.
+     */
+    private synchronized Map<String, long[]> getOperationTotals() {
+        final Map<String, long[]> result = new TreeMap<String, long[]>();
+        for (final Map.Entry<String, long[]> entry : _finished.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().clone());
+        }
+        for (final Map.Entry<ProgressWriter, String> entry : _running
+                .entrySet()) {
+            add(result, entry.getValue(), entry.getKey());
+        }
+        return result;
+    }
+
+    // -- Statement listener
+
+    public void statementExecuted(final SQLSession session,
+            final String command, final int result, final long startTime,
+            final long nanos) {
+        final boolean success = result == Command.SUCCESS;
+        final int rows = success ? _sqlCommand.getLastRowCount() : -1;
+        final boolean query = _sqlCommand.getLastFirstRowTime() >= 0;
+        synchronized (this) {
+            ++_statements;
+            if (!success) {
+                ++_errors;
+            }
+            if (rows > 0) {
+                if (query) {
+                    _rowsFetched += rows;
+                } else {
+                    _rowsAffected += rows;
+                }
+            }
+            final double seconds = nanos / 1e9;
+            for (int i = 0; i < LATENCY_BUCKETS.length; ++i) {
+                if (seconds <= LATENCY_BUCKETS[i]) {
+                    ++_latencyCounts[i];
+                    break;
+                }
+            }
+            ++_latencyCount;
+            _latencySumNanos += nanos;
+        }
+    }
+
+    /**
+     * the current values in the Prometheus text format.
+     */
+    public String render() {
+        final StringBuilder out = new StringBuilder();
+        synchronized (this) {
+            counter(out, "henplus_statements_total",
+                    "SQL statements executed.", _statements);
+            counter(out, "henplus_statement_errors_total",
+                    "SQL statements that failed.", _errors);
+            counter(out, "henplus_rows_fetched_total",
+                    "Rows read from query results.", _rowsFetched);
+            counter(out, "henplus_rows_affected_total",
+                    "Rows affected by updates.", _rowsAffected);
+
+            final String name = "henplus_statement_duration_seconds";
+            header(out, name, "Execution time of the SQL statements.",
+            "histogram");
+            long cumulative = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; ++i) {
+                cumulative += _latencyCounts[i];
+                out.append(name).append("_bucket{le=\"").append(
+                        LATENCY_BUCKETS[i]).append("\"} ").append(cumulative)
+                        .append('\n');
+            }
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(
+                    _latencyCount).append('\n');
+            out.append(name).append("_sum ").append(_latencySumNanos / 1e9)
+            .append('\n');
+            out.append(name).append("_count ").append(_latencyCount).append(
+            '\n');
+        }
+
+        final Map<String, long[]> operations = getOperationTotals();
+        header(out, "henplus_operation_rows_total",
+                "Rows processed by dump-in, dump-out, import and others.",
+        "counter");
+        for (final Map.Entry<String, long[]> entry : operations.entrySet()) {
+            out.append("henplus_operation_rows_total{operation=\"").append(
+                    entry.getKey()).append("\"} ").append(entry.getValue()[0])
+                    .append('\n');
+        }
+        header(out, "henplus_operation_bytes_total",
+                "Bytes read or written by dumps and imports.", "counter");
+        for (final Map.Entry<String, long[]> entry : operations.entrySet()) {
+            out.append("henplus_operation_bytes_total{operation=\"").append(
+                    entry.getKey()).append("\"} ").append(entry.getValue()[1])
+                    .append('\n');
+        }
+
+        header(out, "henplus_sessions", "Open sessions.", "gauge");
+        out.append("henplus_sessions ").append(
+                SessionManager.getInstance().getSessionCount()).append('\n');
+        return out.toString();
+    }
+
+    private static void counter(final StringBuilder out, final String name,
+            final String help, final long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(final StringBuilder out, final String name,
+            final String help, final String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append(
+        '\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append(
+        '\n');
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
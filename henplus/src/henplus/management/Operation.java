@@ -0,0 +1,65 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+import henplus.view.util.ProgressWriter;
+
+/**
+ * Exposes the counters of the ProgressWriter of a dump or import.
+ */
+final class Operation implements OperationMBean {
+    private final ProgressWriter _progress;
+
+    Operation(final ProgressWriter progress) {
+        _progress = progress;
+    }
+
+    public String getOperation() {
+        return _progress.getOperation();
+    }
+
+    public long getRows() {
+        return _progress.getValue();
+    }
+
+    public long getExpectedRows() {
+        final long expected = _progress.getExpectedTargetValue();
+        return expected > 0 ? expected : -1;
+    }
+
+    public long getBytes() {
+        return _progress.getBytes();
+    }
+
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - _progress.getStartTime();
+    }
+
+    public double getRowsPerSecond() {
+        return perSecond(getRows());
+    }
+
+    public double getBytesPerSecond() {
+        final long bytes = getBytes();
+        return bytes < 0 ? -1 : perSecond(bytes);
+    }
+
+    public double getPercentDone() {
+        final long expected = getExpectedRows();
+        return expected > 0 ? 100.0 * getRows() / expected : -1;
+    }
+
+    private double perSecond(final long value) {
+        final long elapsed = getElapsedTime();
+        return elapsed > 0 ? 1000.0 * value / elapsed : 0;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
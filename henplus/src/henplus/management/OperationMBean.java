@@ -0,0 +1,45 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+/**
+ * A running dump or import. Times are in milliseconds.
+ */
+public interface OperationMBean {
+    /**
+     * the command and its object, e.g. 'dump-in customer'.
+     */
+    String getOperation();
+
+    long getRows();
+
+    /**
+     * the number of rows expected; -1 if unknown.
+     */
+    long getExpectedRows();
+
+    /**
+     * the bytes of the file read or written so far; -1 if unknown.
+     */
+    long getBytes();
+
+    long getElapsedTime();
+
+    double getRowsPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * the completion in percent; -1 if the expected rows are unknown.
+     */
+    double getPercentDone();
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,87 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+import henplus.SQLSession;
+import henplus.SessionManager;
+import henplus.commands.TimeRenderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the sessions of the {@link SessionManager}.
+ */
+final class Sessions implements SessionsMBean {
+    private final SessionManager _sessionManager;
+
+    Sessions(final SessionManager sessionManager) {
+        _sessionManager = sessionManager;
+    }
+
+    public int getSessionCount() {
+        return _sessionManager.getSessionCount();
+    }
+
+    public String getCurrentSession() {
+        final SQLSession current = _sessionManager.getCurrentSession();
+        if (current == null) {
+            return null;
+        }
+        final String[] names = getSessionNames();
+        for (int i = 0; i < names.length; ++i) {
+            if (_sessionManager.getSessionByName(names[i]) == current) {
+                return names[i];
+            }
+        }
+        return null;
+    }
+
+    public String[] getSessionNames() {
+        final List<String> names = new ArrayList<String>();
+        for (final Object name : _sessionManager.getSessionNames()) {
+            names.add((String) name);
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public String[] getSessions() {
+        final List<String> result = new ArrayList<String>();
+        final String[] names = getSessionNames();
+        for (int i = 0; i < names.length; ++i) {
+            final SQLSession session = _sessionManager
+            .getSessionByName(names[i]);
+            if (session == null) {
+                continue; // closed meanwhile.
+            }
+            result.add(names[i] + ": " + session.getURL() + ", "
+                    + session.getStatementCount() + " statements, up "
+                    + TimeRenderer.renderTime(session.getUptime()));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public String getURL(final String name) {
+        final SQLSession session = _sessionManager.getSessionByName(name);
+        return session != null ? session.getURL() : null;
+    }
+
+    public long getStatementCount(final String name) {
+        final SQLSession session = _sessionManager.getSessionByName(name);
+        return session != null ? session.getStatementCount() : -1;
+    }
+
+    public long getUptime(final String name) {
+        final SQLSession session = _sessionManager.getSessionByName(name);
+        return session != null ? session.getUptime() : -1;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
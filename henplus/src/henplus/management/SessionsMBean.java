@@ -0,0 +1,48 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.management;
+
+/**
+ * The open sessions. Times are in milliseconds.
+ */
+public interface SessionsMBean {
+    int getSessionCount();
+
+    /**
+     * the name of the current session; null if not connected.
+     */
+    String getCurrentSession();
+
+    String[] getSessionNames();
+
+    /**
+     * one line per session with name, URL, statements executed and uptime.
+     */
+    String[] getSessions();
+
+    /**
+     * the URL of the named session; null if there is no such session.
+     */
+    String getURL(String session);
+
+    /**
+     * the number of statements executed in the named session; -1 if there
+     * is no such session.
+     */
+    long getStatementCount(String session);
+
+    /**
+     * the time the named session is connected; -1 if there is no such
+     * session.
+     */
+    long getUptime(String session);
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,167 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.util;
+
+/**
+ * A histogram of non-negative values with a bounded relative error, in the
+ * style of the HDR histogram: values are counted in buckets of logarithmic
+ * magnitude, each split into 64 linear sub-buckets. So any value is recorded
+ * with an error of less than 1/64 (about 1.5%), while the size of the
+ * histogram only depends on the magnitude of the largest value, not on the
+ * number of values. Percentiles are reported as the upper bound of the
+ * bucket.
+ *
+ * <p>Not synchronized; record in one thread per histogram and {@link
+ * #add(LatencyHistogram)} them afterwards.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /** buckets needed to cover all positive long values */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1)
+    * HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+    private long[] _counts;
+    private long _count;
+    private long _total;
+    private long _min;
+    private long _max;
+
+    public LatencyHistogram() {
+        _counts = new long[SUB_BUCKETS];
+        reset();
+    }
+
+    /**
+     * record the given value; negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        final int index = indexOf(value);
+        if (index >= _counts.length) {
+            grow(index + 1);
+        }
+        ++_counts[index];
+        ++_count;
+        _total += value;
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    /**
+     * add all values recorded in the other histogram to this one.
+     */
+    public void add(final LatencyHistogram other) {
+        if (other._counts.length > _counts.length) {
+            grow(other._counts.length);
+        }
+        for (int i = 0; i < other._counts.length; ++i) {
+            _counts[i] += other._counts[i];
+        }
+        _count += other._count;
+        _total += other._total;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < _counts.length; ++i) {
+            _counts[i] = 0;
+        }
+        _count = 0;
+        _total = 0;
+        _min = Long.MAX_VALUE;
+        _max = 0;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public long getTotal() {
+        return _total;
+    }
+
+    /**
+     * the smallest value recorded; 0 if the histogram is empty.
+     */
+    public long getMin() {
+        return _count == 0 ? 0 : _min;
+    }
+
+    public long getMax() {
+        return _max;
+    }
+
+    public long getMean() {
+        return _count == 0 ? 0 : _total / _count;
+    }
+
+    /**
+     * the value below or at which the given percentage of all values are;
+     * e.g. getValueAtPercentile(99) for the 99th percentile. Never larger
+     * than the maximum recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (_count == 0) {
+            return 0;
+        }
+        long wanted = (long) Math.ceil(_count * Math.min(percentile, 100.0)
+                / 100.0);
+        if (wanted < 1) {
+            wanted = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < _counts.length; ++i) {
+            seen += _counts[i];
+            if (seen >= wanted) {
+                return Math.min(highestValueAt(i), _max);
+            }
+        }
+        return _max;
+    }
+
+    private void grow(final int minLength) {
+        final long[] counts = new long[Math.min(BUCKETS, Math.max(minLength,
+                2 * _counts.length))];
+        System.arraycopy(_counts, 0, counts, 0, _counts.length);
+        _counts = counts;
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value has at least SUB_BUCKET_BITS + 1 significant bits; keep the
+        // topmost SUB_BUCKET_BITS of them.
+        final int shift = 64 - Long.numberOfLeadingZeros(value)
+        - SUB_BUCKET_BITS;
+        final int sub = (int) (value >>> shift); // HALF..SUB_BUCKETS-1
+        return shift * HALF_SUB_BUCKETS + sub;
+    }
+
+    private static long highestValueAt(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / HALF_SUB_BUCKETS - 1;
+        final long sub = index - shift * HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,428 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lifts the numeric and string literals of a SQL statement into bind
+ * parameters, so that statements that only differ in their literals share the
+ * same SQL text. Literals whose position matters to the meaning of the
+ * statement are left alone: positional ORDER BY/GROUP BY columns and typed
+ * literals like DATE '2009-01-01' or INTERVAL '1' DAY.
+ */
+public final class SQLParameterizer {
+    private static final String[] TYPED_LITERAL_PREFIX = { "DATE", "TIME",
+        "TIMESTAMP", "INTERVAL" };
+    private static final String[] POSITIONAL_CLAUSE_END = { "WHERE", "HAVING",
+        "LIMIT", "OFFSET", "FETCH", "UNION", "INTERSECT", "EXCEPT", "MINUS",
+        "FOR", "WINDOW" };
+    /** keywords after which a value, not a name, is expected */
+    private static final String[] VALUE_KEYWORDS = { "LIKE", "BETWEEN",
+        "THEN", "ELSE" };
+    private static final String OPERATORS = "=<>!+-*/%|";
+
+    private final String _sql;
+    private final List<Object> _parameters;
+
+    private SQLParameterizer(final String sql, final List<Object> parameters) {
+        _sql = sql;
+        _parameters = parameters;
+    }
+
+    /**
+     * the statement with the literals replaced by '?'.
+     */
+    public String getSQL() {
+        return _sql;
+    }
+
+    /**
+     * the values of the parameters in the order of their occurence; Strings,
+     * Longs or BigDecimals.
+     */
+    public List<Object> getParameters() {
+        return Collections.unmodifiableList(_parameters);
+    }
+
+    /**
+     * parameterize the given statement.
+     *
+     * @return the parameterized statement or null, if the statement cannot be
+     *         parameterized, e.g. because it already contains placeholders,
+     *         has an unterminated literal or one with backslashes, whose
+     *         meaning depends on the database.
+     */
+    public static SQLParameterizer parameterize(final String sql) {
+        return parameterize(sql, Collections.emptyList());
+    }
+
+    /**
+     * parameterize the given statement, that already contains placeholders
+     * for the given values. The result contains the given values and the
+     * lifted literals in the order of their occurence.
+     *
+     * @return the parameterized statement or null, if the statement cannot be
+     *         parameterized, e.g. because it contains more placeholders than
+     *         values, has an unterminated literal or one with backslashes.
+     */
+    public static SQLParameterizer parameterize(final String sql,
+            final List<?> boundValues) {
+        final StringBuilder result = new StringBuilder(sql.length());
+        final List<Object> parameters = new ArrayList<Object>();
+        int nextBound = 0;
+        final int len = sql.length();
+        String lastWord = null;
+        boolean positionalClause = false;
+        int i = 0;
+        while (i < len) {
+            final char c = sql.charAt(i);
+            if (c == '?') {
+                if (nextBound >= boundValues.size()) {
+                    return null;
+                }
+                parameters.add(boundValues.get(nextBound++));
+                result.append(c);
+                lastWord = null;
+                ++i;
+            } else if (c == '\'') {
+                if (isEscapeLiteral(sql, i, lastWord)) {
+                    return null;
+                }
+                final StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                boolean terminated = false;
+                while (j < len) {
+                    final char s = sql.charAt(j);
+                    if (s == '\\') {
+                        // escapes depend on the database; leave it as is.
+                        return null;
+                    }
+                    if (s == '\'') {
+                        if (j + 1 < len && sql.charAt(j + 1) == '\'') {
+                            value.append('\'');
+                            j += 2;
+                            continue;
+                        }
+                        terminated = true;
+                        break;
+                    }
+                    value.append(s);
+                    ++j;
+                }
+                if (!terminated) {
+                    return null;
+                }
+                if (isTypedLiteralPrefix(lastWord)) {
+                    result.append(sql, i, j + 1);
+                } else {
+                    result.append('?');
+                    parameters.add(value.toString());
+                }
+                lastWord = null;
+                i = j + 1;
+            } else if (c == '"' || c == '`') {
+                // quoted identifier.
+                final int end = sql.indexOf(c, i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                result.append(sql, i, end + 1);
+                lastWord = null;
+                i = end + 1;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                end = end < 0 ? len : end;
+                result.append(sql, i, end);
+                i = end;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                final int end = sql.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                result.append(sql, i, end + 2);
+                i = end + 2;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int j = i + 1;
+                while (j < len && (Character.isJavaIdentifierPart(sql.charAt(j))
+                        || sql.charAt(j) == '#')) {
+                    ++j;
+                }
+                final String word = sql.substring(i, j).toUpperCase();
+                if ("BY".equals(word)
+                        && ("ORDER".equals(lastWord) || "GROUP"
+                                .equals(lastWord))) {
+                    positionalClause = true;
+                } else if (contains(POSITIONAL_CLAUSE_END, word)) {
+                    positionalClause = false;
+                }
+                lastWord = word;
+                result.append(sql, i, j);
+                i = j;
+            } else if (Character.isDigit(c)
+                    || c == '.' && i + 1 < len
+                    && Character.isDigit(sql.charAt(i + 1))) {
+                final int end = numberEnd(sql, i);
+                final boolean partOfName = i > 0
+                && (sql.charAt(i - 1) == '.' || Character
+                        .isJavaIdentifierPart(sql.charAt(i - 1)));
+                final boolean followedByName = end < len
+                && Character.isJavaIdentifierStart(sql.charAt(end));
+                if (positionalClause || partOfName || followedByName) {
+                    result.append(sql, i, end);
+                } else {
+                    result.append('?');
+                    parameters.add(toNumber(sql.substring(i, end)));
+                }
+                lastWord = null;
+                i = end;
+            } else {
+                if (c == ')' || c == ';') {
+                    positionalClause = false;
+                }
+                if (!Character.isWhitespace(c)) {
+                    lastWord = null;
+                }
+                result.append(c);
+                ++i;
+            }
+        }
+        return new SQLParameterizer(result.toString(), parameters);
+    }
+
+    /**
+     * replaces the variables $VARNAME or ${VARNAME} outside of literals and
+     * comments by placeholders, if they are defined in the given map and
+     * stand where a value is expected: after an operator, LIKE, BETWEEN,
+     * THEN or ELSE, or in a list after IN or VALUES. Variables naming tables,
+     * columns or functions can't be bound. Values looking like numbers are
+     * bound as numbers, all others as strings, so that the statement means the
+     * same as with the values substituted textually. Everything else,
+     * including variables within literals, is left for textual substitution.
+     *
+     * @return the statement with placeholders or null, if the statement
+     *         already contains placeholders or where its literals end
+     *         depends on the database, because they contain backslashes.
+     */
+    public static SQLParameterizer bindVariables(final String sql,
+            final Map<?, ?> variables) {
+        final StringBuilder result = new StringBuilder(sql.length());
+        final List<Object> parameters = new ArrayList<Object>();
+        // for each open parenthesis: if it holds a list of values.
+        final List<Boolean> valueLists = new ArrayList<Boolean>();
+        final int len = sql.length();
+        boolean valueExpected = false;
+        boolean between = false;
+        String lastWord = null;
+        int i = 0;
+        while (i < len) {
+            final char c = sql.charAt(i);
+            int end = i + 1;
+            if (c == '?') {
+                return null;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                end = sql.indexOf(c, i + 1);
+                end = end < 0 ? len : end + 1;
+                if (c == '\''
+                        && (isEscapeLiteral(sql, i, lastWord) || sql.substring(
+                                i, end).indexOf('\\') >= 0)) {
+                    // where it ends depends on the database.
+                    return null;
+                }
+                valueExpected = false;
+                lastWord = null;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                end = sql.indexOf('\n', i);
+                end = end < 0 ? len : end;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                end = sql.indexOf("*/", i + 2);
+                end = end < 0 ? len : end + 2;
+            } else if (c == '$' && i + 1 < len && sql.charAt(i + 1) == '$') {
+                end = i + 2;
+                valueExpected = false;
+            } else if (c == '$' && i + 1 < len) {
+                final boolean hasBrace = sql.charAt(i + 1) == '{';
+                int nameEnd = hasBrace ? i + 2 : i + 1;
+                while (nameEnd < len
+                        && Character.isJavaIdentifierPart(sql.charAt(nameEnd))) {
+                    ++nameEnd;
+                }
+                final String name = sql.substring(hasBrace ? i + 2 : i + 1,
+                        nameEnd);
+                final boolean complete = !hasBrace || nameEnd < len
+                && sql.charAt(nameEnd) == '}';
+                final int varEnd = hasBrace ? nameEnd + 1 : nameEnd;
+                if (complete && valueExpected && variables.containsKey(name)
+                        && !isPartOfName(sql, i, varEnd)) {
+                    final Object value = variables.get(name);
+                    result.append('?');
+                    parameters.add(typedValue(value == null ? null : value
+                            .toString()));
+                    valueExpected = false;
+                    lastWord = null;
+                    i = varEnd;
+                    continue;
+                }
+                // substituted textually: may be anything.
+                end = complete ? varEnd : i + 1;
+                valueExpected = false;
+                lastWord = null;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (end < len
+                        && (Character.isJavaIdentifierPart(sql.charAt(end)) || sql
+                                .charAt(end) == '#')) {
+                    ++end;
+                }
+                final String word = sql.substring(i, end).toUpperCase();
+                if ("AND".equals(word) && between) {
+                    valueExpected = true;
+                    between = false;
+                } else {
+                    valueExpected = contains(VALUE_KEYWORDS, word);
+                    between |= "BETWEEN".equals(word);
+                }
+                lastWord = word;
+            } else if (c == '(') {
+                final boolean values = "IN".equals(lastWord)
+                || "VALUES".equals(lastWord) || valueExpected;
+                valueLists.add(Boolean.valueOf(values));
+                valueExpected = values;
+                lastWord = null;
+            } else if (c == ')') {
+                if (!valueLists.isEmpty()) {
+                    valueLists.remove(valueLists.size() - 1);
+                }
+                valueExpected = false;
+                lastWord = null;
+            } else if (c == ',') {
+                valueExpected = !valueLists.isEmpty()
+                && valueLists.get(valueLists.size() - 1).booleanValue();
+                lastWord = null;
+            } else if (OPERATORS.indexOf(c) >= 0) {
+                valueExpected = true;
+                lastWord = null;
+            } else if (!Character.isWhitespace(c)) {
+                valueExpected = false;
+                lastWord = null;
+            }
+            result.append(sql, i, end);
+            i = end;
+        }
+        return new SQLParameterizer(result.toString(), parameters);
+    }
+
+    /**
+     * returns, if the variable between start and end is only a part of a
+     * name, like in 'tab_$SUFFIX', '$SCHEMA.tab' or a function '$FUNC(..)'.
+     */
+    /**
+     * whether the literal starting at the given position is a PostgreSQL
+     * E'..' literal with backslash escapes.
+     */
+    private static boolean isEscapeLiteral(final String sql, final int pos,
+            final String lastWord) {
+        return pos > 0 && "E".equalsIgnoreCase(lastWord)
+        && Character.toUpperCase(sql.charAt(pos - 1)) == 'E';
+    }
+
+    private static boolean isPartOfName(final String sql, final int start,
+            final int end) {
+        if (start > 0) {
+            final char before = sql.charAt(start - 1);
+            if (before == '.' || Character.isJavaIdentifierPart(before)) {
+                return true;
+            }
+        }
+        int next = end;
+        if (next < sql.length()
+                && (sql.charAt(next) == '.' || Character
+                        .isJavaIdentifierPart(sql.charAt(next)))) {
+            return true;
+        }
+        while (next < sql.length() && Character.isWhitespace(sql.charAt(next))) {
+            ++next;
+        }
+        return next < sql.length() && sql.charAt(next) == '(';
+    }
+
+    /**
+     * the value as number, if it looks like one, otherwise as String.
+     */
+    private static Object typedValue(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final String trimmed = value.trim();
+        if (trimmed.length() > 0
+                && numberEnd(trimmed, trimmed.charAt(0) == '-' ? 1 : 0) == trimmed
+                .length()
+                && Character.isDigit(trimmed.charAt(trimmed.length() - 1))) {
+            try {
+                return toNumber(trimmed);
+            } catch (final NumberFormatException e) {
+                /* then it is a string */
+            }
+        }
+        return value;
+    }
+
+    private static boolean isTypedLiteralPrefix(final String word) {
+        return word != null && contains(TYPED_LITERAL_PREFIX, word);
+    }
+
+    private static boolean contains(final String[] words, final String word) {
+        for (int i = 0; i < words.length; ++i) {
+            if (words[i].equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int numberEnd(final String sql, int pos) {
+        final int len = sql.length();
+        while (pos < len && Character.isDigit(sql.charAt(pos))) {
+            ++pos;
+        }
+        if (pos < len && sql.charAt(pos) == '.') {
+            ++pos;
+            while (pos < len && Character.isDigit(sql.charAt(pos))) {
+                ++pos;
+            }
+        }
+        if (pos + 1 < len && (sql.charAt(pos) == 'e' || sql.charAt(pos) == 'E')) {
+            int exp = pos + 1;
+            if (exp < len && (sql.charAt(exp) == '+' || sql.charAt(exp) == '-')) {
+                ++exp;
+            }
+            if (exp < len && Character.isDigit(sql.charAt(exp))) {
+                pos = exp;
+                while (pos < len && Character.isDigit(sql.charAt(pos))) {
+                    ++pos;
+                }
+            }
+        }
+        return pos;
+    }
+
+    private static Object toNumber(final String literal) {
+        if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0
+                && literal.indexOf('E') < 0 && literal.length() < 19) {
+            return Long.valueOf(literal);
+        }
+        return new BigDecimal(literal);
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
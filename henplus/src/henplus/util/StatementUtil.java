@@ -0,0 +1,63 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Helpers for the commands that run SQL statements directly on JDBC, e.g.
+ * bench, replay and load, or that record them.
+ */
+public final class StatementUtil {
+
+    private StatementUtil() {
+        // only static methods
+    }
+
+    /**
+     * remove the trailing ';' or '/' the statement has been terminated with.
+     */
+    public static String stripTerminator(String sql) {
+        sql = sql.trim();
+        while (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        }
+        if (sql.endsWith("\n/") || "/".equals(sql)) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        }
+        return sql;
+    }
+
+    /**
+     * execute the statement and read its result, if any.
+     *
+     * @return the number of rows read or affected.
+     */
+    public static long executeAndRead(final Statement stmt, final String sql)
+    throws SQLException {
+        if (!stmt.execute(sql)) {
+            return Math.max(stmt.getUpdateCount(), 0);
+        }
+        long rows = 0;
+        final ResultSet rset = stmt.getResultSet();
+        try {
+            while (rset.next()) {
+                ++rows;
+            }
+        } finally {
+            rset.close();
+        }
+        return rows;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -0,0 +1,63 @@
+/*
+ * This is free software, licensed under the Gnu Public License (GPL)
+ * get a copy from <http://www.gnu.org/licenses/gpl.html>
+ *
+ * author: Henner Zeller <H.Zeller@acm.org>
+ */
+package henplus.util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads of the commands that run many clients at once, e.g.
+ * bench, replay and load.
+ */
+public final class ThreadUtil {
+    /** Thread.Builder of virtual threads (Java 21+); null if not available */
+    private static final Object VIRTUAL_BUILDER;
+    private static final Method UNSTARTED;
+
+    static {
+        Object builder = null;
+        Method unstarted = null;
+        try {
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class
+            .forName("java.lang.Thread$Builder");
+            unstarted = builderClass.getMethod("unstarted", Runnable.class);
+        } catch (final Exception e) {
+            builder = null; // older JVM: platform threads.
+        }
+        VIRTUAL_BUILDER = builder;
+        UNSTARTED = unstarted;
+    }
+
+    private ThreadUtil() {
+        // only static methods
+    }
+
+    /**
+     * a new, not yet started thread with the given name; virtual, if the
+     * runtime supports it, otherwise a daemon thread.
+     */
+    public static Thread newThread(final String name, final Runnable client) {
+        if (VIRTUAL_BUILDER != null) {
+            try {
+                final Thread thread = (Thread) UNSTARTED.invoke(
+                        VIRTUAL_BUILDER, client);
+                thread.setName(name);
+                return thread;
+            } catch (final Exception e) {
+                /* fall back to a platform thread */
+            }
+        }
+        final Thread thread = new Thread(client, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
+
+/*
+ * Local variables: c-basic-offset: 4 compile-command:
+ * "ant -emacs -find build.xml" End:
+ */
@@ -8,9 +8,16 @@ package henplus.view.util;
 
 import henplus.OutputDevice;
 import henplus.commands.TimeRenderer;
+import henplus.event.ProgressListener;
+import henplus.io.ByteCounter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A utility class that can write the progress of an operation to the screen.
+ * The progress can be observed from other threads, e.g. via JMX or the
+ * metrics, while the operation runs.
  */
 public class ProgressWriter {
     private static final int DEFAULT_SCREEN_WIDTH = 65;
@@ -20,17 +27,39 @@ public class ProgressWriter {
     /** min time between two eta updates */
     private static final long MIN_ETA_DIFF_TIME = 1 * 1000L;
 
+    /** informed about named operations, which may run in any thread */
+    private static final List<ProgressListener> LISTENERS = new CopyOnWriteArrayList<ProgressListener>();
+
+    private final String _operation;
     private final long _expectedTargetValue;
     private final OutputDevice _out;
     private final long _startTime;
     private final CancelWriter _etaWriter;
 
     private long _lastEtaUpdate;
+    private long _lastEtaItems;
+    private volatile long _value;
+    private long _items;
+    private String _itemName;
+    private String _status;
+    private volatile ByteCounter _byteCounter;
+    private long _bytesAtStart;
 
     private int _progressDots;
     private int _screenWidth;
 
     public ProgressWriter(final long expectedTargetValue, final OutputDevice out) {
+        this(null, expectedTargetValue, out);
+    }
+
+    /**
+     * a ProgressWriter for a named operation, e.g. 'dump-in table'. No
+     * progress is written, if the expected target value is not known (&lt;=
+     * 0); it is counted nevertheless.
+     */
+    public ProgressWriter(final String operation,
+            final long expectedTargetValue, final OutputDevice out) {
+        _operation = operation;
         _expectedTargetValue = expectedTargetValue;
         _out = out;
         _progressDots = 0;
@@ -38,6 +67,93 @@ public class ProgressWriter {
         _lastEtaUpdate = -1;
         _etaWriter = new CancelWriter(_out);
         setScreenWidth(DEFAULT_SCREEN_WIDTH);
+        if (operation != null) {
+            for (final ProgressListener listener : LISTENERS) {
+                listener.operationStarted(this);
+            }
+        }
+    }
+
+    /**
+     * add a listener informed about the named operations started from now
+     * on.
+     */
+    public static void addProgressListener(final ProgressListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * remove a progress listener.
+     *
+     * @return true, if this has been successful.
+     */
+    public static boolean removeProgressListener(
+            final ProgressListener listener) {
+        return LISTENERS.remove(listener);
+    }
+
+    /**
+     * count the bytes of the given counter from now on as the bytes
+     * processed by this operation.
+     */
+    public void setByteCounter(final ByteCounter counter) {
+        _bytesAtStart = counter != null ? counter.getByteCount() : 0;
+        _byteCounter = counter;
+    }
+
+    public String getOperation() {
+        return _operation;
+    }
+
+    public long getExpectedTargetValue() {
+        return _expectedTargetValue;
+    }
+
+    /**
+     * the last value given to {@link #update(long)}.
+     */
+    public long getValue() {
+        return _value;
+    }
+
+    /**
+     * the bytes processed so far; -1, if they are not counted.
+     */
+    public long getBytes() {
+        final ByteCounter counter = _byteCounter;
+        return counter != null ? counter.getByteCount() - _bytesAtStart : -1;
+    }
+
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    /**
+     * show the rate of the items counted with {@link #update(long, long)},
+     * e.g. 'statements', next to the ETA.
+     */
+    public void setItemName(final String itemName) {
+        _itemName = itemName;
+    }
+
+    /**
+     * a short text shown next to the ETA, e.g. the file currently read;
+     * null for none.
+     */
+    public void setStatus(final String status) {
+        _status = status;
+    }
+
+    public String getStatus() {
+        return _status;
+    }
+
+    /**
+     * returns, if progress has been written to the screen; the line is to be
+     * ended then.
+     */
+    public boolean hasProgressOutput() {
+        return _progressDots > 0;
     }
 
     public void setScreenWidth(final int screenWidth) {
@@ -48,7 +164,17 @@ public class ProgressWriter {
         return _screenWidth;
     }
 
+    /**
+     * like {@link #update(long)}; besides, the number of items processed so
+     * far, whose rate is shown.
+     */
+    public void update(final long value, final long items) {
+        _items = items;
+        update(value);
+    }
+
     public void update(final long value) {
+        _value = value;
         if (_expectedTargetValue > 0 && value <= _expectedTargetValue) {
             final long newDots = _screenWidth * value / _expectedTargetValue;
             if (newDots > _progressDots) {
@@ -65,6 +191,11 @@ public class ProgressWriter {
 
     public void finish() {
         _etaWriter.cancel();
+        if (_operation != null) {
+            for (final ProgressListener listener : LISTENERS) {
+                listener.operationFinished(this);
+            }
+        }
     }
 
     private void writeEta(final long value) {
@@ -73,7 +204,7 @@ public class ProgressWriter {
         }
         final long now = System.currentTimeMillis();
         final long runningTime = now - _startTime;
-        if (runningTime < MIN_ETA_RUNNING_TIME) {
+        if (runningTime < MIN_ETA_RUNNING_TIME || value <= 0) {
             return;
         }
         final long lastUpdateDiff = now - _lastEtaUpdate;
@@ -81,8 +212,23 @@ public class ProgressWriter {
                 || lastUpdateDiff > MIN_ETA_DIFF_TIME) {
             final long etaTime = _expectedTargetValue * runningTime / value;
             final long rest = etaTime - runningTime;
-            _etaWriter.print("ETA: " + TimeRenderer.renderTime(rest));
+            final StringBuilder eta = new StringBuilder("ETA: ");
+            eta.append(TimeRenderer.renderTime(rest));
+            if (_itemName != null) {
+                // the rate since the last update, not since the start.
+                final long interval = _lastEtaUpdate < 0 ? runningTime
+                        : lastUpdateDiff;
+                final long items = _lastEtaUpdate < 0 ? _items : _items
+                        - _lastEtaItems;
+                eta.append("; ").append(1000 * items / interval).append(' ')
+                .append(_itemName).append("/s");
+            }
+            if (_status != null) {
+                eta.append("; ").append(_status);
+            }
+            _etaWriter.print(eta.toString());
             _lastEtaUpdate = now;
+            _lastEtaItems = _items;
         }
     }
 }